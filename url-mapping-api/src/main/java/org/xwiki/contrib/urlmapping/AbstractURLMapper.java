@@ -101,6 +101,40 @@ public abstract class AbstractURLMapper implements URLMapper
         throw new UnsupportedOperationException();
     }
 
+    /**
+     * Declares whether the results of this mapper can be cached, see {@link URLMappingSpecification#isCacheable()}.
+     * Ignored when the mapper was given its own specification, other than a {@link TemplateURLMappingSpecification}:
+     * this specification declares it.
+     *
+     * @param cacheable whether the results of this mapper only depend on the path and the HTTP method
+     * @since 0.0.7
+     */
+    protected void setCacheable(boolean cacheable)
+    {
+        if (this.specification instanceof DefaultURLMappingSpecification) {
+            ((DefaultURLMappingSpecification) this.specification).setCacheable(cacheable);
+        } else if (this.specification instanceof TemplateURLMappingSpecification) {
+            ((TemplateURLMappingSpecification) this.specification).setCacheable(cacheable);
+        }
+    }
+
+    /**
+     * Declares whether the paths matched by this mapper can be matched by the other mappers of the handler, see
+     * {@link URLMappingSpecification#isIndependent()}. Ignored when the mapper was given its own specification, other
+     * than a {@link TemplateURLMappingSpecification}: this specification declares it.
+     *
+     * @param independent whether no path matched by this mapper can be matched by the other mappers
+     * @since 0.0.7
+     */
+    protected void setIndependent(boolean independent)
+    {
+        if (this.specification instanceof DefaultURLMappingSpecification) {
+            ((DefaultURLMappingSpecification) this.specification).setIndependent(independent);
+        } else if (this.specification instanceof TemplateURLMappingSpecification) {
+            ((TemplateURLMappingSpecification) this.specification).setIndependent(independent);
+        }
+    }
+
     protected void setConfiguration(URLMappingConfiguration configuration)
     {
         this.configuration = configuration;
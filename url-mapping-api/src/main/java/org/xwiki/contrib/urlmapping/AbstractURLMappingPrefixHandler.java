@@ -38,17 +38,23 @@ package org.xwiki.contrib.urlmapping;
  * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
  */
 
-import java.util.Collection;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.Callable;
 import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import javax.inject.Inject;
+import javax.inject.Provider;
 import javax.servlet.http.HttpServletRequest;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.xwiki.cache.CacheManager;
 import org.xwiki.component.descriptor.ComponentDescriptor;
+import org.xwiki.component.manager.ComponentLifecycleException;
 import org.xwiki.component.manager.ComponentManager;
+import org.xwiki.component.phase.Disposable;
 import org.xwiki.configuration.ConfigurationSource;
 import org.xwiki.rendering.block.Block;
 
@@ -83,18 +89,62 @@ import org.xwiki.rendering.block.Block;
  *  }
  *</pre>
  *
+ * Setting {@code urlmapping.prefixhandlers.<hint>.compiledDispatch} to true (or the
+ * {@link DefaultURLMappingConfiguration.Key#COMPILED_DISPATCH} default in
+ * {@link #initializeConfigurationDefaults(DefaultURLMappingConfiguration)}) makes the handler combine the regexes of
+ * all its mappers into a single pattern, so the first matching mapper is found with a single match. Similarly,
+ * {@code urlmapping.prefixhandlers.<hint>.literalPrefilter} makes the handler index the literals required by the
+ * regexes of its mappers and skip the mappers whose literals are not in the path.
+ * <p>
+ * Setting {@code urlmapping.prefixhandlers.<hint>.resultCache} to true makes the handler cache the results of its
+ * mappers by path and HTTP method, for the mappers declaring their results cacheable (see
+ * {@link URLMappingSpecification#isCacheable()}). The cache is bounded by {@code resultCacheSize} entries and its
+ * entries expire after {@code resultCacheLifespan} seconds. Results with suggestions are never cached. Setting
+ * {@code urlmapping.prefixhandlers.<hint>.unmatchedPathCache} to true makes the handler remember, up to
+ * {@code unmatchedPathCacheSize}, the paths that the regexes of its mappers don't match, and answer them with a 404
+ * result directly.
+ * Setting {@code urlmapping.prefixhandlers.<hint>.matcherReuse} to true makes each thread reuse the regex matchers
+ * of the handler for all the paths it converts, instead of creating new ones each time.
+ * <p>
+ * Setting {@code urlmapping.prefixhandlers.<hint>.concurrentEvaluation} to true makes the handler run the conversions
+ * of all the mappers matching a path concurrently, each with a clone of the execution context, and use the first
+ * result in declaration order. This is useful when several mappers do expensive lookups, and requires their
+ * conversions to be thread safe. At most {@code concurrentEvaluationLimit} conversions of the handler run at the same
+ * time, and the handler answers a 404 result when the result is not known after {@code concurrentEvaluationTimeout}
+ * milliseconds.
+ * <p>
+ * Setting {@code urlmapping.prefixhandlers.<hint>.adaptiveOrdering} to true makes the handler count the conversions of
+ * each mapper and, at most every {@code adaptiveOrderingInterval} seconds, try the independent mappers (see
+ * {@link URLMappingSpecification#isIndependent()}) with the most conversions first. The other mappers keep their
+ * declaration order relatively to each other. The current order is given by {@link #getEffectiveMapperOrder()}.
+ * <p>
+ * Setting {@code urlmapping.prefixhandlers.<hint>.precompiledRedirectScreen} to true makes the redirect screen of the
+ * handler rendered once per configuration and locale, and then filled with the URL of each redirect. Only use it with
+ * redirect screen templates whose output depends on nothing else than the URL and the configuration.
+ * <p>
+ * Setting {@code urlmapping.prefixhandlers.<hint>.async} to true makes the requests of the handler converted and
+ * redirected by a dedicated executor, with a clone of the execution context, so that the threads of the servlet
+ * container can serve other requests while slow mappers do their lookups. The requests which are not redirected
+ * after {@code asyncTimeout} milliseconds are answered with the not found result. The requests which the servlet
+ * container cannot process asynchronously are handled in its thread.
+ * <p>
+ * {@link #getMappers()} is only called once: the returned mappers are bound to the configuration of the handler and
+ * their specifications are read to build a mapper table which is then used for all the conversions. Handlers whose
+ * mappers or specifications change at runtime must call {@link #invalidateMappers()} to have the table rebuilt.
+ *
  * @version $Id$
  * @since 0.0.1
  */
-public abstract class AbstractURLMappingPrefixHandler implements URLMappingPrefixHandler
+public abstract class AbstractURLMappingPrefixHandler implements URLMappingPrefixHandler, Disposable
 {
     private static final int HTTP_ERROR_CODE = 404;
+    private static final String WARMUP_METHOD = "GET";
     private static final Logger LOGGER = LoggerFactory.getLogger(AbstractURLMappingPrefixHandler.class);
 
     @Inject
     private ComponentDescriptor<URLMappingPrefixHandler> descriptor;
 
-    private URLMappingConfiguration configuration;
+    private volatile URLMappingConfiguration configuration;
 
     @Inject
     private ConfigurationSource configurationSource;
@@ -102,72 +152,296 @@ public abstract class AbstractURLMappingPrefixHandler implements URLMappingPrefi
     @Inject
     private ComponentManager componentManager;
 
+    private volatile URLMapperTable mapperTable;
+
+    @Inject
+    private Provider<CacheManager> cacheManagerProvider;
+
+    // the result cache and the concurrent evaluator, created on the first conversion
+    private volatile PrefixHandlerServices services;
+
     @Override
     public URLMappingResult convert(String path, String method, HttpServletRequest request)
     {
-        for (URLMapper mapper : getMappers()) {
-            if (mapper instanceof AbstractURLMapper) {
-                AbstractURLMapper m = (AbstractURLMapper) mapper;
-                if (m.getConfiguration() == null) {
-                    m.setConfiguration(this.getConfiguration());
-                }
+        PrefixHandlerServices current = acquireServices();
+        try {
+            return convert(current, path, method, request);
+        } finally {
+            current.release();
+        }
+    }
+
+    private URLMappingResult convert(PrefixHandlerServices current, String path, String method,
+        HttpServletRequest request)
+    {
+        URLMappingResultCache cache = current.getResultCache();
+        URLMappingResult cached = cache == null ? null : cache.get(path, method);
+        if (cached != null) {
+            LOGGER.debug("Converted path [{}], method [{}] from the result cache", path, method);
+            return cached;
+        }
+
+        URLMapperTable table = getMapperTable();
+        UnmatchedPathCache unmatchedPaths = table.getUnmatchedPaths();
+        if (unmatchedPaths != null && unmatchedPaths.contains(path, method)) {
+            LOGGER.debug("Path [{}], method [{}] is known to match no mapper", path, method);
+            return getNotFoundResult();
+        }
+
+        return convert(table, path, method, request, cache, current.getEvaluator());
+    }
+
+    private URLMappingResult convert(URLMapperTable table, String path, String method, HttpServletRequest request,
+        URLMappingResultCache cache, ConcurrentMapperEvaluator evaluator)
+    {
+        if (evaluator != null) {
+            return convertConcurrently(evaluator, table, path, method, request, cache);
+        }
+
+        int firstMatch = table.firstMatch(path);
+        BitSet literals = table.scanLiterals(path);
+        SegmentTrieRouter.Route[] routes = table.route(path);
+        boolean matched = false;
+        boolean cacheable = true;
+
+        for (int i : table.getCandidates(method)) {
+            URLMapperTable.Entry entry = table.get(i);
+            if (table.cannotMatch(i, firstMatch, literals)) {
+                LOGGER.debug("Mapper [{}] skipped for path [{}]", entry.getName(), path);
+                continue;
             }
 
-            URLMappingResult result = convert(mapper, path, method, request);
+            DefaultURLMappingMatch match = match(entry, routes, i, path, method, request);
+            if (match == null) {
+                continue;
+            }
+
+            matched = true;
+            // the result only depends on the path and the method if all the mappers which saw the request do
+            cacheable &= entry.isCacheable();
+            URLMappingResult result = convert(entry, match);
 
             if (result != null) {
-                LOGGER.debug("Converted path [{}], method [{}] with mapper [{}]", path, method,
-                    mapper.getClass().getName());
-                return result;
+                table.recordHit(entry);
+                return converted(entry, path, method, result, cacheable ? cache : null);
             }
         }
 
+        // Only the regexes and methods of the mappers decided that the path could not be converted
+        if (!matched && table.getUnmatchedPaths() != null) {
+            table.getUnmatchedPaths().add(path, method);
+        }
+
+        return getNotFoundResult();
+    }
+
+    private URLMappingResult convertConcurrently(ConcurrentMapperEvaluator evaluator, URLMapperTable table,
+        String path, String method, HttpServletRequest request, URLMappingResultCache cache)
+    {
+        int firstMatch = table.firstMatch(path);
+        BitSet literals = table.scanLiterals(path);
+        SegmentTrieRouter.Route[] routes = table.route(path);
+        List<URLMapperTable.Entry> entries = new ArrayList<>();
+        List<Callable<URLMappingResult>> conversions = new ArrayList<>();
+        for (int i : table.getCandidates(method)) {
+            URLMapperTable.Entry entry = table.get(i);
+            DefaultURLMappingMatch match =
+                table.cannotMatch(i, firstMatch, literals) ? null : match(entry, routes, i, path, method, request);
+            if (match != null) {
+                entries.add(entry);
+                conversions.add(() -> convert(entry, match));
+            }
+        }
+
+        if (entries.isEmpty()) {
+            if (table.getUnmatchedPaths() != null) {
+                table.getUnmatchedPaths().add(path, method);
+            }
+            return getNotFoundResult();
+        }
+
+        ConcurrentMapperEvaluator.Selection selection = evaluator.evaluate(conversions);
+        if (selection == null) {
+            return getNotFoundResult();
+        }
+
+        boolean cacheable = true;
+        for (int i = 0; i <= selection.getIndex(); i++) {
+            cacheable &= entries.get(i).isCacheable();
+        }
+        table.recordHit(entries.get(selection.getIndex()));
+        return converted(entries.get(selection.getIndex()), path, method, selection.getResult(),
+            cacheable ? cache : null);
+    }
+
+    private static URLMappingResult converted(URLMapperTable.Entry entry, String path, String method,
+        URLMappingResult result, URLMappingResultCache cache)
+    {
+        LOGGER.debug("Converted path [{}], method [{}] with mapper [{}]", path, method, entry.getName());
+        if (cache != null && result.getSuggestions() == null) {
+            cache.put(path, method, result);
+        }
+        return result;
+    }
+
+    private URLMappingResult getNotFoundResult()
+    {
         // We don't return null so custom configurations are not lost
         return new DefaultURLMappingResult(getConfiguration(), "", HTTP_ERROR_CODE);
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The prefix is read from the configuration, or from the {@link URLMappingPrefix} annotation of the handler if it
+     * is not configured.
+     */
     @Override
     public String getPrefix()
     {
-        return this.getConfiguration().getPrefix();
+        String prefix = this.getConfiguration().getPrefix();
+        if (prefix == null || prefix.isEmpty()) {
+            URLMappingPrefix annotation = getClass().getAnnotation(URLMappingPrefix.class);
+            if (annotation != null) {
+                return annotation.value();
+            }
+        }
+        return prefix;
     }
 
     /**
-     * @return the URL mappers that should be used to convert URLs in this prefix
+     * @return the URL mappers that should be used to convert URLs in this prefix. This is called when the first URL
+     *     is converted and after each call to {@link #invalidateMappers()}, and the returned mappers are reused for
+     *     the following conversions.
      */
     protected abstract URLMapper[] getMappers();
 
-    private URLMappingResult convert(URLMapper mapper, String path, String method, HttpServletRequest request)
+    /**
+     * Drops the mappers returned by {@link #getMappers()}, so that it is called again and the mapper table rebuilt
+     * when the next URL is converted, and flushes the result cache. Handlers whose rules change at runtime should
+     * call this after each change.
+     *
+     * @since 0.0.7
+     */
+    public void invalidateMappers()
+    {
+        synchronized (this) {
+            this.mapperTable = null;
+        }
+        flushResultCache();
+        LOGGER.debug("Mappers of prefix handler [{}] invalidated", this.descriptor.getRoleHint());
+    }
+
+    /**
+     * Drops the configuration of the handler so that it is read again, along with everything built from it: the
+     * mapper table (see {@link #invalidateMappers()}), the result cache and the concurrent evaluator.
+     *
+     * @since 0.0.7
+     */
+    public void invalidateConfiguration()
+    {
+        synchronized (this) {
+            URLMapperTable table = this.mapperTable;
+            if (table != null) {
+                table.unbind(this.configuration);
+            }
+            this.mapperTable = null;
+            this.configuration = null;
+            disposeServices();
+        }
+        LOGGER.debug("Configuration of prefix handler [{}] invalidated", this.descriptor.getRoleHint());
+    }
+
+    /**
+     * @return the estimated probability that the Bloom filter of the unmatched path cache reports a path which is not
+     *     in the cache, or 0 if the cache is not enabled
+     * @since 0.0.7
+     */
+    public double getUnmatchedPathCacheFalsePositiveRate()
+    {
+        UnmatchedPathCache unmatchedPaths = getUnmatchedPathCache();
+        return unmatchedPaths == null ? 0 : unmatchedPaths.getFalsePositiveRate();
+    }
+
+    /**
+     * @return the estimated memory used by the unmatched path cache, in bytes, or 0 if the cache is not enabled
+     * @since 0.0.7
+     */
+    public long getUnmatchedPathCacheMemoryUsage()
+    {
+        UnmatchedPathCache unmatchedPaths = getUnmatchedPathCache();
+        return unmatchedPaths == null ? 0 : unmatchedPaths.getMemoryUsage();
+    }
+
+    /**
+     * @return the mappers, in the order they are currently tried
+     * @since 0.0.7
+     */
+    public List<URLMapper> getEffectiveMapperOrder()
+    {
+        return getMapperTable().getEffectiveOrder();
+    }
+
+    private UnmatchedPathCache getUnmatchedPathCache()
+    {
+        URLMapperTable table = this.mapperTable;
+        return table == null ? null : table.getUnmatchedPaths();
+    }
+
+    private URLMapperTable getMapperTable()
     {
-        URLMappingSpecification spec = mapper.getSpecification();
-        String mapperName = mapper.getClass().getName();
-        if (isHTTPMethodCompatible(method, spec)) {
-            LOGGER.debug("Mapper [{}] is not compatible with method [{}]", mapperName, method);
-            return null;
+        URLMapperTable table = this.mapperTable;
+        if (table == null) {
+            synchronized (this) {
+                table = this.mapperTable;
+                if (table == null) {
+                    table = new URLMapperTable(getMappers(), getConfiguration());
+                    this.mapperTable = table;
+                }
+            }
         }
+        return table;
+    }
 
-        Pattern[] regexes = spec == null ? null : spec.getRegexes();
-        Matcher matcher = null;
-        if (regexes != null && regexes.length != 0) {
+    /**
+     * @return the match to give to the mapper, or null if the mapper doesn't match the path
+     */
+    private static DefaultURLMappingMatch match(URLMapperTable.Entry entry, SegmentTrieRouter.Route[] routes, int index,
+        String path, String method, HttpServletRequest request)
+    {
+        if (entry.isTemplate()) {
+            SegmentTrieRouter.Route route = routes[index];
+            if (route != null) {
+                return new TemplateURLMappingMatch(path, method, route.getTemplate(), route.getVariables(), request);
+            }
+        } else if (entry.isCatchAll()) {
             // if no regex is given, we consider that the mapper handles the URL (catch-all)
-            matcher = matchOneRegex(path, regexes);
-            if (matcher == null) {
-                LOGGER.debug("Mapper [{}] doesn't match path [{}]", mapperName, path);
-                return null;
+            return new DefaultURLMappingMatch(path, method, null, request);
+        } else {
+            Matcher matcher = entry.match(path);
+            if (matcher != null) {
+                return new DefaultURLMappingMatch(path, method, matcher, request);
             }
         }
 
-        DefaultURLMappingMatch m = new DefaultURLMappingMatch(path, method, matcher, request);
+        LOGGER.debug("Mapper [{}] doesn't match path [{}]", entry.getName(), path);
+        return null;
+    }
+
+    private URLMappingResult convert(URLMapperTable.Entry entry, DefaultURLMappingMatch m)
+    {
+        String mapperName = entry.getName();
+        URLMapper mapper = entry.getMapper();
         URLMappingResult r = mapper.convert(m);
 
-        LOGGER.debug("Mapper [{}] converted path [{}], method [{}] to [{}]", mapperName, path,
-            method, r == null ? null : r.toString());
+        LOGGER.debug("Mapper [{}] converted path [{}], method [{}] to [{}]", mapperName, m.getMatchedURL(),
+            m.getHTTPMethod(), r == null ? null : r.toString());
 
         if (r == null && mapper instanceof AbstractURLMapper) {
             Block suggestions = ((AbstractURLMapper) mapper).getSuggestions(m);
             if (suggestions != null) {
                 LOGGER.debug("Mapper [{}] suggests something for path [{}], method [{}]", mapperName,
-                    path, method);
+                    m.getMatchedURL(), m.getHTTPMethod());
                 return new DefaultURLMappingResult(getConfiguration(), suggestions, HTTP_ERROR_CODE);
             }
         }
@@ -175,21 +449,144 @@ public abstract class AbstractURLMappingPrefixHandler implements URLMappingPrefi
         return r;
     }
 
-    private static boolean isHTTPMethodCompatible(String method, URLMappingSpecification spec)
+    /**
+     * Prepares this handler for the first requests: reads its configuration, builds its mapper table and converts the
+     * sample paths of its configuration (see {@link DefaultURLMappingConfiguration#getWarmupPaths()}) with the
+     * {@code GET} method, which fills its caches. The sample paths are converted without any request: the failures of
+     * the mappers which need one are ignored.
+     *
+     * @param deadline the {@link System#nanoTime()} after which the remaining sample paths are not converted
+     * @return the number of sample paths converted
+     * @since 0.0.7
+     */
+    public int warmUp(long deadline)
     {
-        Collection<String> handledHTTPMethods = spec == null ? null : spec.getHandledHTTPMethods();
-        return handledHTTPMethods != null && !handledHTTPMethods.isEmpty() && !handledHTTPMethods.contains(method);
+        URLMappingConfiguration conf = getConfiguration();
+        getMapperTable();
+        if (!(conf instanceof DefaultURLMappingConfiguration)) {
+            return 0;
+        }
+
+        int converted = 0;
+        for (String path : ((DefaultURLMappingConfiguration) conf).getWarmupPaths()) {
+            if (System.nanoTime() - deadline > 0) {
+                LOGGER.debug("Warm-up of prefix handler [{}] stopped after [{}] sample paths",
+                    this.descriptor.getRoleHint(), converted);
+                break;
+            }
+            try {
+                convert(path, WARMUP_METHOD, null);
+            } catch (RuntimeException e) {
+                LOGGER.debug("Failed to convert the sample path [{}] of prefix handler [{}]", path,
+                    this.descriptor.getRoleHint(), e);
+            }
+            converted++;
+        }
+        return converted;
     }
 
-    private static Matcher matchOneRegex(String pathWithoutPrefix, Pattern[] regexes)
+    /**
+     * @return the time, in milliseconds, after which a request of this handler converted and redirected outside of the
+     *     thread of the servlet container is answered with the not found result, or 0 if the requests of this handler
+     *     are handled in the thread of the servlet container
+     * @since 0.0.7
+     */
+    public int getAsyncTimeout()
+    {
+        URLMappingConfiguration conf = getConfiguration();
+        if (!(conf instanceof DefaultURLMappingConfiguration)
+            || !((DefaultURLMappingConfiguration) conf).isAsyncEnabled()) {
+            return 0;
+        }
+        return Math.max(0, ((DefaultURLMappingConfiguration) conf).getAsyncTimeout());
+    }
+
+    /**
+     * Removes all the results from the result cache of this handler.
+     *
+     * @since 0.0.7
+     */
+    public void flushResultCache()
     {
-        for (Pattern regex : regexes) {
-            Matcher matcher = regex.matcher(pathWithoutPrefix);
-            if (matcher.matches()) {
-                return matcher;
+        PrefixHandlerServices current = acquireServices();
+        try {
+            if (current.getResultCache() != null) {
+                current.getResultCache().flush();
             }
+        } finally {
+            current.release();
         }
-        return null;
+    }
+
+    /**
+     * @return the number of conversions answered from the result cache
+     * @since 0.0.7
+     */
+    public long getResultCacheHitCount()
+    {
+        URLMappingResultCache cache = getCurrentResultCache();
+        return cache == null ? 0 : cache.getHitCount();
+    }
+
+    /**
+     * @return the number of conversions which could not be answered from the result cache
+     * @since 0.0.7
+     */
+    public long getResultCacheMissCount()
+    {
+        URLMappingResultCache cache = getCurrentResultCache();
+        return cache == null ? 0 : cache.getMissCount();
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        synchronized (this) {
+            disposeServices();
+        }
+    }
+
+    /**
+     * Drops the current services: they are disposed once the conversions using them are over.
+     */
+    private void disposeServices()
+    {
+        PrefixHandlerServices current = this.services;
+        this.services = null;
+        if (current != null) {
+            current.retire();
+        }
+    }
+
+    /**
+     * @return the current services, which must be released after use
+     */
+    private PrefixHandlerServices acquireServices()
+    {
+        while (true) {
+            PrefixHandlerServices current = this.services;
+            if (current == null) {
+                synchronized (this) {
+                    current = this.services;
+                    if (current == null) {
+                        current = PrefixHandlerServices.create(this.componentManager, this.cacheManagerProvider.get(),
+                            this.descriptor.getRoleHint(), getConfiguration());
+                        this.services = current;
+                    }
+                }
+            }
+            if (current.acquire()) {
+                return current;
+            }
+            // retired by a concurrent invalidation in the meantime
+        }
+    }
+
+    private URLMappingResultCache getCurrentResultCache()
+    {
+        // the counters stay readable once the cache is disposed
+        PrefixHandlerServices current = this.services;
+        return current == null ? null : current.getResultCache();
     }
 
     protected URLMappingConfiguration getConfiguration()
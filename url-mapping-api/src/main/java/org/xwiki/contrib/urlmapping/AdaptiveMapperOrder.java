@@ -0,0 +1,120 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.urlmapping;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Orders the mappers of a handler by number of conversions, so that the mappers converting most of the paths are tried
+ * first.
+ * <p>
+ * Only the independent mappers (see {@link URLMappingSpecification#isIndependent()}) move: the others keep their
+ * declaration order relatively to each other, so that the result of a conversion doesn't depend on the order. The
+ * conversions are counted with striped counters, and the counts are folded, at most once per interval, into scores
+ * which halve at each reordering so that the order follows the changes of traffic.
+ *
+ * @version $Id$
+ * @since 0.0.7
+ */
+final class AdaptiveMapperOrder
+{
+    private final boolean[] independent;
+
+    private final LongAdder[] hits;
+
+    // only accessed while reordering
+    private final long[] scores;
+
+    private final long interval;
+
+    private final AtomicLong nextReordering;
+
+    /**
+     * @param independent for each mapper, in declaration order, whether it is independent
+     * @param interval the minimum time between two reorderings, in seconds
+     */
+    AdaptiveMapperOrder(boolean[] independent, int interval)
+    {
+        this.independent = independent.clone();
+        this.hits = new LongAdder[independent.length];
+        for (int i = 0; i < this.hits.length; i++) {
+            this.hits[i] = new LongAdder();
+        }
+        this.scores = new long[independent.length];
+        this.interval = TimeUnit.SECONDS.toNanos(interval);
+        this.nextReordering = new AtomicLong(System.nanoTime() + this.interval);
+    }
+
+    /**
+     * @param mapperIndex the index of the mapper which converted a path
+     */
+    void recordHit(int mapperIndex)
+    {
+        this.hits[mapperIndex].increment();
+    }
+
+    /**
+     * @return the new order of the mappers if it is time to reorder them, as indexes in declaration order, or null.
+     *     Only one of the threads calling this method at the same time gets the new order.
+     */
+    int[] reorderIfDue()
+    {
+        long now = System.nanoTime();
+        long next = this.nextReordering.get();
+        if (now - next < 0 || !this.nextReordering.compareAndSet(next, now + this.interval)) {
+            return null;
+        }
+        return reorder();
+    }
+
+    private synchronized int[] reorder()
+    {
+        List<Integer> independentMappers = new ArrayList<>();
+        List<Integer> otherMappers = new ArrayList<>();
+        for (int i = 0; i < this.scores.length; i++) {
+            this.scores[i] = this.scores[i] / 2 + this.hits[i].sumThenReset();
+            (this.independent[i] ? independentMappers : otherMappers).add(i);
+        }
+        // stable: mappers with the same score stay in declaration order
+        independentMappers.sort(Comparator.comparingLong(i -> -this.scores[i]));
+
+        // merge the independent mappers into the other ones, which stay in declaration order
+        int[] order = new int[this.scores.length];
+        int i = 0;
+        int o = 0;
+        for (int n = 0; n < order.length; n++) {
+            boolean takeIndependent = o == otherMappers.size() || (i < independentMappers.size()
+                && this.scores[independentMappers.get(i)] > this.scores[otherMappers.get(o)]);
+            if (takeIndependent) {
+                order[n] = independentMappers.get(i);
+                i++;
+            } else {
+                order[n] = otherMappers.get(o);
+                o++;
+            }
+        }
+        return order;
+    }
+}
@@ -0,0 +1,387 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.urlmapping;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.component.manager.ComponentManager;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.context.ExecutionContextException;
+import org.xwiki.context.ExecutionContextManager;
+
+/**
+ * Runs the conversions of the mappers matching a path concurrently, and selects the first result in declaration
+ * order.
+ * <p>
+ * Each conversion runs with its own clone of the execution context of the request. At most a given number of
+ * conversions of the handler run at the same time in the executor: the following ones run in the request thread.
+ * The request gives up waiting for the results after a deadline. Virtual threads are used when the JVM provides them,
+ * and otherwise at most as many platform threads as the limit of concurrent conversions.
+ * <p>
+ * The conversions read the request, which the servlet container recycles once it's answered: the conversions which
+ * are not needed anymore, because an earlier one produced a result or because of the deadline, are interrupted, and
+ * the request waits for them to stop before going on. The failure of a conversion is only thrown if no earlier
+ * conversion produced a result, like when the conversions run sequentially.
+ *
+ * @version $Id$
+ * @since 0.0.7
+ */
+final class ConcurrentMapperEvaluator
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(ConcurrentMapperEvaluator.class);
+
+    private static final long THREAD_KEEP_ALIVE = 60;
+
+    private final String hint;
+
+    private final Semaphore permits;
+
+    private final long timeout;
+
+    private final ExecutorService executor;
+
+    private final Execution execution;
+
+    private final ExecutionContextManager executionContextManager;
+
+    /**
+     * A conversion running in the executor, with its own clone of the execution context.
+     */
+    private final class Conversion extends FutureTask<URLMappingResult>
+    {
+        // guarded by this
+        private boolean started;
+
+        // guarded by this
+        private boolean running;
+
+        Conversion(Callable<URLMappingResult> conversion)
+        {
+            super(withContext(conversion, cloneContext()));
+        }
+
+        @Override
+        public void run()
+        {
+            if (start()) {
+                try {
+                    super.run();
+                } finally {
+                    stop();
+                }
+            }
+        }
+
+        @Override
+        protected void done()
+        {
+            // the conversion cancelled before it started doesn't release its permit
+            if (start()) {
+                stop();
+            }
+        }
+
+        private synchronized boolean start()
+        {
+            if (this.started) {
+                return false;
+            }
+            this.started = true;
+            this.running = true;
+            return true;
+        }
+
+        private synchronized void stop()
+        {
+            this.running = false;
+            permits.release();
+            notifyAll();
+        }
+
+        /**
+         * Waits for the conversion to leave the mapper, even if the current thread is interrupted.
+         */
+        synchronized void awaitStop()
+        {
+            boolean interrupted = false;
+            while (this.running) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * The first non-null result of the conversions, in declaration order.
+     */
+    static final class Selection
+    {
+        private final int index;
+
+        private final URLMappingResult result;
+
+        Selection(int index, URLMappingResult result)
+        {
+            this.index = index;
+            this.result = result;
+        }
+
+        /**
+         * @return the index of the conversion which produced the result
+         */
+        int getIndex()
+        {
+            return this.index;
+        }
+
+        URLMappingResult getResult()
+        {
+            return this.result;
+        }
+    }
+
+    private ConcurrentMapperEvaluator(String hint, int maxConcurrency, long timeout, Execution execution,
+        ExecutionContextManager executionContextManager)
+    {
+        this.hint = hint;
+        this.permits = new Semaphore(Math.max(1, maxConcurrency));
+        this.timeout = timeout;
+        this.execution = execution;
+        this.executionContextManager = executionContextManager;
+        this.executor = createExecutor(hint, Math.max(1, maxConcurrency));
+    }
+
+    /**
+     * @param componentManager the component manager to get the execution components from
+     * @param hint the hint of the prefix handler
+     * @param configuration the configuration of the prefix handler
+     * @return an evaluator configured for the handler
+     * @throws ComponentLookupException if the execution components are missing
+     */
+    static ConcurrentMapperEvaluator create(ComponentManager componentManager, String hint,
+        DefaultURLMappingConfiguration configuration) throws ComponentLookupException
+    {
+        return new ConcurrentMapperEvaluator(hint, configuration.getConcurrentEvaluationLimit(),
+            configuration.getConcurrentEvaluationTimeout(), componentManager.getInstance(Execution.class),
+            componentManager.getInstance(ExecutionContextManager.class));
+    }
+
+    /**
+     * @param conversions the conversions of the matching mappers, in declaration order
+     * @return the first non-null result in declaration order, or null if there is none or if it could not be known
+     *     before the deadline
+     */
+    Selection evaluate(List<Callable<URLMappingResult>> conversions)
+    {
+        if (conversions.size() == 1) {
+            // Nothing to run concurrently
+            URLMappingResult result = call(conversions.get(0));
+            return result == null ? null : new Selection(0, result);
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(this.timeout);
+        List<Future<URLMappingResult>> futures = new ArrayList<>(conversions.size());
+        try {
+            for (Callable<URLMappingResult> conversion : conversions) {
+                Future<URLMappingResult> future = submit(conversion);
+                futures.add(future);
+                if (hasResult(future)) {
+                    // evaluated inline: the following conversions cannot be selected
+                    break;
+                }
+            }
+
+            for (int i = 0; i < futures.size(); i++) {
+                URLMappingResult result = futures.get(i).get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                if (result != null) {
+                    return new Selection(i, result);
+                }
+            }
+        } catch (TimeoutException e) {
+            LOGGER.warn("The mappers of prefix handler [{}] did not convert the path within [{}] ms", this.hint,
+                this.timeout);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            throw propagate(e.getCause());
+        } finally {
+            // The following conversions are not needed anymore, but they may still read the request
+            for (Future<URLMappingResult> future : futures) {
+                future.cancel(true);
+            }
+            for (Future<URLMappingResult> future : futures) {
+                if (future instanceof Conversion) {
+                    ((Conversion) future).awaitStop();
+                }
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * @return whether the conversion is done and produced a result; its failure is thrown when the conversions before
+     *     it produced no result
+     */
+    private static boolean hasResult(Future<URLMappingResult> future) throws InterruptedException
+    {
+        try {
+            return future.isDone() && future.get() != null;
+        } catch (ExecutionException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Stops the threads of the evaluator.
+     */
+    void dispose()
+    {
+        this.executor.shutdownNow();
+    }
+
+    /**
+     * Runs the conversion in the executor if fewer than the maximum number of conversions of the handler are running,
+     * and in the current thread otherwise.
+     */
+    private Future<URLMappingResult> submit(Callable<URLMappingResult> conversion)
+    {
+        if (this.permits.tryAcquire()) {
+            Conversion task = new Conversion(conversion);
+            try {
+                this.executor.execute(task);
+                return task;
+            } catch (RejectedExecutionException e) {
+                // no idle thread left
+                task.cancel(false);
+            }
+        }
+
+        LOGGER.debug("The conversions of prefix handler [{}] reached their limit, converting in the request thread",
+            this.hint);
+        FutureTask<URLMappingResult> task = new FutureTask<>(conversion);
+        task.run();
+        return task;
+    }
+
+    private Callable<URLMappingResult> withContext(Callable<URLMappingResult> conversion, ExecutionContext context)
+    {
+        return () -> {
+            try {
+                if (context != null) {
+                    this.execution.setContext(context);
+                }
+                return conversion.call();
+            } finally {
+                if (context != null) {
+                    this.execution.removeContext();
+                    dispose(context);
+                }
+            }
+        };
+    }
+
+    private ExecutionContext cloneContext()
+    {
+        ExecutionContext context = this.execution.getContext();
+        if (context == null) {
+            return null;
+        }
+
+        try {
+            return this.executionContextManager.clone(context);
+        } catch (ExecutionContextException e) {
+            throw new IllegalStateException("Failed to clone the execution context", e);
+        }
+    }
+
+    /**
+     * Releases the properties of a clone of the execution context, such as the request it holds.
+     */
+    private static void dispose(ExecutionContext context)
+    {
+        for (String key : new ArrayList<>(context.getProperties().keySet())) {
+            context.removeProperty(key);
+        }
+    }
+
+    private static URLMappingResult call(Callable<URLMappingResult> conversion)
+    {
+        try {
+            return conversion.call();
+        } catch (Exception e) {
+            throw propagate(e);
+        }
+    }
+
+    private static RuntimeException propagate(Throwable t)
+    {
+        if (t instanceof RuntimeException) {
+            return (RuntimeException) t;
+        }
+        if (t instanceof Error) {
+            throw (Error) t;
+        }
+        return new IllegalStateException(t);
+    }
+
+    private static ExecutorService createExecutor(String hint, int threads)
+    {
+        try {
+            // Java 21+
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // The permits keep the number of running conversions below the number of threads, and the conversions
+            // which find no idle thread run in the request thread
+            AtomicInteger count = new AtomicInteger();
+            return new ThreadPoolExecutor(0, threads, THREAD_KEEP_ALIVE, TimeUnit.SECONDS, new SynchronousQueue<>(),
+                runnable -> {
+                    Thread thread =
+                        new Thread(runnable, "URL mapping evaluator " + hint + ' ' + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        }
+    }
+}
@@ -19,7 +19,9 @@
  */
 package org.xwiki.contrib.urlmapping;
 
+import java.util.ArrayList;
 import java.util.EnumMap;
+import java.util.List;
 import java.util.Map;
 
 import org.xwiki.configuration.ConfigurationSource;
@@ -35,6 +37,13 @@ public class DefaultURLMappingConfiguration implements URLMappingConfiguration
 {
     private static final String CONFIGURATION_PREFIX = "urlmapping.";
     private static final String HANDLERS_PREFIX = CONFIGURATION_PREFIX + "prefixhandlers.";
+    private static final int DEFAULT_RESULT_CACHE_SIZE = 1000;
+    private static final int DEFAULT_RESULT_CACHE_LIFESPAN = 3600;
+    private static final int DEFAULT_UNMATCHED_PATH_CACHE_SIZE = 10000;
+    private static final int DEFAULT_CONCURRENT_EVALUATION_LIMIT = 4;
+    private static final int DEFAULT_CONCURRENT_EVALUATION_TIMEOUT = 5000;
+    private static final int DEFAULT_ADAPTIVE_ORDERING_INTERVAL = 60;
+    private static final int DEFAULT_ASYNC_TIMEOUT = 10000;
 
     private final String urlHandlerName;
 
@@ -50,50 +59,168 @@ public class DefaultURLMappingConfiguration implements URLMappingConfiguration
         /**
          * Prefix.
          */
-        PREFIX("prefix", false),
+        PREFIX("prefix", String.class),
 
         /**
          * Delay.
          */
-        DELAY("delay", true),
+        DELAY("delay", Integer.class),
 
         /**
          * Redirect screen template.
          */
-        REDIRECT_SCREEN_TEMPLATE("redirectScreenTemplate", false),
+        REDIRECT_SCREEN_TEMPLATE("redirectScreenTemplate", String.class),
 
         /**
          * Not found screen template.
          */
-        NOT_FOUND_SCREEN_TEMPLATE("notFoundScreenTemplate", false),
+        NOT_FOUND_SCREEN_TEMPLATE("notFoundScreenTemplate", String.class),
 
         /**
          * Intro message.
          */
-        INTRO_MESSAGE("introMessage", false),
+        INTRO_MESSAGE("introMessage", String.class),
 
         /**
          * Not found message.
          */
-        NOT_FOUND_INTRO_MESSAGE("notFoundIntroMessage", false),
+        NOT_FOUND_INTRO_MESSAGE("notFoundIntroMessage", String.class),
 
         /**
          * title.
          */
-        TITLE("title", false),
+        TITLE("title", String.class),
 
         /**
          * Redirect HTTP status.
          */
-        REDIRECT_HTTP_STATUS("redirectHttpStatus", true);
+        REDIRECT_HTTP_STATUS("redirectHttpStatus", Integer.class),
+
+        /**
+         * Whether the regexes of all the mappers of the handler are combined into a single pattern to find the
+         * matching mapper.
+         * @since 0.0.7
+         */
+        COMPILED_DISPATCH("compiledDispatch", Boolean.class),
+
+        /**
+         * Whether the literals required by the regexes of the mappers of the handler are indexed to skip the mappers
+         * which cannot match.
+         * @since 0.0.7
+         */
+        LITERAL_PREFILTER("literalPrefilter", Boolean.class),
+
+        /**
+         * Whether the results of the cacheable mappers of the handler are cached.
+         * @since 0.0.7
+         */
+        RESULT_CACHE("resultCache", Boolean.class),
+
+        /**
+         * The maximum number of results kept in the result cache.
+         * @since 0.0.7
+         */
+        RESULT_CACHE_SIZE("resultCacheSize", Integer.class),
+
+        /**
+         * The time, in seconds, after which a cached result is dropped.
+         * @since 0.0.7
+         */
+        RESULT_CACHE_LIFESPAN("resultCacheLifespan", Integer.class),
+
+        /**
+         * Whether the paths that no mapper of the handler could match are remembered, to answer them directly.
+         * @since 0.0.7
+         */
+        UNMATCHED_PATH_CACHE("unmatchedPathCache", Boolean.class),
+
+        /**
+         * The maximum number of paths kept in the unmatched path cache.
+         * @since 0.0.7
+         */
+        UNMATCHED_PATH_CACHE_SIZE("unmatchedPathCacheSize", Integer.class),
+
+        /**
+         * Whether the mappers of the handler matching a path run their conversions concurrently.
+         * @since 0.0.7
+         */
+        CONCURRENT_EVALUATION("concurrentEvaluation", Boolean.class),
+
+        /**
+         * The maximum number of conversions of the handler running at the same time.
+         * @since 0.0.7
+         */
+        CONCURRENT_EVALUATION_LIMIT("concurrentEvaluationLimit", Integer.class),
+
+        /**
+         * The time, in milliseconds, after which a request stops waiting for the concurrent conversions.
+         * @since 0.0.7
+         */
+        CONCURRENT_EVALUATION_TIMEOUT("concurrentEvaluationTimeout", Integer.class),
+
+        /**
+         * Whether each thread reuses the regex matchers of the handler for all the paths it converts.
+         * @since 0.0.7
+         */
+        MATCHER_REUSE("matcherReuse", Boolean.class),
+
+        /**
+         * Whether the independent mappers of the handler are reordered by number of conversions.
+         * @since 0.0.7
+         */
+        ADAPTIVE_ORDERING("adaptiveOrdering", Boolean.class),
+
+        /**
+         * The minimum time, in seconds, between two reorderings of the mappers of the handler.
+         * @since 0.0.7
+         */
+        ADAPTIVE_ORDERING_INTERVAL("adaptiveOrderingInterval", Integer.class),
+
+        /**
+         * The comma separated sample paths converted by the handler when it is warmed up.
+         * @since 0.0.7
+         */
+        WARMUP_PATHS("warmupPaths", String.class),
+
+        /**
+         * Whether the redirect screen of the handler is rendered once and then filled with the URL of each redirect.
+         * @since 0.0.7
+         */
+        PRECOMPILED_REDIRECT_SCREEN("precompiledRedirectScreen", Boolean.class),
+
+        /**
+         * The Cache-Control header of the permanent redirects of the handler.
+         * @since 0.0.7
+         */
+        REDIRECT_CACHE_CONTROL("redirectCacheControl", String.class),
+
+        /**
+         * The time, in seconds, during which browsers and proxies may cache the permanent redirects of the handler.
+         * @since 0.0.7
+         */
+        REDIRECT_CACHE_LIFESPAN("redirectCacheLifespan", Integer.class),
+
+        /**
+         * Whether the requests of the handler are converted and redirected outside of the threads of the servlet
+         * container.
+         * @since 0.0.7
+         */
+        ASYNC("async", Boolean.class),
+
+        /**
+         * The time, in milliseconds, after which an asynchronous request of the handler is answered with the not
+         * found result.
+         * @since 0.0.7
+         */
+        ASYNC_TIMEOUT("asyncTimeout", Integer.class);
 
         private final String name;
-        private final boolean isInt;
+        private final Class<?> type;
 
-        Key(String name, boolean isInt)
+        Key(String name, Class<?> type)
         {
             this.name = name;
-            this.isInt = isInt;
+            this.type = type;
         }
 
         @Override
@@ -102,9 +229,9 @@ public class DefaultURLMappingConfiguration implements URLMappingConfiguration
             return this.name;
         }
 
-        private boolean isInt()
+        private Class<?> getType()
         {
-            return isInt;
+            return type;
         }
     }
 
@@ -119,17 +246,22 @@ public class DefaultURLMappingConfiguration implements URLMappingConfiguration
         this.defaults.put(Key.DELAY, 0);
         this.defaults.put(Key.REDIRECT_SCREEN_TEMPLATE, "url-mapping/redirectscreen.vm");
         this.defaults.put(Key.NOT_FOUND_SCREEN_TEMPLATE, "url-mapping/notfoundscreen.vm");
+        this.defaults.put(Key.RESULT_CACHE_SIZE, DEFAULT_RESULT_CACHE_SIZE);
+        this.defaults.put(Key.RESULT_CACHE_LIFESPAN, DEFAULT_RESULT_CACHE_LIFESPAN);
+        this.defaults.put(Key.UNMATCHED_PATH_CACHE_SIZE, DEFAULT_UNMATCHED_PATH_CACHE_SIZE);
+        this.defaults.put(Key.CONCURRENT_EVALUATION_LIMIT, DEFAULT_CONCURRENT_EVALUATION_LIMIT);
+        this.defaults.put(Key.CONCURRENT_EVALUATION_TIMEOUT, DEFAULT_CONCURRENT_EVALUATION_TIMEOUT);
+        this.defaults.put(Key.ADAPTIVE_ORDERING_INTERVAL, DEFAULT_ADAPTIVE_ORDERING_INTERVAL);
+        this.defaults.put(Key.ASYNC_TIMEOUT, DEFAULT_ASYNC_TIMEOUT);
         this.conf = new EnumMap<>(Key.class);
 
         for (Key key : Key.values()) {
-            Object v = key.isInt() ? getInt(key, configurationSource) : getString(key, configurationSource);
+            Object v = getSpecific(key, configurationSource, key.getType());
             if (v != null) {
                 this.conf.put(key, v);
             }
 
-            v = key.isInt()
-                ? getDefault(key, configurationSource, Integer.class, 0)
-                : getDefault(key, configurationSource, String.class, null);
+            v = getDefault(key, configurationSource, key.getType());
 
             if (v != null) {
                 this.defaults.put(key, v);
@@ -189,6 +321,193 @@ public class DefaultURLMappingConfiguration implements URLMappingConfiguration
         return getString(Key.TITLE);
     }
 
+    /**
+     * @return whether the regexes of all the mappers of the handler should be combined into a single pattern to find
+     *     the matching mapper
+     * @since 0.0.7
+     */
+    public boolean isCompiledDispatchEnabled()
+    {
+        return getBoolean(Key.COMPILED_DISPATCH);
+    }
+
+    /**
+     * @return whether the literals required by the regexes of the mappers of the handler should be indexed to skip
+     *     the mappers which cannot match
+     * @since 0.0.7
+     */
+    public boolean isLiteralPrefilterEnabled()
+    {
+        return getBoolean(Key.LITERAL_PREFILTER);
+    }
+
+    /**
+     * @return whether the results of the cacheable mappers of the handler should be cached
+     * @since 0.0.7
+     */
+    public boolean isResultCacheEnabled()
+    {
+        return getBoolean(Key.RESULT_CACHE);
+    }
+
+    /**
+     * @return the maximum number of results to keep in the result cache
+     * @since 0.0.7
+     */
+    public int getResultCacheSize()
+    {
+        return getInt(Key.RESULT_CACHE_SIZE);
+    }
+
+    /**
+     * @return the time, in seconds, after which a cached result is dropped
+     * @since 0.0.7
+     */
+    public int getResultCacheLifespan()
+    {
+        return getInt(Key.RESULT_CACHE_LIFESPAN);
+    }
+
+    /**
+     * @return whether the paths that no mapper of the handler could match should be remembered
+     * @since 0.0.7
+     */
+    public boolean isUnmatchedPathCacheEnabled()
+    {
+        return getBoolean(Key.UNMATCHED_PATH_CACHE);
+    }
+
+    /**
+     * @return the maximum number of paths to keep in the unmatched path cache
+     * @since 0.0.7
+     */
+    public int getUnmatchedPathCacheSize()
+    {
+        return getInt(Key.UNMATCHED_PATH_CACHE_SIZE);
+    }
+
+    /**
+     * @return whether the mappers of the handler matching a path should run their conversions concurrently
+     * @since 0.0.7
+     */
+    public boolean isConcurrentEvaluationEnabled()
+    {
+        return getBoolean(Key.CONCURRENT_EVALUATION);
+    }
+
+    /**
+     * @return the maximum number of conversions of the handler running at the same time
+     * @since 0.0.7
+     */
+    public int getConcurrentEvaluationLimit()
+    {
+        return getInt(Key.CONCURRENT_EVALUATION_LIMIT);
+    }
+
+    /**
+     * @return the time, in milliseconds, after which a request stops waiting for the concurrent conversions
+     * @since 0.0.7
+     */
+    public int getConcurrentEvaluationTimeout()
+    {
+        return getInt(Key.CONCURRENT_EVALUATION_TIMEOUT);
+    }
+
+    /**
+     * @return whether each thread should reuse the regex matchers of the handler for all the paths it converts
+     * @since 0.0.7
+     */
+    public boolean isMatcherReuseEnabled()
+    {
+        return getBoolean(Key.MATCHER_REUSE);
+    }
+
+    /**
+     * @return whether the independent mappers of the handler should be reordered by number of conversions
+     * @since 0.0.7
+     */
+    public boolean isAdaptiveOrderingEnabled()
+    {
+        return getBoolean(Key.ADAPTIVE_ORDERING);
+    }
+
+    /**
+     * @return the minimum time, in seconds, between two reorderings of the mappers of the handler
+     * @since 0.0.7
+     */
+    public int getAdaptiveOrderingInterval()
+    {
+        return getInt(Key.ADAPTIVE_ORDERING_INTERVAL);
+    }
+
+    /**
+     * @return the sample paths to convert when the handler is warmed up, empty if there are none
+     * @since 0.0.7
+     */
+    public List<String> getWarmupPaths()
+    {
+        String value = getString(Key.WARMUP_PATHS);
+        List<String> paths = new ArrayList<>();
+        if (value != null) {
+            for (String path : value.split(",")) {
+                if (!path.isBlank()) {
+                    paths.add(path.trim());
+                }
+            }
+        }
+        return paths;
+    }
+
+    /**
+     * @return whether the redirect screen of the handler is rendered once and then filled with the URL of each
+     *     redirect, instead of being rendered for each redirect
+     * @since 0.0.7
+     */
+    public boolean isPrecompiledRedirectScreenEnabled()
+    {
+        return getBoolean(Key.PRECOMPILED_REDIRECT_SCREEN);
+    }
+
+    /**
+     * @return the value of the Cache-Control header of the permanent (301 and 308) redirects of the handler, or null
+     *     to derive it from {@link #getRedirectCacheLifespan()}
+     * @since 0.0.7
+     */
+    public String getRedirectCacheControl()
+    {
+        return getString(Key.REDIRECT_CACHE_CONTROL);
+    }
+
+    /**
+     * @return the time, in seconds, during which browsers and proxies may cache the permanent (301 and 308) redirects
+     *     of the handler, 0 to let them ask again for each redirect
+     * @since 0.0.7
+     */
+    public int getRedirectCacheLifespan()
+    {
+        return getInt(Key.REDIRECT_CACHE_LIFESPAN);
+    }
+
+    /**
+     * @return whether the requests of the handler should be converted and redirected outside of the threads of the
+     *     servlet container
+     * @since 0.0.7
+     */
+    public boolean isAsyncEnabled()
+    {
+        return getBoolean(Key.ASYNC);
+    }
+
+    /**
+     * @return the time, in milliseconds, after which an asynchronous request of the handler is answered with the not
+     *     found result
+     * @since 0.0.7
+     */
+    public int getAsyncTimeout()
+    {
+        return getInt(Key.ASYNC_TIMEOUT);
+    }
+
     private String getString(Key property)
     {
         Object v = getConf(property);
@@ -220,14 +539,9 @@ public class DefaultURLMappingConfiguration implements URLMappingConfiguration
         return 0;
     }
 
-    private String getString(Key property, ConfigurationSource configurationSource)
-    {
-        return getSpecific(property, configurationSource, String.class);
-    }
-
-    private Integer getInt(Key property, ConfigurationSource configurationSource)
+    private boolean getBoolean(Key property)
     {
-        return getSpecific(property, configurationSource, Integer.class);
+        return Boolean.TRUE.equals(getConf(property));
     }
 
     private <T> T getSpecific(Key property, ConfigurationSource configurationSource, Class<T> clazz)
@@ -242,6 +556,15 @@ public class DefaultURLMappingConfiguration implements URLMappingConfiguration
         return configurationSource.getProperty(HANDLERS_PREFIX + this.urlHandlerName + '.' + property, clazz);
     }
 
+    private <T> T getDefault(Key property, ConfigurationSource configurationSource, Class<T> clazz)
+    {
+        T defaultValue = null;
+        try {
+            defaultValue = clazz.cast(this.defaults.get(property));
+        } catch (Exception ignored) { }
+        return getDefault(property, configurationSource, clazz, defaultValue);
+    }
+
     private <T> T getDefault(Key property, ConfigurationSource configurationSource, Class<T> clazz, T defaultValue)
     {
         T value = configurationSource.getProperty(CONFIGURATION_PREFIX + "default." + property, clazz, defaultValue);
@@ -42,6 +42,8 @@ public class DefaultURLMappingResult implements URLMappingResult
 
     private final URLMappingConfiguration configuration;
 
+    private String cacheControl;
+
     /**
      * @param configuration the configuration to use for the redirection
      * @param reference the resulting reference
@@ -153,6 +155,21 @@ public class DefaultURLMappingResult implements URLMappingResult
         return this.configuration;
     }
 
+    @Override
+    public String getCacheControl()
+    {
+        return this.cacheControl;
+    }
+
+    /**
+     * @param cacheControl see {@link #getCacheControl()}
+     * @since 0.0.7
+     */
+    public void setCacheControl(String cacheControl)
+    {
+        this.cacheControl = cacheControl;
+    }
+
     @Override
     public String toString()
     {
@@ -36,6 +36,10 @@ public class DefaultURLMappingSpecification implements URLMappingSpecification
 {
     private final Pattern[] regexes;
 
+    private boolean cacheable;
+
+    private boolean independent;
+
     /**
      * Catch-all specification: the specification will match any path.
      */
@@ -68,4 +72,34 @@ public class DefaultURLMappingSpecification implements URLMappingSpecification
     {
         return this.regexes;
     }
+
+    @Override
+    public boolean isCacheable()
+    {
+        return this.cacheable;
+    }
+
+    /**
+     * @param cacheable see {@link #isCacheable()}
+     * @since 0.0.7
+     */
+    public void setCacheable(boolean cacheable)
+    {
+        this.cacheable = cacheable;
+    }
+
+    @Override
+    public boolean isIndependent()
+    {
+        return this.independent;
+    }
+
+    /**
+     * @param independent see {@link #isIndependent()}
+     * @since 0.0.7
+     */
+    public void setIndependent(boolean independent)
+    {
+        this.independent = independent;
+    }
 }
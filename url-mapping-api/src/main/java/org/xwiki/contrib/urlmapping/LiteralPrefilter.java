@@ -0,0 +1,281 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.urlmapping;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+/**
+ * Tells which mappers may match a path by looking for the literals their regexes require.
+ * <p>
+ * The required literals of all the regexes of the mappers are indexed in a single Aho-Corasick automaton. Walking its
+ * trie from the root finds the required prefixes of a path, and running the automaton finds the other required
+ * literals, both in a single pass over the path. A mapper is a candidate if one of its regexes has all its required
+ * literals in the path. Mappers without regexes, or whose regexes have no usable literals, are always candidates.
+ *
+ * @version $Id$
+ * @since 0.0.7
+ */
+final class LiteralPrefilter
+{
+    private static final int ROOT = 0;
+
+    /**
+     * For each mapper, for each regex, the identifiers of the literals that must be found, or null if the mapper is
+     * always a candidate.
+     */
+    private final int[][][] requirements;
+
+    // The automaton: for each state, sorted transition characters and their target states.
+    private final char[][] transitionChars;
+
+    private final int[][] transitionTargets;
+
+    private final int[] failures;
+
+    // For each state, the identifiers of the prefix literals ending there.
+    private final int[][] prefixOutputs;
+
+    // For each state, the identifiers of the substring literals found when reaching it (including through failures).
+    private final int[][] substringOutputs;
+
+    private final int literalCount;
+
+    /**
+     * @param specifications the specifications of the mappers, in declaration order
+     */
+    LiteralPrefilter(URLMappingSpecification[] specifications)
+    {
+        Builder builder = new Builder();
+        this.requirements = new int[specifications.length][][];
+        for (int i = 0; i < specifications.length; i++) {
+            this.requirements[i] = builder.addMapper(specifications[i]);
+        }
+        builder.computeFailures();
+
+        int states = builder.children.size();
+        this.transitionChars = new char[states][];
+        this.transitionTargets = new int[states][];
+        this.prefixOutputs = new int[states][];
+        this.substringOutputs = new int[states][];
+        for (int s = 0; s < states; s++) {
+            TreeMap<Character, Integer> sorted = new TreeMap<>(builder.children.get(s));
+            this.transitionChars[s] = new char[sorted.size()];
+            this.transitionTargets[s] = new int[sorted.size()];
+            int t = 0;
+            for (Map.Entry<Character, Integer> transition : sorted.entrySet()) {
+                this.transitionChars[s][t] = transition.getKey();
+                this.transitionTargets[s][t] = transition.getValue();
+                t++;
+            }
+            this.prefixOutputs[s] = toArray(builder.prefixOutputs.get(s));
+            this.substringOutputs[s] = toArray(builder.substringOutputs.get(s));
+        }
+        this.failures = builder.failures;
+        this.literalCount = builder.literals.size();
+    }
+
+    /**
+     * @param path the path to scan
+     * @return the literals found in the path, to pass to {@link #mayMatch(BitSet, int)}
+     */
+    BitSet scan(String path)
+    {
+        BitSet found = new BitSet(this.literalCount);
+
+        // Required prefixes: walk the trie from the root
+        int state = ROOT;
+        for (int i = 0; i < path.length() && state >= 0; i++) {
+            state = getChild(state, path.charAt(i));
+            if (state >= 0) {
+                setAll(found, this.prefixOutputs[state]);
+            }
+        }
+
+        // Other required literals: run the automaton
+        state = ROOT;
+        for (int i = 0; i < path.length(); i++) {
+            char c = path.charAt(i);
+            int next = getChild(state, c);
+            while (next < 0 && state != ROOT) {
+                state = this.failures[state];
+                next = getChild(state, c);
+            }
+            state = next < 0 ? ROOT : next;
+            setAll(found, this.substringOutputs[state]);
+        }
+
+        return found;
+    }
+
+    /**
+     * @param found the result of {@link #scan(String)} for the path
+     * @param mapperIndex the index of the mapper
+     * @return false if the mapper cannot match the path, true if it may
+     */
+    boolean mayMatch(BitSet found, int mapperIndex)
+    {
+        int[][] mapperRequirements = this.requirements[mapperIndex];
+        if (mapperRequirements == null) {
+            return true;
+        }
+
+        for (int[] regexRequirements : mapperRequirements) {
+            if (containsAll(found, regexRequirements)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static boolean containsAll(BitSet found, int[] literals)
+    {
+        for (int literal : literals) {
+            if (!found.get(literal)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void setAll(BitSet found, int[] literals)
+    {
+        for (int literal : literals) {
+            found.set(literal);
+        }
+    }
+
+    private int getChild(int state, char c)
+    {
+        int index = Arrays.binarySearch(this.transitionChars[state], c);
+        return index < 0 ? -1 : this.transitionTargets[state][index];
+    }
+
+    private static int[] toArray(List<Integer> list)
+    {
+        return list.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * Collects the literals and builds the automaton.
+     */
+    private static final class Builder
+    {
+        private final List<Map<Character, Integer>> children = new ArrayList<>();
+
+        private final List<List<Integer>> prefixOutputs = new ArrayList<>();
+
+        private final List<List<Integer>> substringOutputs = new ArrayList<>();
+
+        // literal identifiers, keyed by kind and value
+        private final Map<String, Integer> literals = new HashMap<>();
+
+        private int[] failures;
+
+        Builder()
+        {
+            newState();
+        }
+
+        int[][] addMapper(URLMappingSpecification specification)
+        {
+            Pattern[] regexes = specification == null ? null : specification.getRegexes();
+            if (regexes == null || regexes.length == 0) {
+                return null;
+            }
+
+            int[][] mapperRequirements = new int[regexes.length][];
+            for (int r = 0; r < regexes.length; r++) {
+                RequiredLiterals required = RequiredLiterals.of(regexes[r]);
+                if (required.isEmpty()) {
+                    return null;
+                }
+
+                List<Integer> ids = new ArrayList<>();
+                if (!required.getPrefix().isEmpty()) {
+                    ids.add(addLiteral(required.getPrefix(), true));
+                }
+                for (String substring : required.getSubstrings()) {
+                    ids.add(addLiteral(substring, false));
+                }
+                mapperRequirements[r] = toArray(ids);
+            }
+            return mapperRequirements;
+        }
+
+        private int addLiteral(String literal, boolean prefix)
+        {
+            String key = (prefix ? '^' : '*') + literal;
+            Integer id = this.literals.get(key);
+            if (id == null) {
+                id = this.literals.size();
+                this.literals.put(key, id);
+                int state = ROOT;
+                for (int i = 0; i < literal.length(); i++) {
+                    Integer next = this.children.get(state).get(literal.charAt(i));
+                    if (next == null) {
+                        next = newState();
+                        this.children.get(state).put(literal.charAt(i), next);
+                    }
+                    state = next;
+                }
+                (prefix ? this.prefixOutputs : this.substringOutputs).get(state).add(id);
+            }
+            return id;
+        }
+
+        private int newState()
+        {
+            this.children.add(new HashMap<>());
+            this.prefixOutputs.add(new ArrayList<>());
+            this.substringOutputs.add(new ArrayList<>());
+            return this.children.size() - 1;
+        }
+
+        void computeFailures()
+        {
+            this.failures = new int[this.children.size()];
+            Queue<Integer> queue = new ArrayDeque<>(this.children.get(ROOT).values());
+            while (!queue.isEmpty()) {
+                int state = queue.remove();
+                for (Map.Entry<Character, Integer> transition : this.children.get(state).entrySet()) {
+                    int child = transition.getValue();
+                    int failure = this.failures[state];
+                    while (failure != ROOT && !this.children.get(failure).containsKey(transition.getKey())) {
+                        failure = this.failures[failure];
+                    }
+                    Integer target = state == ROOT ? null : this.children.get(failure).get(transition.getKey());
+                    this.failures[child] = target == null ? ROOT : target;
+                    this.substringOutputs.get(child).addAll(this.substringOutputs.get(this.failures[child]));
+                    queue.add(child);
+                }
+            }
+        }
+    }
+}
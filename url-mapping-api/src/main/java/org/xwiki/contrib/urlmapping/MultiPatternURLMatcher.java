@@ -0,0 +1,316 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.urlmapping;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Combines the regexes of a list of mappers into a single alternation so that the first mapper (in declaration order)
+ * having a matching regex can be found with a single match operation.
+ * <p>
+ * Each regex is rewritten so that all its groups are non-capturing, and wrapped in its own capturing group. The
+ * combined pattern is only used to select the mapper: the mapper still gets a Matcher of its own regex, so the named
+ * groups it relies on are unchanged. Regexes that cannot be safely combined (back references, literal or canonical
+ * equivalence flags, comments mode) are left out, and their mappers are always considered as candidates, as are
+ * catch-all mappers.
+ *
+ * @version $Id$
+ * @since 0.0.7
+ */
+final class MultiPatternURLMatcher
+{
+    private static final char ESCAPE = '\\';
+
+    private static final char GROUP_START = '(';
+
+    private static final char CLASS_START = '[';
+
+    private static final char CLASS_END = ']';
+
+    private static final String NON_CAPTURING_GROUP = "(?:";
+
+    private static final int UNSUPPORTED_FLAGS = Pattern.LITERAL | Pattern.CANON_EQ | Pattern.COMMENTS;
+
+    private final Pattern combined;
+
+    private final int[] groupToMapper;
+
+    private final boolean[] compiled;
+
+    private final ThreadLocal<Matcher> matchers;
+
+    /**
+     * @param specifications the specifications of the mappers, in declaration order
+     */
+    MultiPatternURLMatcher(URLMappingSpecification[] specifications)
+    {
+        this(specifications, false);
+    }
+
+    /**
+     * @param specifications the specifications of the mappers, in declaration order
+     * @param reuseMatchers whether each thread should reuse the same matcher for all the paths
+     */
+    MultiPatternURLMatcher(URLMappingSpecification[] specifications, boolean reuseMatchers)
+    {
+        this.compiled = new boolean[specifications.length];
+        List<Integer> groups = new ArrayList<>();
+        StringBuilder alternation = new StringBuilder();
+        for (int i = 0; i < specifications.length; i++) {
+            Pattern[] regexes = specifications[i] == null ? null : specifications[i].getRegexes();
+            List<String> rewritten = rewriteAll(regexes);
+            if (rewritten != null) {
+                this.compiled[i] = true;
+                for (String regex : rewritten) {
+                    if (alternation.length() > 0) {
+                        alternation.append('|');
+                    }
+                    alternation.append(GROUP_START).append(regex).append(')');
+                    groups.add(i);
+                }
+            }
+        }
+
+        this.combined = groups.isEmpty() ? null : Pattern.compile(alternation.toString());
+        this.matchers =
+            reuseMatchers && this.combined != null ? ThreadLocal.withInitial(() -> this.combined.matcher("")) : null;
+        this.groupToMapper = new int[groups.size() + 1];
+        for (int g = 0; g < groups.size(); g++) {
+            this.groupToMapper[g + 1] = groups.get(g);
+        }
+    }
+
+    /**
+     * @param path the path to match
+     * @return the index of the first mapper whose regexes were combined and match the path, or the number of mappers
+     *     if none of them matches. Mappers that were not combined must be checked individually, whatever their index.
+     */
+    int firstMatch(String path)
+    {
+        if (this.combined != null) {
+            Matcher matcher = this.matchers == null ? this.combined.matcher(path) : this.matchers.get().reset(path);
+            if (matcher.matches()) {
+                for (int g = 1; g < this.groupToMapper.length; g++) {
+                    if (matcher.start(g) != -1) {
+                        return this.groupToMapper[g];
+                    }
+                }
+            }
+        }
+
+        return this.compiled.length;
+    }
+
+    /**
+     * @param mapperIndex the index of a mapper
+     * @return whether all the regexes of this mapper are part of the combined pattern
+     */
+    boolean isCompiled(int mapperIndex)
+    {
+        return this.compiled[mapperIndex];
+    }
+
+    private static List<String> rewriteAll(Pattern[] regexes)
+    {
+        if (regexes == null || regexes.length == 0) {
+            // catch-all mapper
+            return null;
+        }
+
+        List<String> rewritten = new ArrayList<>(regexes.length);
+        for (Pattern regex : regexes) {
+            String r = rewrite(regex);
+            if (r == null) {
+                return null;
+            }
+            rewritten.add(r);
+        }
+        return rewritten;
+    }
+
+    /**
+     * @return the regex as an equivalent pattern without capturing groups and with its flags inlined, or null if this
+     *     cannot be done safely
+     */
+    static String rewrite(Pattern regex)
+    {
+        if ((regex.flags() & UNSUPPORTED_FLAGS) != 0) {
+            return null;
+        }
+
+        String source = regex.pattern();
+        StringBuilder out = new StringBuilder(source.length() + 8);
+        out.append("(?").append(getInlineFlags(regex.flags())).append(':');
+        int i = 0;
+        while (i < source.length()) {
+            char c = source.charAt(i);
+            int next;
+            if (c == ESCAPE) {
+                next = copyEscape(source, i, out);
+            } else if (c == CLASS_START) {
+                next = copyClass(source, i, out);
+            } else if (c == GROUP_START) {
+                next = copyGroupStart(source, i, out);
+            } else {
+                out.append(c);
+                next = i + 1;
+            }
+
+            if (next < 0) {
+                return null;
+            }
+            i = next;
+        }
+        out.append(')');
+
+        try {
+            Pattern.compile(out.toString());
+        } catch (PatternSyntaxException e) {
+            return null;
+        }
+
+        return out.toString();
+    }
+
+    private static String getInlineFlags(int flags)
+    {
+        StringBuilder inline = new StringBuilder();
+        if ((flags & Pattern.CASE_INSENSITIVE) != 0) {
+            inline.append('i');
+        }
+        if ((flags & Pattern.MULTILINE) != 0) {
+            inline.append('m');
+        }
+        if ((flags & Pattern.DOTALL) != 0) {
+            inline.append('s');
+        }
+        if ((flags & Pattern.UNICODE_CASE) != 0) {
+            inline.append('u');
+        }
+        if ((flags & Pattern.UNIX_LINES) != 0) {
+            inline.append('d');
+        }
+        if ((flags & Pattern.UNICODE_CHARACTER_CLASS) != 0) {
+            inline.append('U');
+        }
+        return inline.toString();
+    }
+
+    private static int copyEscape(String source, int start, StringBuilder out)
+    {
+        if (start + 1 >= source.length()) {
+            return -1;
+        }
+
+        char escaped = source.charAt(start + 1);
+        if ((escaped >= '1' && escaped <= '9') || escaped == 'k') {
+            // back references would point to the wrong group in the combined pattern
+            return -1;
+        }
+
+        if (escaped == 'Q') {
+            int end = source.indexOf("\\E", start + 2);
+            int stop = end < 0 ? source.length() : end + 2;
+            out.append(source, start, stop);
+            return stop;
+        }
+
+        out.append(source, start, start + 2);
+        return start + 2;
+    }
+
+    private static int copyClass(String source, int start, StringBuilder out)
+    {
+        int i = start + 1;
+        if (i < source.length() && source.charAt(i) == '^') {
+            i++;
+        }
+        if (i < source.length() && source.charAt(i) == CLASS_END) {
+            // a closing bracket right at the beginning of a class is a literal
+            i++;
+        }
+
+        int depth = 1;
+        while (i < source.length() && depth > 0) {
+            char c = source.charAt(i);
+            if (c == ESCAPE) {
+                int next = copyEscape(source, i, new StringBuilder());
+                if (next < 0) {
+                    return -1;
+                }
+                i = next;
+            } else {
+                if (c == CLASS_START) {
+                    depth++;
+                } else if (c == CLASS_END) {
+                    depth--;
+                }
+                i++;
+            }
+        }
+
+        if (depth > 0) {
+            return -1;
+        }
+
+        out.append(source, start, i);
+        return i;
+    }
+
+    private static int copyGroupStart(String source, int start, StringBuilder out)
+    {
+        if (start + 1 >= source.length() || source.charAt(start + 1) != '?') {
+            out.append(NON_CAPTURING_GROUP);
+            return start + 1;
+        }
+
+        if (start + 2 < source.length() && source.charAt(start + 2) == '<') {
+            char afterLt = start + 3 < source.length() ? source.charAt(start + 3) : 0;
+            if (afterLt != '=' && afterLt != '!') {
+                // named group
+                int end = source.indexOf('>', start + 3);
+                if (end < 0) {
+                    return -1;
+                }
+                out.append(NON_CAPTURING_GROUP);
+                return end + 1;
+            }
+        }
+
+        for (int i = start + 2; i < source.length() && isInlineFlag(source.charAt(i)); i++) {
+            if (source.charAt(i) == 'x') {
+                // comments mode changes the meaning of the rest of the pattern
+                return -1;
+            }
+        }
+
+        out.append(source, start, start + 2);
+        return start + 2;
+    }
+
+    private static boolean isInlineFlag(char c)
+    {
+        return Character.isLetter(c) || c == '-';
+    }
+}
@@ -0,0 +1,297 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.urlmapping;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * An immutable compressed trie (a radix tree) of path prefixes, finding the longest prefix of a path in a time
+ * proportional to the length of the path, whatever the number of prefixes.
+ * <p>
+ * The prefixes are matched on whole segments: {@code a/b} is a prefix of {@code a/b} and {@code a/b/c}, but not of
+ * {@code a/bc}. The leading and trailing slashes of the prefixes and paths are ignored, and the empty prefix is a
+ * prefix of all paths.
+ * <p>
+ * The trie is stored in a few arrays rather than in node objects: the label of each edge is a slice of a single
+ * character array, in which the common prefixes of the keys are stored only once, and the children of a node are
+ * contiguous and sorted by their first character, so that they are found with a binary search.
+ *
+ * @version $Id$
+ * @since 0.0.7
+ */
+final class PathPrefixTrie
+{
+    private static final char SEPARATOR = '/';
+
+    private final String[] values;
+
+    private final char[] labels;
+
+    private final int[] labelStarts;
+
+    private final int[] labelLengths;
+
+    private final char[] firstChars;
+
+    private final int[] firstChildren;
+
+    private final int[] childCounts;
+
+    private final int[] valueIndexes;
+
+    /**
+     * The longest prefix of a path.
+     */
+    static final class Match
+    {
+        private final String value;
+
+        private final String remainder;
+
+        Match(String value, String remainder)
+        {
+            this.value = value;
+            this.remainder = remainder;
+        }
+
+        /**
+         * @return the value of the prefix
+         */
+        String getValue()
+        {
+            return this.value;
+        }
+
+        /**
+         * @return the rest of the path after the prefix, without leading and trailing slashes
+         */
+        String getRemainder()
+        {
+            return this.remainder;
+        }
+    }
+
+    /**
+     * Builds the trie, incrementally filling the arrays of the nodes.
+     */
+    private static final class Builder
+    {
+        private final String[] keys;
+
+        private final StringBuilder labels = new StringBuilder();
+
+        private final int[] labelStarts;
+
+        private final int[] labelLengths;
+
+        private final char[] firstChars;
+
+        private final int[] firstChildren;
+
+        private final int[] childCounts;
+
+        private final int[] valueIndexes;
+
+        private int nodeCount = 1;
+
+        Builder(String[] keys)
+        {
+            this.keys = keys;
+            // a radix tree has at most one internal node per key, in addition to the root
+            int capacity = 2 * keys.length + 1;
+            this.labelStarts = new int[capacity];
+            this.labelLengths = new int[capacity];
+            this.firstChars = new char[capacity];
+            this.firstChildren = new int[capacity];
+            this.childCounts = new int[capacity];
+            this.valueIndexes = new int[capacity];
+            Arrays.fill(this.valueIndexes, -1);
+        }
+
+        /**
+         * Builds the node whose keys are the keys between {@code start} (inclusive) and {@code end} (exclusive), which
+         * all start with the same {@code depth} characters.
+         */
+        void build(int node, int start, int end, int depth)
+        {
+            int first = start;
+            if (first < end && this.keys[first].length() == depth) {
+                this.valueIndexes[node] = first++;
+            }
+
+            int children = 0;
+            for (int i = first; i < end; i = groupEnd(i, end, depth)) {
+                children++;
+            }
+            this.firstChildren[node] = this.nodeCount;
+            this.childCounts[node] = children;
+            this.nodeCount += children;
+
+            int child = this.firstChildren[node];
+            for (int i = first; i < end; child++) {
+                int groupEnd = groupEnd(i, end, depth);
+                int childDepth = commonPrefixLength(this.keys[i], this.keys[groupEnd - 1], depth);
+                this.labelStarts[child] = this.labels.length();
+                this.labelLengths[child] = childDepth - depth;
+                this.firstChars[child] = this.keys[i].charAt(depth);
+                this.labels.append(this.keys[i], depth, childDepth);
+                build(child, i, groupEnd, childDepth);
+                i = groupEnd;
+            }
+        }
+
+        private int groupEnd(int start, int end, int depth)
+        {
+            char c = this.keys[start].charAt(depth);
+            int i = start + 1;
+            while (i < end && this.keys[i].charAt(depth) == c) {
+                i++;
+            }
+            return i;
+        }
+
+        private static int commonPrefixLength(String a, String b, int from)
+        {
+            int length = Math.min(a.length(), b.length());
+            int i = from;
+            while (i < length && a.charAt(i) == b.charAt(i)) {
+                i++;
+            }
+            return i;
+        }
+    }
+
+    private PathPrefixTrie(Builder builder, String[] values)
+    {
+        int nodes = builder.nodeCount;
+        this.values = values;
+        this.labels = builder.labels.toString().toCharArray();
+        this.labelStarts = Arrays.copyOf(builder.labelStarts, nodes);
+        this.labelLengths = Arrays.copyOf(builder.labelLengths, nodes);
+        this.firstChars = Arrays.copyOf(builder.firstChars, nodes);
+        this.firstChildren = Arrays.copyOf(builder.firstChildren, nodes);
+        this.childCounts = Arrays.copyOf(builder.childCounts, nodes);
+        this.valueIndexes = Arrays.copyOf(builder.valueIndexes, nodes);
+    }
+
+    /**
+     * @param prefixes the values of the prefixes, by prefix; when several prefixes are equal once normalized, the
+     *     last one wins
+     * @return the trie of the prefixes
+     */
+    static PathPrefixTrie build(Map<String, String> prefixes)
+    {
+        TreeMap<String, String> sorted = new TreeMap<>();
+        for (Map.Entry<String, String> prefix : prefixes.entrySet()) {
+            String key = normalize(prefix.getKey());
+            sorted.put(key.isEmpty() ? key : key + SEPARATOR, prefix.getValue());
+        }
+        String[] keys = sorted.keySet().toArray(new String[0]);
+        Builder builder = new Builder(keys);
+        builder.build(0, 0, keys.length, 0);
+        return new PathPrefixTrie(builder, sorted.values().toArray(new String[0]));
+    }
+
+    /**
+     * @param path a path
+     * @return the longest prefix of the path, or null if no prefix matches the path
+     */
+    Match getLongestPrefix(String path)
+    {
+        String key = normalize(path) + SEPARATOR;
+        int node = 0;
+        int position = 0;
+        int match = -1;
+        int matchLength = 0;
+        while (true) {
+            if (this.valueIndexes[node] >= 0) {
+                match = this.valueIndexes[node];
+                matchLength = position;
+            }
+            int child = position < key.length() ? getChild(node, key.charAt(position)) : -1;
+            if (child < 0 || !matchesLabel(child, key, position)) {
+                break;
+            }
+            position += this.labelLengths[child];
+            node = child;
+        }
+        if (match < 0) {
+            return null;
+        }
+        String remainder = matchLength < key.length() ? key.substring(matchLength, key.length() - 1) : "";
+        return new Match(this.values[match], remainder);
+    }
+
+    /**
+     * @return the number of prefixes
+     */
+    int size()
+    {
+        return this.values.length;
+    }
+
+    private int getChild(int node, char c)
+    {
+        int low = this.firstChildren[node];
+        int high = low + this.childCounts[node] - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            char middleChar = this.firstChars[middle];
+            if (middleChar < c) {
+                low = middle + 1;
+            } else if (middleChar > c) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    private boolean matchesLabel(int node, String key, int position)
+    {
+        int length = this.labelLengths[node];
+        if (position + length > key.length()) {
+            return false;
+        }
+        int start = this.labelStarts[node];
+        for (int i = 0; i < length; i++) {
+            if (this.labels[start + i] != key.charAt(position + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String normalize(String path)
+    {
+        int start = 0;
+        int end = path.length();
+        while (start < end && path.charAt(start) == SEPARATOR) {
+            start++;
+        }
+        while (end > start && path.charAt(end - 1) == SEPARATOR) {
+            end--;
+        }
+        return path.substring(start, end);
+    }
+}
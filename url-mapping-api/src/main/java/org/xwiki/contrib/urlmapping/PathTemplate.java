@@ -0,0 +1,248 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.urlmapping;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * A parsed path template, made of literal segments and placeholders separated by slashes, for instance
+ * {@code display/{space}/{page}}.
+ * <p>
+ * A placeholder takes a whole segment and is written {@code {name}} or {@code {name:type}}, where the type is one of:
+ * <ul>
+ * <li>{@code string} (the default): any non-empty segment</li>
+ * <li>{@code int}: a non-empty segment made of ASCII digits</li>
+ * <li>{@code path}: the rest of the path, slashes included, possibly empty. Only allowed as the last segment.</li>
+ * </ul>
+ * The name of a placeholder must start with a letter and only contain ASCII letters and digits.
+ *
+ * @version $Id$
+ * @since 0.0.7
+ */
+final class PathTemplate
+{
+    private static final char SEPARATOR = '/';
+
+    private static final Pattern NAME = Pattern.compile("[a-zA-Z][a-zA-Z0-9]*");
+
+    private static final String TYPE_SEPARATOR = ":";
+
+    private static final String GROUP_START = "(?<";
+
+    private static final char GROUP_NAME_END = '>';
+
+    private final String template;
+
+    private final List<Segment> segments;
+
+    private final Pattern regex;
+
+    /**
+     * The types of segments.
+     */
+    enum SegmentType
+    {
+        /**
+         * A literal segment.
+         */
+        LITERAL,
+
+        /**
+         * Any non-empty segment.
+         */
+        STRING,
+
+        /**
+         * A non-empty segment made of digits.
+         */
+        INT,
+
+        /**
+         * The rest of the path.
+         */
+        PATH
+    }
+
+    /**
+     * A segment of a template.
+     */
+    static final class Segment
+    {
+        private final SegmentType type;
+
+        private final String value;
+
+        Segment(SegmentType type, String value)
+        {
+            this.type = type;
+            this.value = value;
+        }
+
+        SegmentType getType()
+        {
+            return this.type;
+        }
+
+        /**
+         * @return the literal for literal segments, the name of the placeholder otherwise
+         */
+        String getValue()
+        {
+            return this.value;
+        }
+    }
+
+    private PathTemplate(String template, List<Segment> segments)
+    {
+        this.template = template;
+        this.segments = Collections.unmodifiableList(segments);
+        this.regex = Pattern.compile(toRegex(segments));
+    }
+
+    /**
+     * @param template the template to parse
+     * @return the parsed template
+     * @throws IllegalArgumentException if the template is not valid
+     */
+    static PathTemplate parse(String template)
+    {
+        List<Segment> segments = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        String[] parts = template.split(String.valueOf(SEPARATOR), -1);
+        for (int i = 0; i < parts.length; i++) {
+            Segment segment = parseSegment(template, parts[i]);
+            if (segment.getType() == SegmentType.PATH && i != parts.length - 1) {
+                throw new IllegalArgumentException(
+                    String.format("Only the last segment of template [%s] can be a path placeholder", template));
+            }
+            if (segment.getType() != SegmentType.LITERAL) {
+                if (names.contains(segment.getValue())) {
+                    throw new IllegalArgumentException(
+                        String.format("Placeholder [%s] is used twice in template [%s]", segment.getValue(), template));
+                }
+                names.add(segment.getValue());
+            }
+            segments.add(segment);
+        }
+        return new PathTemplate(template, segments);
+    }
+
+    private static Segment parseSegment(String template, String part)
+    {
+        boolean opens = part.indexOf('{') >= 0;
+        boolean closes = part.indexOf('}') >= 0;
+        if (!opens && !closes) {
+            return new Segment(SegmentType.LITERAL, part);
+        }
+        if (!part.startsWith("{") || !part.endsWith("}") || part.indexOf('{', 1) >= 0
+            || part.indexOf('}') != part.length() - 1)
+        {
+            throw new IllegalArgumentException(
+                String.format("Placeholders must take whole segments in template [%s]", template));
+        }
+
+        String placeholder = part.substring(1, part.length() - 1);
+        String name = placeholder;
+        SegmentType type = SegmentType.STRING;
+        int typeIndex = placeholder.indexOf(TYPE_SEPARATOR);
+        if (typeIndex >= 0) {
+            name = placeholder.substring(0, typeIndex);
+            type = parseType(template, placeholder.substring(typeIndex + 1));
+        }
+        if (!NAME.matcher(name).matches()) {
+            throw new IllegalArgumentException(
+                String.format("Invalid placeholder name [%s] in template [%s]", name, template));
+        }
+        return new Segment(type, name);
+    }
+
+    private static SegmentType parseType(String template, String type)
+    {
+        switch (type) {
+            case "string":
+                return SegmentType.STRING;
+            case "int":
+                return SegmentType.INT;
+            case "path":
+                return SegmentType.PATH;
+            default:
+                throw new IllegalArgumentException(
+                    String.format("Unknown placeholder type [%s] in template [%s]", type, template));
+        }
+    }
+
+    private static String toRegex(List<Segment> segments)
+    {
+        StringBuilder regex = new StringBuilder();
+        for (int i = 0; i < segments.size(); i++) {
+            if (i > 0) {
+                regex.append(SEPARATOR);
+            }
+            Segment segment = segments.get(i);
+            switch (segment.getType()) {
+                case LITERAL:
+                    if (!segment.getValue().isEmpty()) {
+                        regex.append(Pattern.quote(segment.getValue()));
+                    }
+                    break;
+                case STRING:
+                    regex.append(GROUP_START).append(segment.getValue()).append(GROUP_NAME_END).append("[^/]+)");
+                    break;
+                case INT:
+                    regex.append(GROUP_START).append(segment.getValue()).append(GROUP_NAME_END).append("[0-9]+)");
+                    break;
+                default:
+                    regex.append(GROUP_START).append(segment.getValue()).append(GROUP_NAME_END).append("(?s:.*))");
+                    break;
+            }
+        }
+        return regex.toString();
+    }
+
+    /**
+     * @return the template, as given
+     */
+    String getTemplate()
+    {
+        return this.template;
+    }
+
+    List<Segment> getSegments()
+    {
+        return this.segments;
+    }
+
+    /**
+     * @return a regex matching the same paths as the template, with a named group for each placeholder
+     */
+    Pattern getRegex()
+    {
+        return this.regex;
+    }
+
+    @Override
+    public String toString()
+    {
+        return this.template;
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.urlmapping;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xwiki.cache.CacheException;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.component.manager.ComponentManager;
+
+/**
+ * The services built from the configuration of a prefix handler: its result cache and its concurrent evaluator.
+ * <p>
+ * They are published together and never modified. The conversions acquire them for their duration: once the handler
+ * retires them, they are disposed when the last conversion using them releases them.
+ *
+ * @version $Id$
+ * @since 0.0.7
+ */
+final class PrefixHandlerServices
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(PrefixHandlerServices.class);
+
+    // set in the number of users once the services are retired
+    private static final int RETIRED = Integer.MIN_VALUE;
+
+    private final URLMappingResultCache resultCache;
+
+    private final ConcurrentMapperEvaluator evaluator;
+
+    private final AtomicInteger users = new AtomicInteger();
+
+    private PrefixHandlerServices(URLMappingResultCache resultCache, ConcurrentMapperEvaluator evaluator)
+    {
+        this.resultCache = resultCache;
+        this.evaluator = evaluator;
+    }
+
+    /**
+     * @param componentManager the component manager to get the execution components from
+     * @param cacheManager the cache manager to create the result cache with
+     * @param hint the hint of the prefix handler
+     * @param configuration the configuration of the prefix handler
+     * @return the services enabled by the configuration
+     */
+    static PrefixHandlerServices create(ComponentManager componentManager, CacheManager cacheManager, String hint,
+        URLMappingConfiguration configuration)
+    {
+        if (!(configuration instanceof DefaultURLMappingConfiguration)) {
+            return new PrefixHandlerServices(null, null);
+        }
+        DefaultURLMappingConfiguration conf = (DefaultURLMappingConfiguration) configuration;
+        return new PrefixHandlerServices(createResultCache(cacheManager, hint, conf),
+            createEvaluator(componentManager, hint, conf));
+    }
+
+    /**
+     * @return the result cache, or null if it is not enabled
+     */
+    URLMappingResultCache getResultCache()
+    {
+        return this.resultCache;
+    }
+
+    /**
+     * @return the concurrent evaluator, or null if it is not enabled
+     */
+    ConcurrentMapperEvaluator getEvaluator()
+    {
+        return this.evaluator;
+    }
+
+    /**
+     * @return whether the services can be used until {@link #release()} is called, false if they are retired
+     */
+    boolean acquire()
+    {
+        while (true) {
+            int count = this.users.get();
+            if ((count & RETIRED) != 0) {
+                return false;
+            }
+            if (this.users.compareAndSet(count, count + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Releases the services acquired with {@link #acquire()}.
+     */
+    void release()
+    {
+        if (this.users.decrementAndGet() == RETIRED) {
+            dispose();
+        }
+    }
+
+    /**
+     * Prevents new acquisitions, and disposes the services once they are not used anymore.
+     */
+    void retire()
+    {
+        if (this.users.getAndUpdate(count -> count | RETIRED) == 0) {
+            dispose();
+        }
+    }
+
+    private void dispose()
+    {
+        if (this.resultCache != null) {
+            this.resultCache.dispose();
+        }
+        if (this.evaluator != null) {
+            this.evaluator.dispose();
+        }
+    }
+
+    private static ConcurrentMapperEvaluator createEvaluator(ComponentManager componentManager, String hint,
+        DefaultURLMappingConfiguration configuration)
+    {
+        if (!configuration.isConcurrentEvaluationEnabled()) {
+            return null;
+        }
+        try {
+            return ConcurrentMapperEvaluator.create(componentManager, hint, configuration);
+        } catch (ComponentLookupException e) {
+            LOGGER.error("Could not set up the concurrent evaluation of the mappers of prefix handler [{}]", hint, e);
+            return null;
+        }
+    }
+
+    private static URLMappingResultCache createResultCache(CacheManager cacheManager, String hint,
+        DefaultURLMappingConfiguration configuration)
+    {
+        if (!configuration.isResultCacheEnabled()) {
+            return null;
+        }
+        try {
+            return URLMappingResultCache.create(cacheManager, hint, configuration);
+        } catch (CacheException e) {
+            LOGGER.error("Could not create the result cache of prefix handler [{}]", hint, e);
+            return null;
+        }
+    }
+}
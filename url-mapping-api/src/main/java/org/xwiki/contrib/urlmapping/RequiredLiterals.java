@@ -0,0 +1,404 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.urlmapping;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * The literal strings any path must contain to be matched (using {@link java.util.regex.Matcher#matches()}) by a
+ * regex: the literal the path must start with, and other literals it must contain somewhere.
+ * <p>
+ * The analysis is deliberately conservative: only the top-level sequence of the regex is inspected, groups, classes
+ * and optional atoms interrupt literals, and regexes using alternations at the top level, case insensitivity or
+ * comments have no required literals.
+ *
+ * @version $Id$
+ * @since 0.0.7
+ */
+final class RequiredLiterals
+{
+    private static final RequiredLiterals NONE = new RequiredLiterals("", Collections.emptyList());
+
+    private static final int MIN_SUBSTRING_LENGTH = 2;
+
+    private static final int UNSUPPORTED_FLAGS = Pattern.CASE_INSENSITIVE | Pattern.COMMENTS | Pattern.CANON_EQ;
+
+    private static final char ESCAPE = '\\';
+
+    private static final String QUANTIFIERS = "?*+{";
+
+    private static final char NO_CHAR = 0;
+
+    private static final int HEX_LENGTH = 2;
+
+    private static final int UNICODE_LENGTH = 4;
+
+    private static final int OCTAL_MAX_LENGTH = 3;
+
+    private final String prefix;
+
+    private final List<String> substrings;
+
+    private RequiredLiterals(String prefix, List<String> substrings)
+    {
+        this.prefix = prefix;
+        this.substrings = substrings;
+    }
+
+    /**
+     * @return the literal matching paths start with, or an empty string
+     */
+    String getPrefix()
+    {
+        return this.prefix;
+    }
+
+    /**
+     * @return other literals matching paths contain
+     */
+    List<String> getSubstrings()
+    {
+        return this.substrings;
+    }
+
+    /**
+     * @return whether no literal could be found, meaning any path may match
+     */
+    boolean isEmpty()
+    {
+        return this.prefix.isEmpty() && this.substrings.isEmpty();
+    }
+
+    /**
+     * @param regex the regex to analyze
+     * @return the literals required by the regex
+     */
+    static RequiredLiterals of(Pattern regex)
+    {
+        if ((regex.flags() & Pattern.LITERAL) != 0 && (regex.flags() & UNSUPPORTED_FLAGS) == 0) {
+            return new RequiredLiterals(regex.pattern(), Collections.emptyList());
+        }
+
+        if ((regex.flags() & UNSUPPORTED_FLAGS) != 0) {
+            return NONE;
+        }
+
+        Scanner scanner = new Scanner(regex.pattern());
+        return scanner.scan() ? scanner.toRequiredLiterals() : NONE;
+    }
+
+    /**
+     * Walks the top-level sequence of a regex, collecting runs of consecutive literal characters.
+     */
+    private static final class Scanner
+    {
+        private final String source;
+
+        private final List<String> runs = new ArrayList<>();
+
+        private final StringBuilder run = new StringBuilder();
+
+        private int pos;
+
+        private boolean prefixOpen = true;
+
+        private String prefix = "";
+
+        Scanner(String source)
+        {
+            this.source = source;
+            if (source.startsWith("^")) {
+                this.pos = 1;
+            }
+        }
+
+        /**
+         * @return false if the regex cannot be analyzed
+         */
+        boolean scan()
+        {
+            while (this.pos < this.source.length()) {
+                char c = this.source.charAt(this.pos);
+                boolean ok;
+                if (c == ESCAPE) {
+                    ok = scanEscape();
+                } else if (c == '[') {
+                    ok = skipClass();
+                } else if (c == '(') {
+                    ok = skipGroup();
+                } else if (c == '|' || c == ')') {
+                    // alternation: no literal is required on all branches
+                    ok = false;
+                } else if (c == '.' || c == '^' || c == '$') {
+                    this.pos++;
+                    ok = endAtom(false, NO_CHAR);
+                } else {
+                    this.pos++;
+                    ok = endAtom(true, c);
+                }
+
+                if (!ok) {
+                    return false;
+                }
+            }
+            breakRun();
+            return true;
+        }
+
+        RequiredLiterals toRequiredLiterals()
+        {
+            List<String> substrings = new ArrayList<>();
+            for (String r : this.runs) {
+                if (r.length() >= MIN_SUBSTRING_LENGTH && !r.equals(this.prefix)) {
+                    substrings.add(r);
+                }
+            }
+            return new RequiredLiterals(this.prefix, substrings);
+        }
+
+        private boolean scanEscape()
+        {
+            if (this.pos + 1 >= this.source.length()) {
+                return false;
+            }
+
+            char escaped = this.source.charAt(this.pos + 1);
+            this.pos += 2;
+            if (escaped == 'Q') {
+                return scanQuoted();
+            }
+
+            if ((escaped >= '1' && escaped <= '9') || escaped == 'k') {
+                // back references
+                return false;
+            }
+
+            if (Character.isLetterOrDigit(escaped)) {
+                // character classes, anchors, control characters, hexadecimal or octal values...
+                skipEscapeArgument(escaped);
+                return endAtom(false, NO_CHAR);
+            }
+
+            return endAtom(true, escaped);
+        }
+
+        private void skipEscapeArgument(char escaped)
+        {
+            if (this.pos < this.source.length() && this.source.charAt(this.pos) == '{') {
+                // \p{...}, \x{...}, \N{...}
+                int end = this.source.indexOf('}', this.pos);
+                this.pos = end < 0 ? this.source.length() : end + 1;
+            } else if (escaped == 'x') {
+                this.pos = Math.min(this.source.length(), this.pos + HEX_LENGTH);
+            } else if (escaped == 'u') {
+                this.pos = Math.min(this.source.length(), this.pos + UNICODE_LENGTH);
+            } else if (escaped == 'c') {
+                this.pos = Math.min(this.source.length(), this.pos + 1);
+            } else if (escaped == '0') {
+                int end = Math.min(this.source.length(), this.pos + OCTAL_MAX_LENGTH);
+                while (this.pos < end && this.source.charAt(this.pos) >= '0' && this.source.charAt(this.pos) <= '7') {
+                    this.pos++;
+                }
+            }
+        }
+
+        private boolean scanQuoted()
+        {
+            int end = this.source.indexOf("\\E", this.pos);
+            int stop = end < 0 ? this.source.length() : end;
+            String quoted = this.source.substring(this.pos, stop);
+            this.pos = end < 0 ? stop : stop + 2;
+            if (quoted.isEmpty()) {
+                return true;
+            }
+
+            this.run.append(quoted, 0, quoted.length() - 1);
+            return endAtom(true, quoted.charAt(quoted.length() - 1));
+        }
+
+        private boolean skipClass()
+        {
+            int end = findClassEnd(this.pos);
+            if (end < 0) {
+                return false;
+            }
+
+            this.pos = end;
+            return endAtom(false, NO_CHAR);
+        }
+
+        /**
+         * @return the index right after the class starting at the given index, or -1 if it is not terminated
+         */
+        private int findClassEnd(int start)
+        {
+            int i = start + 1;
+            if (i < this.source.length() && this.source.charAt(i) == '^') {
+                i++;
+            }
+            if (i < this.source.length() && this.source.charAt(i) == ']') {
+                i++;
+            }
+
+            int depth = 1;
+            while (i < this.source.length() && depth > 0) {
+                char c = this.source.charAt(i);
+                if (c == ESCAPE) {
+                    i++;
+                } else if (c == '[') {
+                    depth++;
+                } else if (c == ']') {
+                    depth--;
+                }
+                i++;
+            }
+
+            return depth > 0 ? -1 : i;
+        }
+
+        private boolean skipGroup()
+        {
+            if (isInlineFlagGroup()) {
+                // flags may change the meaning of what follows
+                return false;
+            }
+
+            int depth = 0;
+            int i = this.pos;
+            while (i < this.source.length()) {
+                char c = this.source.charAt(i);
+                if (c == ESCAPE) {
+                    i = skipEscapeInGroup(i);
+                } else if (c == '[') {
+                    i = findClassEnd(i);
+                    if (i < 0) {
+                        return false;
+                    }
+                } else {
+                    if (c == '(') {
+                        depth++;
+                    } else if (c == ')' && --depth == 0) {
+                        break;
+                    }
+                    i++;
+                }
+            }
+
+            if (depth != 0) {
+                return false;
+            }
+
+            this.pos = i + 1;
+            return endAtom(false, NO_CHAR);
+        }
+
+        private int skipEscapeInGroup(int i)
+        {
+            if (i + 1 < this.source.length() && this.source.charAt(i + 1) == 'Q') {
+                int end = this.source.indexOf("\\E", i + 2);
+                return end < 0 ? this.source.length() : end + 2;
+            }
+            return i + 2;
+        }
+
+        private boolean isInlineFlagGroup()
+        {
+            if (this.pos + 2 >= this.source.length() || this.source.charAt(this.pos + 1) != '?') {
+                return false;
+            }
+            char c = this.source.charAt(this.pos + 2);
+            return Character.isLetter(c) || c == '-';
+        }
+
+        /**
+         * Handles the end of an atom, taking into account the quantifier that might follow it.
+         *
+         * @param literal whether the atom is a literal character
+         * @param c the literal character
+         * @return false if the regex cannot be analyzed
+         */
+        private boolean endAtom(boolean literal, char c)
+        {
+            char quantifier = this.pos < this.source.length() ? this.source.charAt(this.pos) : NO_CHAR;
+            if (quantifier == NO_CHAR || QUANTIFIERS.indexOf(quantifier) < 0) {
+                if (literal) {
+                    this.run.append(c);
+                } else {
+                    breakRun();
+                }
+                return true;
+            }
+
+            boolean required = quantifier == '+' || (quantifier == '{' && isRequiredRepetition());
+            if (!skipQuantifier(quantifier)) {
+                return false;
+            }
+
+            if (literal && required) {
+                // the character is there at least once, but what follows might be another occurrence of it
+                this.run.append(c);
+            }
+            breakRun();
+            return true;
+        }
+
+        private boolean isRequiredRepetition()
+        {
+            int i = this.pos + 1;
+            return i < this.source.length() && this.source.charAt(i) >= '1' && this.source.charAt(i) <= '9';
+        }
+
+        private boolean skipQuantifier(char quantifier)
+        {
+            if (quantifier == '{') {
+                int end = this.source.indexOf('}', this.pos);
+                if (end < 0) {
+                    return false;
+                }
+                this.pos = end + 1;
+            } else {
+                this.pos++;
+            }
+
+            // lazy and possessive modifiers
+            if (this.pos < this.source.length()
+                && (this.source.charAt(this.pos) == '?' || this.source.charAt(this.pos) == '+'))
+            {
+                this.pos++;
+            }
+            return true;
+        }
+
+        private void breakRun()
+        {
+            if (this.prefixOpen) {
+                this.prefix = this.run.toString();
+                this.prefixOpen = false;
+            }
+            if (this.run.length() > 0) {
+                this.runs.add(this.run.toString());
+                this.run.setLength(0);
+            }
+        }
+    }
+}
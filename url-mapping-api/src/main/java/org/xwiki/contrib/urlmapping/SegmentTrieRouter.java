@@ -0,0 +1,318 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.urlmapping;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Finds the templates matching a path by walking a tree of the segments of the templates of all the mappers, see
+ * {@link TemplateURLMappingSpecification}.
+ * <p>
+ * Each node of the tree stands for a sequence of segments, and has a child per literal segment, a child for the
+ * {@code int} placeholders and a child for the {@code string} placeholders. The templates end on the nodes, or are
+ * attached to them when their last segment is a {@code path} placeholder. A path is matched by following, segment by
+ * segment, all the children accepting its segments. Like with the equivalent regexes, each mapper is matched by the
+ * first of its templates which matches the path.
+ * <p>
+ * When the templates don't overlap, a single child accepts each segment and the cost of a match only depends on the
+ * number of segments of the path. Otherwise, a segment may be accepted by a literal child, the {@code int} child and
+ * the {@code string} child, and the walk may follow up to {@code 3^depth} branches. Each node knows the best template
+ * index of each mapper in its subtree, so that the branches which cannot improve the templates already found are
+ * skipped: only the overlapping templates which may still win are explored.
+ *
+ * @version $Id$
+ * @since 0.0.7
+ */
+final class SegmentTrieRouter
+{
+    private static final char SEPARATOR = '/';
+
+    private final Node root = new Node();
+
+    private final int mapperCount;
+
+    /**
+     * A template matching a path.
+     */
+    static final class Route
+    {
+        private final PathTemplate template;
+
+        private final Map<String, String> variables;
+
+        Route(PathTemplate template, Map<String, String> variables)
+        {
+            this.template = template;
+            this.variables = variables;
+        }
+
+        PathTemplate getTemplate()
+        {
+            return this.template;
+        }
+
+        /**
+         * @return the values of the placeholders of the template
+         */
+        Map<String, String> getVariables()
+        {
+            return this.variables;
+        }
+    }
+
+    /**
+     * A template attached to a node.
+     */
+    private static final class Terminal
+    {
+        private final int mapperIndex;
+
+        private final int templateIndex;
+
+        private final PathTemplate template;
+
+        Terminal(int mapperIndex, int templateIndex, PathTemplate template)
+        {
+            this.mapperIndex = mapperIndex;
+            this.templateIndex = templateIndex;
+            this.template = template;
+        }
+    }
+
+    /**
+     * A node of the tree.
+     */
+    private static final class Node
+    {
+        private final Map<String, Node> literals = new HashMap<>();
+
+        private Node intChild;
+
+        private Node stringChild;
+
+        // the templates ending with this node
+        private final List<Terminal> ends = new ArrayList<>();
+
+        // the templates continuing with a path placeholder after this node
+        private final List<Terminal> tails = new ArrayList<>();
+
+        // the mappers having templates in the subtree of this node, and the index of their first template there
+        private int[] reachableMappers;
+
+        private int[] firstTemplates;
+
+        Node getChild(PathTemplate.Segment segment)
+        {
+            switch (segment.getType()) {
+                case LITERAL:
+                    return this.literals.computeIfAbsent(segment.getValue(), k -> new Node());
+                case INT:
+                    if (this.intChild == null) {
+                        this.intChild = new Node();
+                    }
+                    return this.intChild;
+                default:
+                    if (this.stringChild == null) {
+                        this.stringChild = new Node();
+                    }
+                    return this.stringChild;
+            }
+        }
+    }
+
+    /**
+     * @param specifications the specifications of the mappers, in declaration order. Only the
+     *     {@link TemplateURLMappingSpecification} ones are indexed.
+     */
+    SegmentTrieRouter(URLMappingSpecification[] specifications)
+    {
+        this.mapperCount = specifications.length;
+        for (int i = 0; i < specifications.length; i++) {
+            if (specifications[i] instanceof TemplateURLMappingSpecification) {
+                List<PathTemplate> templates = ((TemplateURLMappingSpecification) specifications[i]).getPathTemplates();
+                for (int t = 0; t < templates.size(); t++) {
+                    add(new Terminal(i, t, templates.get(t)));
+                }
+            }
+        }
+        index(this.root);
+    }
+
+    /**
+     * Computes the first template of each mapper in the subtree of a node.
+     *
+     * @return the first template index of each mapper in the subtree, by mapper index
+     */
+    private static Map<Integer, Integer> index(Node node)
+    {
+        Map<Integer, Integer> firstTemplates = new TreeMap<>();
+        List<Node> children = new ArrayList<>(node.literals.values());
+        children.add(node.intChild);
+        children.add(node.stringChild);
+        for (Node child : children) {
+            if (child != null) {
+                index(child).forEach((mapper, template) -> firstTemplates.merge(mapper, template, Math::min));
+            }
+        }
+        for (List<Terminal> terminals : Arrays.asList(node.ends, node.tails)) {
+            for (Terminal terminal : terminals) {
+                firstTemplates.merge(terminal.mapperIndex, terminal.templateIndex, Math::min);
+            }
+        }
+
+        node.reachableMappers = new int[firstTemplates.size()];
+        node.firstTemplates = new int[firstTemplates.size()];
+        int i = 0;
+        for (Map.Entry<Integer, Integer> entry : firstTemplates.entrySet()) {
+            node.reachableMappers[i] = entry.getKey();
+            node.firstTemplates[i++] = entry.getValue();
+        }
+        return firstTemplates;
+    }
+
+    private void add(Terminal terminal)
+    {
+        Node node = this.root;
+        for (PathTemplate.Segment segment : terminal.template.getSegments()) {
+            if (segment.getType() == PathTemplate.SegmentType.PATH) {
+                node.tails.add(terminal);
+                return;
+            }
+            node = node.getChild(segment);
+        }
+        node.ends.add(terminal);
+    }
+
+    /**
+     * @param path the path to match, without leading slash
+     * @return for each mapper, in declaration order, the first of its templates matching the path, or null
+     */
+    Route[] route(String path)
+    {
+        List<Integer> starts = new ArrayList<>();
+        starts.add(0);
+        for (int i = path.indexOf(SEPARATOR); i >= 0; i = path.indexOf(SEPARATOR, i + 1)) {
+            starts.add(i + 1);
+        }
+
+        String[] segments = new String[starts.size()];
+        for (int i = 0; i < segments.length; i++) {
+            int end = i + 1 < segments.length ? starts.get(i + 1) - 1 : path.length();
+            segments[i] = path.substring(starts.get(i), end);
+        }
+
+        Terminal[] best = new Terminal[this.mapperCount];
+        walk(this.root, segments, 0, best);
+
+        Route[] routes = new Route[this.mapperCount];
+        for (int i = 0; i < best.length; i++) {
+            if (best[i] != null) {
+                routes[i] = new Route(best[i].template, getVariables(best[i].template, path, segments, starts));
+            }
+        }
+        return routes;
+    }
+
+    private static void walk(Node node, String[] segments, int depth, Terminal[] best)
+    {
+        if (!canImprove(node, best)) {
+            return;
+        }
+
+        // a path placeholder takes the remaining segments, and requires the separator preceding them
+        if (depth < segments.length) {
+            keepBest(node.tails, best);
+        }
+
+        if (depth == segments.length) {
+            keepBest(node.ends, best);
+            return;
+        }
+
+        String segment = segments[depth];
+        Node literal = node.literals.get(segment);
+        if (literal != null) {
+            walk(literal, segments, depth + 1, best);
+        }
+        if (node.intChild != null && isDigits(segment)) {
+            walk(node.intChild, segments, depth + 1, best);
+        }
+        if (node.stringChild != null && !segment.isEmpty()) {
+            walk(node.stringChild, segments, depth + 1, best);
+        }
+    }
+
+    /**
+     * @return whether the subtree of the node has a template which would be preferred to the templates already found
+     */
+    private static boolean canImprove(Node node, Terminal[] best)
+    {
+        for (int i = 0; i < node.reachableMappers.length; i++) {
+            Terminal current = best[node.reachableMappers[i]];
+            if (current == null || node.firstTemplates[i] < current.templateIndex) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void keepBest(List<Terminal> terminals, Terminal[] best)
+    {
+        for (Terminal terminal : terminals) {
+            Terminal current = best[terminal.mapperIndex];
+            if (current == null || terminal.templateIndex < current.templateIndex) {
+                best[terminal.mapperIndex] = terminal;
+            }
+        }
+    }
+
+    private static boolean isDigits(String segment)
+    {
+        for (int i = 0; i < segment.length(); i++) {
+            char c = segment.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return !segment.isEmpty();
+    }
+
+    private static Map<String, String> getVariables(PathTemplate template, String path, String[] segments,
+        List<Integer> starts)
+    {
+        Map<String, String> variables = new LinkedHashMap<>();
+        List<PathTemplate.Segment> templateSegments = template.getSegments();
+        for (int i = 0; i < templateSegments.size(); i++) {
+            PathTemplate.Segment segment = templateSegments.get(i);
+            if (segment.getType() == PathTemplate.SegmentType.PATH) {
+                variables.put(segment.getValue(), path.substring(starts.get(i)));
+            } else if (segment.getType() != PathTemplate.SegmentType.LITERAL) {
+                variables.put(segment.getValue(), segments[i]);
+            }
+        }
+        return variables;
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.urlmapping;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A read-only table of string mappings, memory mapped from a file written by {@link StaticMappingTableBuilder}.
+ * <p>
+ * The keys are indexed by a minimal perfect hash built with the hash and displace method: a key is hashed to a bucket,
+ * and the displacement of the bucket gives the slot of the key. Each slot points to an entry of the file holding the
+ * key, which is compared to the looked up key, and the value. The lookups read the file in place and don't create any
+ * object per entry.
+ * <p>
+ * The file contains, in big endian:
+ * <ul>
+ * <li>the magic number, the number of entries, the number of buckets and the length of the entries</li>
+ * <li>the displacement of each bucket: the seed of the slot function if it is positive, {@code -(slot + 1)} if the
+ * bucket has a single key which is directly assigned a slot</li>
+ * <li>the file offset of the entry of each slot</li>
+ * <li>the entries, each made of the length of the key, the key, the length of the value and the value, in UTF-8</li>
+ * </ul>
+ * <p>
+ * A file which is truncated, like a table still being copied, is rejected when it's opened: its length must match its
+ * header, and its displacements and slots must point inside the file. The entries themselves are only checked when
+ * they are looked up, a corrupt entry being treated as a missing key.
+ *
+ * @version $Id$
+ * @since 0.0.7
+ */
+final class StaticMappingTable
+{
+    static final int MAGIC = 0x554D5432;
+
+    static final int HEADER_SIZE = 4 * Integer.BYTES;
+
+    private static final int ENTRY_OVERHEAD = 2 * Integer.BYTES;
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private static final long SEED_STEP = 0x9e3779b97f4a7c15L;
+
+    private static final long MIX_1 = 0xff51afd7ed558ccdL;
+
+    private static final long MIX_2 = 0xc4ceb9fe1a85ec53L;
+
+    private static final int MIX_SHIFT = 33;
+
+    private static final int BYTE_MASK = 0xff;
+
+    private final ByteBuffer buffer;
+
+    private final int size;
+
+    private final int buckets;
+
+    private final int slotsOffset;
+
+    private final int entriesOffset;
+
+    private StaticMappingTable(ByteBuffer buffer, int size, int buckets)
+    {
+        this.buffer = buffer;
+        this.size = size;
+        this.buckets = buckets;
+        this.slotsOffset = HEADER_SIZE + buckets * Integer.BYTES;
+        this.entriesOffset = this.slotsOffset + size * Integer.BYTES;
+    }
+
+    /**
+     * Maps a table file in memory. The file can then be replaced, the table keeps reading the original one.
+     *
+     * @param file the file written by {@link StaticMappingTableBuilder}
+     * @return the table
+     * @throws IOException if the file could not be read or is not a table
+     */
+    static StaticMappingTable open(Path file) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long length = channel.size();
+            if (length < HEADER_SIZE || length > Integer.MAX_VALUE) {
+                throw new IOException(String.format("[%s] is not a static mapping table: invalid size [%d]", file,
+                    length));
+            }
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            int size = buffer.getInt(Integer.BYTES);
+            int buckets = buffer.getInt(2 * Integer.BYTES);
+            int entriesLength = buffer.getInt(3 * Integer.BYTES);
+            if (buffer.getInt(0) != MAGIC || size < 0 || buckets < 1 || entriesLength < 0) {
+                throw new IOException(String.format("[%s] is not a static mapping table", file));
+            }
+            if (HEADER_SIZE + ((long) buckets + size) * Integer.BYTES + entriesLength != length) {
+                throw new IOException(String.format("The static mapping table [%s] is truncated: its size [%d] doesn't"
+                    + " match its header", file, length));
+            }
+            StaticMappingTable table = new StaticMappingTable(buffer, size, buckets);
+            table.checkSlots(file);
+            return table;
+        }
+    }
+
+    /**
+     * Checks that the displacements and the slots point inside the file.
+     */
+    private void checkSlots(Path file) throws IOException
+    {
+        for (int b = 0; b < this.buckets; b++) {
+            int displacement = this.buffer.getInt(HEADER_SIZE + b * Integer.BYTES);
+            if (displacement < 0 && -(long) displacement - 1 >= this.size) {
+                throw new IOException(String.format("The static mapping table [%s] is corrupt: invalid displacement"
+                    + " [%d] of bucket [%d]", file, displacement, b));
+            }
+        }
+        int lastEntry = this.buffer.limit() - ENTRY_OVERHEAD;
+        for (int slot = 0; slot < this.size; slot++) {
+            int entry = this.buffer.getInt(this.slotsOffset + slot * Integer.BYTES);
+            if (entry < this.entriesOffset || entry > lastEntry) {
+                throw new IOException(String.format("The static mapping table [%s] is corrupt: invalid offset [%d] of"
+                    + " slot [%d]", file, entry, slot));
+            }
+        }
+    }
+
+    /**
+     * @param key a key
+     * @return the value of the key, or null if the table doesn't contain the key
+     */
+    String get(String key)
+    {
+        if (this.size == 0) {
+            return null;
+        }
+
+        byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+        long hash = hash(bytes);
+        int displacement = this.buffer.getInt(HEADER_SIZE + bucket(hash, this.buckets) * Integer.BYTES);
+        int slot = displacement < 0 ? -displacement - 1 : slot(hash, displacement, this.size);
+        int entry = this.buffer.getInt(this.slotsOffset + slot * Integer.BYTES);
+
+        // the entry may be corrupt: its lengths are checked before reading it
+        int limit = this.buffer.limit();
+        if (this.buffer.getInt(entry) != bytes.length || bytes.length > limit - entry - ENTRY_OVERHEAD) {
+            return null;
+        }
+        int position = entry + Integer.BYTES;
+        for (byte b : bytes) {
+            if (this.buffer.get(position++) != b) {
+                return null;
+            }
+        }
+
+        int valueLength = this.buffer.getInt(position);
+        position += Integer.BYTES;
+        if (valueLength < 0 || valueLength > limit - position) {
+            return null;
+        }
+        byte[] value = new byte[valueLength];
+        for (int i = 0; i < value.length; i++) {
+            value[i] = this.buffer.get(position + i);
+        }
+        return new String(value, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the number of entries of the table
+     */
+    int size()
+    {
+        return this.size;
+    }
+
+    /**
+     * @param bytes the UTF-8 bytes of a key
+     * @return the 64 bits hash of the key
+     */
+    static long hash(byte[] bytes)
+    {
+        long hash = FNV_OFFSET_BASIS;
+        for (byte b : bytes) {
+            hash ^= b & BYTE_MASK;
+            hash *= FNV_PRIME;
+        }
+        return mix(hash);
+    }
+
+    /**
+     * @return the bucket of a key
+     */
+    static int bucket(long hash, int buckets)
+    {
+        return (int) Long.remainderUnsigned(hash, buckets);
+    }
+
+    /**
+     * @return the slot of a key for the given displacement seed
+     */
+    static int slot(long hash, int seed, int size)
+    {
+        return (int) Long.remainderUnsigned(mix(hash + seed * SEED_STEP), size);
+    }
+
+    private static long mix(long value)
+    {
+        long h = value;
+        h ^= h >>> MIX_SHIFT;
+        h *= MIX_1;
+        h ^= h >>> MIX_SHIFT;
+        h *= MIX_2;
+        h ^= h >>> MIX_SHIFT;
+        return h;
+    }
+}
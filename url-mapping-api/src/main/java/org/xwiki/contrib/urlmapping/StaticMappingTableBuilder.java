@@ -0,0 +1,322 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.urlmapping;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+import org.xwiki.stability.Unstable;
+
+/**
+ * Compiles a sorted list of mappings into a static mapping table file, read by {@link StaticTableURLMapper}.
+ * <p>
+ * The source is a UTF-8 text file with one mapping per line: the key, a tab and the value. The keys must be sorted in
+ * ascending order (as compared by {@link String#compareTo(String)}) and unique, empty lines are ignored. The table is
+ * first written next to the target file, and then moved to it atomically, so that mappers reading the target file
+ * never see a partially written table.
+ * <p>
+ * The values are streamed to a temporary file, but the perfect hash is computed in memory: building a table needs
+ * about {@link #BYTES_PER_MAPPING} bytes of memory per mapping when the number of mappings is given, and up to half
+ * as much more otherwise, while the arrays grow.
+ * <p>
+ * The builder can be run from the command line:
+ *
+ * <pre>
+ * java -cp url-mapping-api.jar org.xwiki.contrib.urlmapping.StaticMappingTableBuilder mappings.txt mappings.table
+ * </pre>
+ *
+ * @version $Id$
+ * @since 0.0.7
+ */
+@Unstable
+public final class StaticMappingTableBuilder
+{
+    /**
+     * The memory used to build a table, per mapping, when the number of mappings is known: the hash and the offset of
+     * the key, its slot and its index in its bucket, and a share of the buckets.
+     */
+    public static final int BYTES_PER_MAPPING = 24;
+
+    // the average number of keys in a bucket of the perfect hash
+    private static final int KEYS_PER_BUCKET = 3;
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private static final int ENTRY_OVERHEAD = 2 * Integer.BYTES;
+
+    private long[] hashes;
+
+    private int[] offsets;
+
+    private int count;
+
+    private long entriesLength;
+
+    private int[] displacements;
+
+    // the key of each slot of the perfect hash
+    private int[] slots;
+
+    private StaticMappingTableBuilder(int capacity)
+    {
+        this.hashes = new long[capacity];
+        this.offsets = new int[capacity];
+    }
+
+    /**
+     * Builds a static mapping table from the command line.
+     *
+     * @param args the source file and the table file
+     * @throws IOException if the table could not be built
+     */
+    public static void main(String[] args) throws IOException
+    {
+        if (args.length != 2) {
+            throw new IllegalArgumentException("Usage: StaticMappingTableBuilder <source file> <table file>");
+        }
+        build(Paths.get(args[0]), Paths.get(args[1]));
+    }
+
+    /**
+     * Builds a static mapping table.
+     *
+     * @param source the sorted source mappings
+     * @param target the table file to write, replaced atomically if it exists
+     * @return the number of mappings of the table
+     * @throws IOException if the source could not be read, is not sorted, or if the table could not be written
+     */
+    public static int build(Path source, Path target) throws IOException
+    {
+        return build(source, target, 0);
+    }
+
+    /**
+     * Builds a static mapping table, with the memory for the given number of mappings allocated up front.
+     *
+     * @param source the sorted source mappings
+     * @param target the table file to write, replaced atomically if it exists
+     * @param expectedCount the number of mappings of the source, or 0 if it's not known
+     * @return the number of mappings of the table
+     * @throws IOException if the source could not be read, is not sorted, or if the table could not be written
+     */
+    public static int build(Path source, Path target, int expectedCount) throws IOException
+    {
+        Path directory = target.toAbsolutePath().getParent();
+        String name = target.getFileName().toString();
+        Path entries = Files.createTempFile(directory, name, ".entries");
+        Path table = Files.createTempFile(directory, name, ".tmp");
+        try {
+            StaticMappingTableBuilder builder =
+                new StaticMappingTableBuilder(expectedCount > 0 ? expectedCount : INITIAL_CAPACITY);
+            try (BufferedReader reader = Files.newBufferedReader(source, StandardCharsets.UTF_8);
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(entries))))
+            {
+                builder.readMappings(reader, out, source);
+            }
+            builder.computePerfectHash();
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(table)))) {
+                builder.writeTable(out, entries);
+            }
+            Files.move(table, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            return builder.count;
+        } finally {
+            Files.deleteIfExists(entries);
+            Files.deleteIfExists(table);
+        }
+    }
+
+    private void readMappings(BufferedReader reader, DataOutputStream out, Path source) throws IOException
+    {
+        String previous = null;
+        int lineNumber = 0;
+        for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+            lineNumber++;
+            if (line.isEmpty()) {
+                continue;
+            }
+            int separator = line.indexOf('\t');
+            if (separator < 0) {
+                throw new IOException(String.format("Line [%d] of [%s] has no tab separated value", lineNumber,
+                    source));
+            }
+            String key = line.substring(0, separator);
+            if (previous != null && key.compareTo(previous) <= 0) {
+                throw new IOException(String.format("Key [%s] at line [%d] of [%s] is not sorted or is duplicated",
+                    key, lineNumber, source));
+            }
+            byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+            byte[] valueBytes = line.substring(separator + 1).getBytes(StandardCharsets.UTF_8);
+            add(StaticMappingTable.hash(keyBytes));
+            out.writeInt(keyBytes.length);
+            out.write(keyBytes);
+            out.writeInt(valueBytes.length);
+            out.write(valueBytes);
+            this.entriesLength += ENTRY_OVERHEAD + keyBytes.length + valueBytes.length;
+            previous = key;
+        }
+    }
+
+    private void add(long hash) throws IOException
+    {
+        if (this.entriesLength > Integer.MAX_VALUE) {
+            throw new IOException("The mappings don't fit in a static mapping table");
+        }
+        if (this.count == this.hashes.length) {
+            int capacity = this.count + Math.max(INITIAL_CAPACITY, this.count / 2);
+            this.hashes = Arrays.copyOf(this.hashes, capacity);
+            this.offsets = Arrays.copyOf(this.offsets, capacity);
+        }
+        this.hashes[this.count] = hash;
+        this.offsets[this.count] = (int) this.entriesLength;
+        this.count++;
+    }
+
+    private void computePerfectHash() throws IOException
+    {
+        int buckets = Math.max(1, (this.count + KEYS_PER_BUCKET - 1) / KEYS_PER_BUCKET);
+        this.displacements = new int[buckets];
+        this.slots = new int[this.count];
+        Arrays.fill(this.slots, -1);
+
+        // group the keys by bucket
+        int[] bucketStarts = new int[buckets + 1];
+        for (int i = 0; i < this.count; i++) {
+            bucketStarts[StaticMappingTable.bucket(this.hashes[i], buckets) + 1]++;
+        }
+        for (int b = 0; b < buckets; b++) {
+            bucketStarts[b + 1] += bucketStarts[b];
+        }
+        int[] keys = new int[this.count];
+        int[] next = Arrays.copyOf(bucketStarts, buckets);
+        for (int i = 0; i < this.count; i++) {
+            keys[next[StaticMappingTable.bucket(this.hashes[i], buckets)]++] = i;
+        }
+
+        // the largest buckets are placed first, while most slots are free, and the single keys last, in the
+        // remaining slots
+        int freeSlot = 0;
+        for (int b : getBucketsBySize(bucketStarts)) {
+            int[] bucketKeys = Arrays.copyOfRange(keys, bucketStarts[b], bucketStarts[b + 1]);
+            if (bucketKeys.length > 1) {
+                this.displacements[b] = place(bucketKeys);
+            } else if (bucketKeys.length == 1) {
+                while (this.slots[freeSlot] >= 0) {
+                    freeSlot++;
+                }
+                this.slots[freeSlot] = bucketKeys[0];
+                this.displacements[b] = -freeSlot - 1;
+            }
+        }
+    }
+
+    private static int[] getBucketsBySize(int[] bucketStarts)
+    {
+        int buckets = bucketStarts.length - 1;
+        int maxSize = 0;
+        for (int b = 0; b < buckets; b++) {
+            maxSize = Math.max(maxSize, bucketStarts[b + 1] - bucketStarts[b]);
+        }
+        int[] sizeStarts = new int[maxSize + 2];
+        for (int b = 0; b < buckets; b++) {
+            sizeStarts[maxSize - (bucketStarts[b + 1] - bucketStarts[b]) + 1]++;
+        }
+        for (int s = 0; s <= maxSize; s++) {
+            sizeStarts[s + 1] += sizeStarts[s];
+        }
+        int[] ordered = new int[buckets];
+        for (int b = 0; b < buckets; b++) {
+            ordered[sizeStarts[maxSize - (bucketStarts[b + 1] - bucketStarts[b])]++] = b;
+        }
+        return ordered;
+    }
+
+    /**
+     * Finds a seed for which the slots of the keys of a bucket are free and distinct, and assigns them.
+     *
+     * @return the seed
+     */
+    private int place(int[] bucketKeys) throws IOException
+    {
+        for (int i = 1; i < bucketKeys.length; i++) {
+            for (int j = 0; j < i; j++) {
+                if (this.hashes[bucketKeys[i]] == this.hashes[bucketKeys[j]]) {
+                    throw new IOException("Two keys have the same hash, the static mapping table can't be built");
+                }
+            }
+        }
+
+        int[] candidates = new int[bucketKeys.length];
+        for (int seed = 0; seed < Integer.MAX_VALUE; seed++) {
+            if (tryPlace(bucketKeys, seed, candidates)) {
+                for (int i = 0; i < bucketKeys.length; i++) {
+                    this.slots[candidates[i]] = bucketKeys[i];
+                }
+                return seed;
+            }
+        }
+        throw new IOException("Could not find a perfect hash for the keys of the static mapping table");
+    }
+
+    private boolean tryPlace(int[] bucketKeys, int seed, int[] candidates)
+    {
+        for (int i = 0; i < bucketKeys.length; i++) {
+            int slot = StaticMappingTable.slot(this.hashes[bucketKeys[i]], seed, this.count);
+            if (this.slots[slot] >= 0) {
+                return false;
+            }
+            for (int j = 0; j < i; j++) {
+                if (candidates[j] == slot) {
+                    return false;
+                }
+            }
+            candidates[i] = slot;
+        }
+        return true;
+    }
+
+    private void writeTable(DataOutputStream out, Path entries) throws IOException
+    {
+        long entriesOffset = StaticMappingTable.HEADER_SIZE + ((long) this.displacements.length + this.count)
+            * Integer.BYTES;
+        if (entriesOffset + this.entriesLength > Integer.MAX_VALUE) {
+            throw new IOException("The mappings don't fit in a static mapping table");
+        }
+
+        out.writeInt(StaticMappingTable.MAGIC);
+        out.writeInt(this.count);
+        out.writeInt(this.displacements.length);
+        out.writeInt((int) this.entriesLength);
+        for (int displacement : this.displacements) {
+            out.writeInt(displacement);
+        }
+        for (int key : this.slots) {
+            out.writeInt((int) (entriesOffset + this.offsets[key]));
+        }
+        Files.copy(entries, out);
+    }
+}
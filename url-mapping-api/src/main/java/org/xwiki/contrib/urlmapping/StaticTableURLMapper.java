@@ -0,0 +1,193 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.urlmapping;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.util.Objects;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xwiki.resource.ResourceReference;
+import org.xwiki.stability.Unstable;
+
+/**
+ * A URL mapper converting paths with a static mapping table, for sites with too many mappings to keep them in memory.
+ * The table is a file built by {@link StaticMappingTableBuilder}, whose keys are the paths converted by the handler and
+ * whose values are the URLs to redirect to: it is memory mapped, and read in place.
+ * <p>
+ * The mapper checks whether the file was replaced at most once per reload interval, and then switches to the new
+ * table. The requests converted at that time keep using the previous table. A file which is not a valid table, like
+ * a table still being copied, is not loaded: the previous table is kept until the file changes again. The results of
+ * the mapper are not cached, so that a new table is used as soon as it is loaded.
+ * <p>
+ * Usage:
+ *
+ * <pre>
+ * protected URLMapper[] getMappers()
+ * {
+ *     return new URLMapper[] {
+ *         new StaticTableURLMapper(Paths.get("/var/lib/xwiki/legacy.table"))
+ *     };
+ * }
+ * </pre>
+ *
+ * Override {@link #convert(URLMappingMatch, String)} to convert the values of the table to something else than URLs,
+ * like document references.
+ *
+ * @version $Id$
+ * @since 0.0.7
+ */
+@Unstable
+public class StaticTableURLMapper extends AbstractURLMapper
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(StaticTableURLMapper.class);
+
+    private static final Duration DEFAULT_RELOAD_INTERVAL = Duration.ofSeconds(10);
+
+    private final Path file;
+
+    private final long reloadInterval;
+
+    private volatile LoadedTable loaded;
+
+    /**
+     * The table currently used, with the attributes of the file it was read from.
+     */
+    private static final class LoadedTable
+    {
+        private final StaticMappingTable table;
+
+        private final Object fileKey;
+
+        private final Object lastModified;
+
+        private final long nextCheck;
+
+        LoadedTable(StaticMappingTable table, BasicFileAttributes attributes, long nextCheck)
+        {
+            this.table = table;
+            this.fileKey = attributes == null ? null : attributes.fileKey();
+            this.lastModified = attributes == null ? null : attributes.lastModifiedTime();
+            this.nextCheck = nextCheck;
+        }
+
+        boolean isReadFrom(BasicFileAttributes attributes)
+        {
+            return this.table != null && Objects.equals(this.fileKey, attributes.fileKey())
+                && Objects.equals(this.lastModified, attributes.lastModifiedTime());
+        }
+    }
+
+    /**
+     * @param file the static mapping table file
+     */
+    public StaticTableURLMapper(Path file)
+    {
+        this(file, DEFAULT_RELOAD_INTERVAL);
+    }
+
+    /**
+     * @param file the static mapping table file
+     * @param reloadInterval the minimum time between two checks of whether the file was replaced
+     */
+    public StaticTableURLMapper(Path file, Duration reloadInterval)
+    {
+        this.file = file;
+        this.reloadInterval = reloadInterval.toNanos();
+    }
+
+    @Override
+    public URLMappingResult convert(URLMappingMatch match)
+    {
+        StaticMappingTable table = getTable();
+        String value = table == null ? null : table.get(match.getMatchedURL());
+        return value == null ? null : convert(match, value);
+    }
+
+    /**
+     * @param match the match of the path
+     * @param value the value of the path in the table
+     * @return the result of the conversion, the redirection to the value by default
+     */
+    protected URLMappingResult convert(URLMappingMatch match, String value)
+    {
+        return new DefaultURLMappingResult(getConfiguration(), value);
+    }
+
+    /**
+     * Not used, the paths are converted by {@link #convert(URLMappingMatch, String)}.
+     *
+     * @param match the match of the path
+     * @return null
+     */
+    @Override
+    public ResourceReference convert(DefaultURLMappingMatch match)
+    {
+        return null;
+    }
+
+    /**
+     * @return the number of mappings of the current table, 0 if the table could not be loaded
+     */
+    public int getSize()
+    {
+        StaticMappingTable table = getTable();
+        return table == null ? 0 : table.size();
+    }
+
+    private StaticMappingTable getTable()
+    {
+        LoadedTable current = this.loaded;
+        long now = System.nanoTime();
+        if (current == null || now - current.nextCheck >= 0) {
+            synchronized (this) {
+                current = this.loaded;
+                if (current == null || now - current.nextCheck >= 0) {
+                    current = reload(current, now);
+                    this.loaded = current;
+                }
+            }
+        }
+        return current.table;
+    }
+
+    private LoadedTable reload(LoadedTable current, long now)
+    {
+        StaticMappingTable previous = current == null ? null : current.table;
+        BasicFileAttributes attributes = null;
+        try {
+            attributes = Files.readAttributes(this.file, BasicFileAttributes.class);
+            if (current != null && current.isReadFrom(attributes)) {
+                return new LoadedTable(previous, attributes, now + this.reloadInterval);
+            }
+            StaticMappingTable table = StaticMappingTable.open(this.file);
+            LOGGER.info("Loaded the static mapping table [{}] with [{}] mappings", this.file, table.size());
+            return new LoadedTable(table, attributes, now + this.reloadInterval);
+        } catch (IOException e) {
+            LOGGER.error("Failed to load the static mapping table [{}], the previous table is kept", this.file, e);
+            // retry once the file changes
+            return new LoadedTable(previous, attributes, now + this.reloadInterval);
+        }
+    }
+}
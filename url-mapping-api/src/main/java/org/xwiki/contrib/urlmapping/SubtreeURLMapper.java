@@ -0,0 +1,150 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.urlmapping;
+
+import java.util.Map;
+
+import org.xwiki.model.EntityType;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.resource.ResourceReference;
+import org.xwiki.resource.entity.EntityResourceAction;
+import org.xwiki.resource.entity.EntityResourceReference;
+import org.xwiki.stability.Unstable;
+
+/**
+ * A URL mapper converting whole subtrees of paths, like {@code display/OLDSPACE/*} to {@code NewSpace.*}: each rule
+ * maps a path prefix to a target, and a path is converted with the rule of its longest prefix. The prefixes are
+ * matched on whole segments and kept in a compressed trie, so that the conversion time only depends on the length of
+ * the path, even with hundreds of thousands of rules.
+ * <p>
+ * A target starting with {@code /} or containing {@code ://} is a URL prefix, to which the rest of the path is
+ * appended. Any other target is a space reference like {@code NewSpace.SubSpace} or {@code wiki:NewSpace}, and the
+ * path is converted to the nested page made of the segments of the rest of the path in this space: with the rule
+ * {@code display/OLDSPACE} to {@code NewSpace}, {@code display/OLDSPACE/A/B} is converted to {@code NewSpace.A.B} and
+ * {@code display/OLDSPACE} to {@code NewSpace}. The dots of the space references are not escaped.
+ * <p>
+ * Usage:
+ *
+ * <pre>
+ * protected URLMapper[] getMappers()
+ * {
+ *     return new URLMapper[] {
+ *         new SubtreeURLMapper(Map.of(
+ *             "display/OLDSPACE", "NewSpace",
+ *             "display/OLDSPACE/Archive", "/archive/"
+ *         ))
+ *     };
+ * }
+ * </pre>
+ *
+ * Override {@link #convert(URLMappingMatch, String, String)} to convert the targets differently.
+ *
+ * @version $Id$
+ * @since 0.0.7
+ */
+@Unstable
+public class SubtreeURLMapper extends AbstractURLMapper
+{
+    private static final String SEPARATOR = "/";
+
+    private static final String WEB_HOME = "WebHome";
+
+    private final PathPrefixTrie subtrees;
+
+    /**
+     * @param subtrees the targets of the subtrees, by path prefix
+     */
+    public SubtreeURLMapper(Map<String, String> subtrees)
+    {
+        this.subtrees = PathPrefixTrie.build(subtrees);
+    }
+
+    @Override
+    public URLMappingResult convert(URLMappingMatch match)
+    {
+        PathPrefixTrie.Match subtree = this.subtrees.getLongestPrefix(match.getMatchedURL());
+        return subtree == null ? null : convert(match, subtree.getValue(), subtree.getRemainder());
+    }
+
+    /**
+     * @param match the match of the path
+     * @param target the target of the longest prefix of the path
+     * @param remainder the rest of the path after the prefix, without leading and trailing slashes
+     * @return the result of the conversion
+     */
+    protected URLMappingResult convert(URLMappingMatch match, String target, String remainder)
+    {
+        if (target.startsWith(SEPARATOR) || target.contains("://")) {
+            String url = remainder.isEmpty() || target.endsWith(SEPARATOR) ? target + remainder
+                : target + SEPARATOR + remainder;
+            return new DefaultURLMappingResult(getConfiguration(), url);
+        }
+        return new DefaultURLMappingResult(getConfiguration(),
+            new EntityResourceReference(getPageReference(target, remainder), EntityResourceAction.VIEW));
+    }
+
+    /**
+     * Not used, the paths are converted by {@link #convert(URLMappingMatch, String, String)}.
+     *
+     * @param match the match of the path
+     * @return null
+     */
+    @Override
+    public ResourceReference convert(DefaultURLMappingMatch match)
+    {
+        return null;
+    }
+
+    /**
+     * @return the number of subtrees
+     */
+    public int getSize()
+    {
+        return this.subtrees.size();
+    }
+
+    /**
+     * @param space the reference of the space of the subtree, optionally prefixed by a wiki
+     * @param remainder the rest of the path, whose segments are nested spaces of the space
+     * @return the reference of the home page of the space of the path, relative to the current wiki if the space
+     *     has no wiki
+     */
+    private static EntityReference getPageReference(String space, String remainder)
+    {
+        EntityReference parent = null;
+        String spaces = space;
+        int wikiSeparator = space.indexOf(':');
+        if (wikiSeparator > 0) {
+            parent = new EntityReference(space.substring(0, wikiSeparator), EntityType.WIKI);
+            spaces = space.substring(wikiSeparator + 1);
+        }
+        for (String segment : spaces.split("\\.")) {
+            if (!segment.isEmpty()) {
+                parent = new EntityReference(segment, EntityType.SPACE, parent);
+            }
+        }
+        for (String segment : remainder.split(SEPARATOR)) {
+            if (!segment.isEmpty()) {
+                parent = new EntityReference(segment, EntityType.SPACE, parent);
+            }
+        }
+        return new EntityReference(WEB_HOME, EntityType.DOCUMENT, parent);
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.urlmapping;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.regex.MatchResult;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.xwiki.stability.Unstable;
+
+/**
+ * The match given to the mappers having a {@link TemplateURLMappingSpecification}, with the values of the
+ * placeholders of the template matching the path.
+ * <p>
+ * The match result and the matcher are only computed if they are requested, using the regex equivalent to the
+ * template, so that mappers written for regexes keep working.
+ *
+ * @version $Id$
+ * @since 0.0.7
+ */
+@Unstable
+public class TemplateURLMappingMatch extends DefaultURLMappingMatch
+{
+    private final String template;
+
+    private final Map<String, String> variables;
+
+    private final Pattern regex;
+
+    private Matcher matcher;
+
+    /**
+     * @param matchedURL the URL that matched
+     * @param method the http method used for this request
+     * @param template the template which matched
+     * @param variables the values of the placeholders of the template
+     * @param request the request
+     */
+    TemplateURLMappingMatch(String matchedURL, String method, PathTemplate template, Map<String, String> variables,
+        HttpServletRequest request)
+    {
+        super(matchedURL, method, null, request);
+        this.template = template.getTemplate();
+        this.regex = template.getRegex();
+        this.variables = Collections.unmodifiableMap(variables);
+    }
+
+    /**
+     * @return the template which matched the URL
+     */
+    public String getTemplate()
+    {
+        return this.template;
+    }
+
+    /**
+     * @return the values of the placeholders of the template, by name
+     */
+    public Map<String, String> getVariables()
+    {
+        return this.variables;
+    }
+
+    /**
+     * @param name the name of a placeholder of the template
+     * @return the value of the placeholder, or null if the template has no such placeholder
+     */
+    public String getVariable(String name)
+    {
+        return this.variables.get(name);
+    }
+
+    @Override
+    public MatchResult getMatchResult()
+    {
+        return getMatcher();
+    }
+
+    @Override
+    public Matcher getMatcher()
+    {
+        if (this.matcher == null) {
+            Matcher m = this.regex.matcher(getMatchedURL());
+            m.matches();
+            this.matcher = m;
+        }
+        return this.matcher;
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.urlmapping;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.xwiki.stability.Unstable;
+
+/**
+ * A URL mapping specification made of path templates instead of regexes, for instance {@code display/{space}/{page}}
+ * or {@code pages/viewpage.action}.
+ * <p>
+ * A template is a list of segments separated by slashes. A segment is either a literal or a placeholder taking the
+ * whole segment, written {@code {name}} or {@code {name:type}}, where the type is {@code string} (the default, any
+ * non-empty segment), {@code int} (ASCII digits) or {@code path} (the rest of the path, slashes included, only as the
+ * last segment). A template must match the whole path.
+ * <p>
+ * The templates of the mappers of a prefix handler are compiled into a tree of segments so that the matching mappers
+ * are found without regexes, in a time proportional to the number of segments of the path. The mappers then get a
+ * {@link TemplateURLMappingMatch} giving the values of the placeholders. For compatibility, the specification also
+ * provides equivalent regexes, with a named group per placeholder.
+ *
+ * @version $Id$
+ * @since 0.0.7
+ */
+@Unstable
+public class TemplateURLMappingSpecification implements URLMappingSpecification
+{
+    private final List<PathTemplate> templates;
+
+    private final Pattern[] regexes;
+
+    private Collection<String> handledHTTPMethods = Collections.emptyList();
+
+    private boolean cacheable;
+
+    private boolean independent;
+
+    /**
+     * @param templates the path templates handled by the mapper, in order of preference
+     * @throws IllegalArgumentException if a template is not valid
+     */
+    public TemplateURLMappingSpecification(String... templates)
+    {
+        List<PathTemplate> parsed = new ArrayList<>(templates.length);
+        for (String template : templates) {
+            parsed.add(PathTemplate.parse(template));
+        }
+        this.templates = Collections.unmodifiableList(parsed);
+        this.regexes = parsed.stream().map(PathTemplate::getRegex).toArray(Pattern[]::new);
+    }
+
+    /**
+     * @return the path templates handled by the mapper
+     */
+    public List<String> getTemplates()
+    {
+        List<String> result = new ArrayList<>(this.templates.size());
+        for (PathTemplate template : this.templates) {
+            result.add(template.getTemplate());
+        }
+        return result;
+    }
+
+    List<PathTemplate> getPathTemplates()
+    {
+        return this.templates;
+    }
+
+    @Override
+    public Collection<String> getHandledHTTPMethods()
+    {
+        return this.handledHTTPMethods;
+    }
+
+    /**
+     * @param handledHTTPMethods see {@link #getHandledHTTPMethods()}
+     */
+    public void setHandledHTTPMethods(Collection<String> handledHTTPMethods)
+    {
+        this.handledHTTPMethods = handledHTTPMethods == null ? Collections.emptyList() : handledHTTPMethods;
+    }
+
+    /**
+     * @return regexes matching the same paths as the templates, with a named group for each placeholder
+     */
+    @Override
+    public Pattern[] getRegexes()
+    {
+        return this.regexes.clone();
+    }
+
+    @Override
+    public boolean isCacheable()
+    {
+        return this.cacheable;
+    }
+
+    /**
+     * @param cacheable see {@link #isCacheable()}
+     */
+    public void setCacheable(boolean cacheable)
+    {
+        this.cacheable = cacheable;
+    }
+
+    @Override
+    public boolean isIndependent()
+    {
+        return this.independent;
+    }
+
+    /**
+     * @param independent see {@link #isIndependent()}
+     */
+    public void setIndependent(boolean independent)
+    {
+        this.independent = independent;
+    }
+}
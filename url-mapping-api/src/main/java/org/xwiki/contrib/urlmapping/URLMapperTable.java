@@ -0,0 +1,408 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.urlmapping;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.IntStream;
+
+/**
+ * The mappers of a prefix handler, frozen: their specifications are read and their configuration is bound once, when
+ * the table is built, and the table is then shared by all the requests until it is invalidated.
+ * <p>
+ * The table may also hold structures built from the regexes of the mappers to quickly find the ones which may match a
+ * path (see {@link MultiPatternURLMatcher} and {@link LiteralPrefilter}), and the paths which were found to match none
+ * of its mappers (see {@link UnmatchedPathCache}), which are forgotten with the table. The mappers are also
+ * partitioned by HTTP method, so that the requests only go through the mappers handling their method, and the
+ * independent mappers may be reordered by number of conversions (see {@link AdaptiveMapperOrder}). When matcher
+ * reuse is enabled, each thread keeps a matcher per regex, reset for each path, so that failed matches, which are
+ * the majority, don't allocate anything. The templates of the mappers having a
+ * {@link TemplateURLMappingSpecification} are matched with a {@link SegmentTrieRouter} instead of their regexes.
+ *
+ * @version $Id$
+ * @since 0.0.7
+ */
+final class URLMapperTable
+{
+    private final Entry[] entries;
+
+    private final MultiPatternURLMatcher matcher;
+
+    private final LiteralPrefilter prefilter;
+
+    private final UnmatchedPathCache unmatchedPaths;
+
+    private final SegmentTrieRouter router;
+
+    private final AdaptiveMapperOrder adaptiveOrder;
+
+    private volatile Candidates candidates;
+
+    /**
+     * The indexes of the mappers, in the order they are tried, partitioned by HTTP method.
+     */
+    private static final class Candidates
+    {
+        private final int[] order;
+
+        // For each HTTP method handled by a mapper, the indexes of the mappers handling it
+        private final Map<String, int[]> byMethod = new HashMap<>();
+
+        // The indexes of the mappers handling all the HTTP methods
+        private final int[] wildcard;
+
+        Candidates(Entry[] entries, int[] order)
+        {
+            this.order = order;
+            Set<String> methods = new HashSet<>();
+            for (Entry entry : entries) {
+                methods.addAll(entry.handledHTTPMethods);
+            }
+            this.wildcard = filter(entries, order, null);
+            for (String method : methods) {
+                this.byMethod.put(method, filter(entries, order, method));
+            }
+        }
+
+        /**
+         * @return the indexes of the mappers handling the given method, or all the methods if it is null
+         */
+        private static int[] filter(Entry[] entries, int[] order, String method)
+        {
+            int[] filtered = new int[order.length];
+            int count = 0;
+            for (int i : order) {
+                Set<String> handled = entries[i].handledHTTPMethods;
+                if (handled.isEmpty() || (method != null && handled.contains(method))) {
+                    filtered[count++] = i;
+                }
+            }
+            return Arrays.copyOf(filtered, count);
+        }
+    }
+
+    /**
+     * A mapper and what was read from its specification.
+     */
+    static final class Entry
+    {
+        private final int index;
+
+        private final URLMapper mapper;
+
+        private final String name;
+
+        private final Pattern[] regexes;
+
+        private final Set<String> handledHTTPMethods;
+
+        private final boolean cacheable;
+
+        private final boolean template;
+
+        private final boolean independent;
+
+        // The matchers of the regexes, reused by each thread while they don't match
+        private final ThreadLocal<Matcher[]> matchers;
+
+        Entry(int index, URLMapper mapper, URLMappingSpecification specification, boolean reuseMatchers)
+        {
+            this.index = index;
+            this.mapper = mapper;
+            this.name = mapper.getClass().getName();
+
+            Pattern[] specRegexes = specification == null ? null : specification.getRegexes();
+            this.regexes = specRegexes == null ? new Pattern[0] : specRegexes.clone();
+
+            Collection<String> methods = specification == null ? null : specification.getHandledHTTPMethods();
+            this.handledHTTPMethods =
+                methods == null ? Collections.emptySet() : Collections.unmodifiableSet(new HashSet<>(methods));
+
+            this.cacheable = specification != null && specification.isCacheable();
+            this.template = specification instanceof TemplateURLMappingSpecification;
+            // a mapper handling any path cannot be independent
+            this.independent = specification != null && specification.isIndependent() && this.regexes.length > 0;
+
+            int regexCount = this.regexes.length;
+            this.matchers = reuseMatchers && regexCount > 0 ? ThreadLocal.withInitial(() -> new Matcher[regexCount])
+                : null;
+        }
+
+        URLMapper getMapper()
+        {
+            return this.mapper;
+        }
+
+        /**
+         * @return the class name of the mapper, for logging
+         */
+        String getName()
+        {
+            return this.name;
+        }
+
+        /**
+         * @return whether the results of the mapper only depend on the path and the HTTP method
+         */
+        boolean isCacheable()
+        {
+            return this.cacheable;
+        }
+
+        /**
+         * @return whether the mapper is matched by templates, see {@link URLMapperTable#route(String)}
+         */
+        boolean isTemplate()
+        {
+            return this.template;
+        }
+
+        /**
+         * @return whether the mapper has no regex, in which case it handles any path
+         */
+        boolean isCatchAll()
+        {
+            return this.regexes.length == 0;
+        }
+
+        /**
+         * @param path the path to match
+         * @return the matcher of the first regex of the mapper matching the path, or null if there is none
+         */
+        Matcher match(String path)
+        {
+            if (this.matchers == null) {
+                for (Pattern regex : this.regexes) {
+                    Matcher m = regex.matcher(path);
+                    if (m.matches()) {
+                        return m;
+                    }
+                }
+                return null;
+            }
+
+            Matcher[] threadMatchers = this.matchers.get();
+            for (int i = 0; i < this.regexes.length; i++) {
+                Matcher m = threadMatchers[i];
+                if (m == null) {
+                    m = this.regexes[i].matcher(path);
+                } else {
+                    m.reset(path);
+                }
+
+                if (m.matches()) {
+                    // The matcher is handed to the mapper, which may keep it: it is not reused
+                    threadMatchers[i] = null;
+                    return m;
+                }
+                threadMatchers[i] = m;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * @param mappers the mappers of the handler, in declaration order
+     * @param configuration the configuration to bind to the mappers which don't have one yet, which also tells which
+     *     optional structures to build when it is a {@link DefaultURLMappingConfiguration}
+     */
+    URLMapperTable(URLMapper[] mappers, URLMappingConfiguration configuration)
+    {
+        DefaultURLMappingConfiguration options = configuration instanceof DefaultURLMappingConfiguration
+            ? (DefaultURLMappingConfiguration) configuration
+            : null;
+        boolean reuseMatchers = options != null && options.isMatcherReuseEnabled();
+
+        URLMapper[] frozen = mappers == null ? new URLMapper[0] : mappers.clone();
+        this.entries = new Entry[frozen.length];
+        URLMappingSpecification[] specifications = new URLMappingSpecification[frozen.length];
+        for (int i = 0; i < frozen.length; i++) {
+            bind(frozen[i], configuration);
+            specifications[i] = frozen[i].getSpecification();
+            this.entries[i] = new Entry(i, frozen[i], specifications[i], reuseMatchers);
+        }
+
+        this.matcher = options != null && options.isCompiledDispatchEnabled()
+            ? new MultiPatternURLMatcher(specifications, reuseMatchers)
+            : null;
+        this.prefilter = options != null && options.isLiteralPrefilterEnabled()
+            ? new LiteralPrefilter(specifications)
+            : null;
+        this.unmatchedPaths = options != null && options.isUnmatchedPathCacheEnabled()
+            ? new UnmatchedPathCache(options.getUnmatchedPathCacheSize())
+            : null;
+        this.router = Arrays.stream(this.entries).anyMatch(Entry::isTemplate)
+            ? new SegmentTrieRouter(specifications)
+            : null;
+
+        boolean[] independent = new boolean[this.entries.length];
+        for (int i = 0; i < this.entries.length; i++) {
+            independent[i] = this.entries[i].independent;
+        }
+        this.adaptiveOrder = options != null && options.isAdaptiveOrderingEnabled()
+            ? new AdaptiveMapperOrder(independent, options.getAdaptiveOrderingInterval())
+            : null;
+        this.candidates = new Candidates(this.entries, IntStream.range(0, this.entries.length).toArray());
+    }
+
+    private static void bind(URLMapper mapper, URLMappingConfiguration configuration)
+    {
+        if (mapper instanceof AbstractURLMapper) {
+            AbstractURLMapper m = (AbstractURLMapper) mapper;
+            if (m.getConfiguration() == null) {
+                m.setConfiguration(configuration);
+            }
+        }
+    }
+
+    /**
+     * Removes the given configuration from the mappers it was bound to, so that they get the new configuration of
+     * the handler when the table is rebuilt.
+     *
+     * @param configuration the configuration the table was built with
+     */
+    void unbind(URLMappingConfiguration configuration)
+    {
+        for (Entry entry : this.entries) {
+            if (entry.mapper instanceof AbstractURLMapper) {
+                AbstractURLMapper m = (AbstractURLMapper) entry.mapper;
+                if (m.getConfiguration() == configuration) {
+                    m.setConfiguration(null);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the number of mappers
+     */
+    int size()
+    {
+        return this.entries.length;
+    }
+
+    /**
+     * @param method the HTTP method of the request
+     * @return the indexes of the mappers handling this method, in the order they should be tried. The returned array
+     *     must not be modified.
+     */
+    int[] getCandidates(String method)
+    {
+        Candidates current = this.candidates;
+        int[] methodCandidates = current.byMethod.get(method);
+        return methodCandidates == null ? current.wildcard : methodCandidates;
+    }
+
+    /**
+     * Counts a conversion for the adaptive ordering of the mappers, and reorders them if it is time to.
+     *
+     * @param entry the mapper which converted a path
+     */
+    void recordHit(Entry entry)
+    {
+        if (this.adaptiveOrder != null) {
+            this.adaptiveOrder.recordHit(entry.index);
+            int[] order = this.adaptiveOrder.reorderIfDue();
+            if (order != null) {
+                this.candidates = new Candidates(this.entries, order);
+            }
+        }
+    }
+
+    /**
+     * @return the mappers, in the order they are currently tried
+     */
+    List<URLMapper> getEffectiveOrder()
+    {
+        List<URLMapper> mappers = new ArrayList<>(this.entries.length);
+        for (int i : this.candidates.order) {
+            mappers.add(this.entries[i].mapper);
+        }
+        return mappers;
+    }
+
+    /**
+     * @param index the index of the mapper, in declaration order
+     * @return the mapper entry
+     */
+    Entry get(int index)
+    {
+        return this.entries[index];
+    }
+
+    /**
+     * @param path the path to match
+     * @return the index of the first mapper found to match the path by the combined regex, see
+     *     {@link MultiPatternURLMatcher#firstMatch(String)}, or 0 if the regexes are not combined
+     */
+    int firstMatch(String path)
+    {
+        return this.matcher == null ? 0 : this.matcher.firstMatch(path);
+    }
+
+    /**
+     * @param path the path to scan
+     * @return the literals found in the path, or null if the literals are not indexed
+     */
+    BitSet scanLiterals(String path)
+    {
+        return this.prefilter == null ? null : this.prefilter.scan(path);
+    }
+
+    /**
+     * @param mapperIndex the index of the mapper
+     * @param firstMatch the result of {@link #firstMatch(String)}
+     * @param literals the result of {@link #scanLiterals(String)}
+     * @return true if the mapper at the given index cannot match the path
+     */
+    boolean cannotMatch(int mapperIndex, int firstMatch, BitSet literals)
+    {
+        return (mapperIndex < firstMatch && this.matcher.isCompiled(mapperIndex))
+            || (literals != null && !this.prefilter.mayMatch(literals, mapperIndex));
+    }
+
+    /**
+     * @param path the path to match
+     * @return for each mapper, the first of its templates matching the path, see
+     *     {@link SegmentTrieRouter#route(String)}, or null if no mapper has templates
+     */
+    SegmentTrieRouter.Route[] route(String path)
+    {
+        return this.router == null ? null : this.router.route(path);
+    }
+
+    /**
+     * @return the paths matching no mapper of the table, or null if they are not remembered
+     */
+    UnmatchedPathCache getUnmatchedPaths()
+    {
+        return this.unmatchedPaths;
+    }
+}
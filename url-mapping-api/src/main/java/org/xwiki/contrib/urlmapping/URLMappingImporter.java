@@ -0,0 +1,73 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.urlmapping;
+
+import java.nio.file.Path;
+
+import org.xwiki.component.annotation.Role;
+import org.xwiki.stability.Unstable;
+
+/**
+ * Imports large mapping datasets into static mapping table files, to be used by a {@link StaticTableURLMapper}.
+ * <p>
+ * The dataset is read record by record and sorted on disk, so that sorting it uses a bounded amount of memory.
+ * Building the table still needs a few bytes of memory per mapping (see {@link StaticMappingTableBuilder}), which
+ * implementations account for in their memory limits. The progress of the import is reported through the job
+ * progress of the current job, if any. If the import is interrupted, importing the same dataset into the same table
+ * again resumes it.
+ *
+ * @version $Id$
+ * @since 0.0.7
+ */
+@Unstable
+@Role
+public interface URLMappingImporter
+{
+    /**
+     * The formats of the mapping datasets.
+     */
+    enum Format
+    {
+        /**
+         * Comma separated values: each line has the path and the target, optionally quoted. A first line made of the
+         * {@code path} and {@code target} headers is ignored.
+         */
+        CSV,
+
+        /**
+         * JSON lines: each line is an object with the {@code path} and {@code target} string properties.
+         */
+        JSON_LINES
+    }
+
+    /**
+     * Imports a mapping dataset into a static mapping table file. The paths are normalized to be relative to the
+     * prefix of the handler, and the invalid records are skipped. When a path has several records, the last one is
+     * kept.
+     *
+     * @param source the dataset file
+     * @param format the format of the dataset
+     * @param target the static mapping table file to write, replaced atomically if it exists
+     * @return the number of mappings of the table
+     * @throws URLMappingException if the dataset could not be read, the table could not be written, or building it
+     *     would exceed the memory limits of the implementation
+     */
+    int importMappings(Path source, Format format, Path target) throws URLMappingException;
+}
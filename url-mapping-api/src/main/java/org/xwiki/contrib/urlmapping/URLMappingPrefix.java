@@ -0,0 +1,50 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.urlmapping;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+import org.xwiki.stability.Unstable;
+
+/**
+ * Declares the prefix of a {@link URLMappingPrefixHandler} implementation, used when no prefix is configured with
+ * {@code urlmapping.prefixhandlers.<hint>.prefix}.
+ * <p>
+ * Handlers whose prefix is configured or declared with this annotation are only instantiated when a URL with their
+ * prefix is requested. The others are instantiated at startup to get their prefix.
+ *
+ * @version $Id$
+ * @since 0.0.7
+ */
+@Unstable
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface URLMappingPrefix
+{
+    /**
+     * @return the prefix of the handler, which may have several segments separated by slashes
+     */
+    String value();
+}
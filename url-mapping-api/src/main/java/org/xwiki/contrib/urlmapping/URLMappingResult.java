@@ -61,4 +61,14 @@ public interface URLMappingResult
      * @return the configuration
      */
     URLMappingConfiguration getConfiguration();
+
+    /**
+     * @return the Cache-Control header to send with the redirect, whatever its status. null to use the policy
+     *     configured for the permanent redirects of the handler, empty to send no caching header.
+     * @since 0.0.7
+     */
+    default String getCacheControl()
+    {
+        return null;
+    }
 }
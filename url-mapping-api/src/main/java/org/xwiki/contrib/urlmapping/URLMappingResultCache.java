@@ -0,0 +1,133 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.urlmapping;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheException;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.LRUCacheConfiguration;
+
+/**
+ * The results of the cacheable mappers of a prefix handler, keyed by path and HTTP method, with hit and miss counters.
+ * <p>
+ * Each instance of a handler, in each wiki, and each generation of its configuration gets its own underlying cache,
+ * whose name is made unique by a counter: the named caches of a cache manager shared by several handlers, or by the
+ * retired and the current generations of a handler, would otherwise be shared or disposed together.
+ *
+ * @version $Id$
+ * @since 0.0.7
+ */
+final class URLMappingResultCache
+{
+    private static final AtomicLong INSTANCES = new AtomicLong();
+
+    private final Cache<URLMappingResult> cache;
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param cache the underlying cache, which is responsible for the eviction of the results
+     */
+    URLMappingResultCache(Cache<URLMappingResult> cache)
+    {
+        this.cache = cache;
+    }
+
+    /**
+     * @param cacheManager the cache manager to create the underlying cache with
+     * @param hint the hint of the prefix handler
+     * @param configuration the configuration of the prefix handler
+     * @return a result cache bounded according to the configuration
+     * @throws CacheException if the underlying cache could not be created
+     */
+    static URLMappingResultCache create(CacheManager cacheManager, String hint,
+        DefaultURLMappingConfiguration configuration) throws CacheException
+    {
+        LRUCacheConfiguration cacheConfiguration =
+            new LRUCacheConfiguration("urlmapping.results." + hint + '.' + INSTANCES.incrementAndGet(),
+                configuration.getResultCacheSize());
+        cacheConfiguration.getLRUEvictionConfiguration().setLifespan(configuration.getResultCacheLifespan());
+        Cache<URLMappingResult> cache = cacheManager.createNewCache(cacheConfiguration);
+        return new URLMappingResultCache(cache);
+    }
+
+    /**
+     * @param path the converted path
+     * @param method the HTTP method of the request
+     * @return the cached result, or null if there is none
+     */
+    URLMappingResult get(String path, String method)
+    {
+        URLMappingResult result = this.cache.get(getKey(path, method));
+        if (result == null) {
+            this.misses.increment();
+        } else {
+            this.hits.increment();
+        }
+        return result;
+    }
+
+    /**
+     * @param path the converted path
+     * @param method the HTTP method of the request
+     * @param result the result of the conversion
+     */
+    void put(String path, String method, URLMappingResult result)
+    {
+        this.cache.set(getKey(path, method), result);
+    }
+
+    /**
+     * Removes all the cached results.
+     */
+    void flush()
+    {
+        this.cache.removeAll();
+    }
+
+    /**
+     * Releases the underlying cache.
+     */
+    void dispose()
+    {
+        this.cache.dispose();
+    }
+
+    long getHitCount()
+    {
+        return this.hits.sum();
+    }
+
+    long getMissCount()
+    {
+        return this.misses.sum();
+    }
+
+    private static String getKey(String path, String method)
+    {
+        // HTTP methods don't contain spaces, so the key is not ambiguous
+        return method + ' ' + path;
+    }
+}
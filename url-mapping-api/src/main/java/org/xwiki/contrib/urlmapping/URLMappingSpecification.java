@@ -45,4 +45,25 @@ public interface URLMappingSpecification
      * https://xwiki.example.org/xwiki/mapped-url/mylink?id=42, /mylink?id=42 will be matched).
      */
     Pattern[] getRegexes();
+
+    /**
+     * @return whether the results of the converter only depend on the path and the HTTP method of the request, and
+     *     not on its headers, cookies or other parameters, so they can be reused for other requests with the same path
+     *     and method
+     * @since 0.0.7
+     */
+    default boolean isCacheable()
+    {
+        return false;
+    }
+
+    /**
+     * @return whether no path matched by the converter can be matched by the other converters of the handler, so that
+     *     the handler may try the converter before or after them without changing the result
+     * @since 0.0.7
+     */
+    default boolean isIndependent()
+    {
+        return false;
+    }
 }
@@ -0,0 +1,244 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.urlmapping;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The recently requested paths that no mapper of a prefix handler could match, keyed by path and HTTP method.
+ * <p>
+ * The paths are kept in a bounded LRU map, fronted by a Bloom filter so that the paths which were never recorded,
+ * which are most of the paths of a handler which does its job, are rejected without taking the lock of the map. A
+ * path is only reported as unmatched when it is actually in the map, so false positives of the Bloom filter only cost
+ * a map lookup. The Bloom filter is rebuilt from the map when too many paths were recorded since it was last built.
+ *
+ * @version $Id$
+ * @since 0.0.7
+ */
+final class UnmatchedPathCache
+{
+    private static final int BITS_PER_ENTRY = 10;
+
+    private static final int HASH_FUNCTIONS = 7;
+
+    /**
+     * The number of paths the Bloom filter is sized for, relative to the capacity of the map: past this, it is
+     * rebuilt.
+     */
+    private static final int BLOOM_CAPACITY_FACTOR = 2;
+
+    /**
+     * Rough size in bytes of a map entry and of a string, without its characters.
+     */
+    private static final int ENTRY_OVERHEAD = 80;
+
+    private static final int LONG_BYTES = Long.BYTES;
+
+    private static final int MAP_INITIAL_CAPACITY = 16;
+
+    private static final float MAP_LOAD_FACTOR = 0.75F;
+
+    private static final int MIX_SHIFT_1 = 16;
+
+    private static final int MIX_SHIFT_2 = 13;
+
+    private static final int MIX_MULTIPLIER_1 = 0x85ebca6b;
+
+    private static final int MIX_MULTIPLIER_2 = 0xc2b2ae35;
+
+    private static final int LONG_BITS = Long.SIZE;
+
+    private final int capacity;
+
+    private final int bloomBits;
+
+    private final Map<String, Boolean> paths;
+
+    private volatile AtomicLongArray bloom;
+
+    // Guarded by the map
+    private int recordedSinceRebuild;
+
+    private long pathBytes;
+
+    /**
+     * @param capacity the maximum number of paths to remember
+     */
+    UnmatchedPathCache(int capacity)
+    {
+        this.capacity = Math.max(1, capacity);
+        long bits = (long) this.capacity * BLOOM_CAPACITY_FACTOR * BITS_PER_ENTRY;
+        this.bloomBits = (int) Math.min(Integer.MAX_VALUE - LONG_BITS, bits);
+        this.bloom = newBloom();
+        this.paths = new LinkedHashMap<>(MAP_INITIAL_CAPACITY, MAP_LOAD_FACTOR, true)
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest)
+            {
+                boolean remove = size() > UnmatchedPathCache.this.capacity;
+                if (remove) {
+                    UnmatchedPathCache.this.pathBytes -= getBytes(eldest.getKey());
+                }
+                return remove;
+            }
+        };
+    }
+
+    /**
+     * @param path the path to convert
+     * @param method the HTTP method of the request
+     * @return whether the path was recorded as unmatched for this method
+     */
+    boolean contains(String path, String method)
+    {
+        String key = getKey(path, method);
+        if (!mightContain(this.bloom, key)) {
+            return false;
+        }
+
+        synchronized (this.paths) {
+            return this.paths.get(key) != null;
+        }
+    }
+
+    /**
+     * @param path the path that no mapper could match
+     * @param method the HTTP method of the request
+     */
+    void add(String path, String method)
+    {
+        String key = getKey(path, method);
+        synchronized (this.paths) {
+            if (this.paths.put(key, Boolean.TRUE) != null) {
+                return;
+            }
+
+            this.pathBytes += getBytes(key);
+            if (++this.recordedSinceRebuild > this.capacity * BLOOM_CAPACITY_FACTOR) {
+                // most of the paths of the Bloom filter have been evicted from the map: start over
+                AtomicLongArray rebuilt = newBloom();
+                for (String recorded : this.paths.keySet()) {
+                    put(rebuilt, recorded);
+                }
+                this.bloom = rebuilt;
+                this.recordedSinceRebuild = this.paths.size();
+            } else {
+                put(this.bloom, key);
+            }
+        }
+    }
+
+    /**
+     * Forgets all the recorded paths.
+     */
+    void clear()
+    {
+        synchronized (this.paths) {
+            this.paths.clear();
+            this.bloom = newBloom();
+            this.recordedSinceRebuild = 0;
+            this.pathBytes = 0;
+        }
+    }
+
+    /**
+     * @return the estimated probability that the Bloom filter reports a path which was not recorded, computed from
+     *     the proportion of its bits which are set
+     */
+    double getFalsePositiveRate()
+    {
+        AtomicLongArray bits = this.bloom;
+        long set = 0;
+        for (int i = 0; i < bits.length(); i++) {
+            set += Long.bitCount(bits.get(i));
+        }
+        return Math.pow((double) set / this.bloomBits, HASH_FUNCTIONS);
+    }
+
+    /**
+     * @return the estimated memory used by the Bloom filter and the recorded paths, in bytes
+     */
+    long getMemoryUsage()
+    {
+        synchronized (this.paths) {
+            return (long) this.bloom.length() * LONG_BYTES + this.pathBytes;
+        }
+    }
+
+    private AtomicLongArray newBloom()
+    {
+        return new AtomicLongArray((this.bloomBits + LONG_BITS - 1) / LONG_BITS);
+    }
+
+    private void put(AtomicLongArray bits, String key)
+    {
+        int h1 = key.hashCode();
+        int h2 = mix(h1);
+        for (int i = 0; i < HASH_FUNCTIONS; i++) {
+            int bit = Math.floorMod(h1 + i * h2, this.bloomBits);
+            int word = bit / LONG_BITS;
+            long mask = 1L << (bit % LONG_BITS);
+            bits.getAndAccumulate(word, mask, (current, m) -> current | m);
+        }
+    }
+
+    private boolean mightContain(AtomicLongArray bits, String key)
+    {
+        int h1 = key.hashCode();
+        int h2 = mix(h1);
+        for (int i = 0; i < HASH_FUNCTIONS; i++) {
+            int bit = Math.floorMod(h1 + i * h2, this.bloomBits);
+            if ((bits.get(bit / LONG_BITS) & (1L << (bit % LONG_BITS))) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return a second hash derived from the first one (finalizer of MurmurHash3), odd so that all the bits can be
+     *     reached
+     */
+    private static int mix(int hash)
+    {
+        int h = hash;
+        h ^= h >>> MIX_SHIFT_1;
+        h *= MIX_MULTIPLIER_1;
+        h ^= h >>> MIX_SHIFT_2;
+        h *= MIX_MULTIPLIER_2;
+        h ^= h >>> MIX_SHIFT_1;
+        return h | 1;
+    }
+
+    private static long getBytes(String key)
+    {
+        return ENTRY_OVERHEAD + (long) Character.BYTES * key.length();
+    }
+
+    private static String getKey(String path, String method)
+    {
+        // HTTP methods don't contain spaces, so the key is not ambiguous
+        return method + ' ' + path;
+    }
+}
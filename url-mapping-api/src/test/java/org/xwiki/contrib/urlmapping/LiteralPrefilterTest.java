@@ -0,0 +1,99 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.urlmapping;
+
+import java.util.BitSet;
+import java.util.regex.Pattern;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for {@link LiteralPrefilter}.
+ *
+ * @version $Id$
+ */
+class LiteralPrefilterTest
+{
+    private static final int PREFIX = 0;
+
+    private static final int SUBSTRING = 1;
+
+    private static final int NO_REGEX = 2;
+
+    private static final int ALTERNATION = 3;
+
+    private static final int SEVERAL_REGEXES = 4;
+
+    private static final int CASE_INSENSITIVE = 5;
+
+    private final LiteralPrefilter prefilter = new LiteralPrefilter(new URLMappingSpecification[] {
+        new DefaultURLMappingSpecification("^blog/[0-9]+$"),
+        new DefaultURLMappingSpecification(".*/archive/.*"),
+        new DefaultURLMappingSpecification(),
+        new DefaultURLMappingSpecification("news|events"),
+        new DefaultURLMappingSpecification("news/.*", ".*events.*"),
+        new DefaultURLMappingSpecification(Pattern.compile("blog/.*", Pattern.CASE_INSENSITIVE))
+    });
+
+    @Test
+    void mayMatchPrefix()
+    {
+        assertTrue(mayMatch("blog/42", PREFIX));
+        assertFalse(mayMatch("blog", PREFIX));
+        assertFalse(mayMatch("my/blog/42", PREFIX));
+        assertFalse(mayMatch("", PREFIX));
+    }
+
+    @Test
+    void mayMatchSubstring()
+    {
+        assertTrue(mayMatch("2019/archive/page", SUBSTRING));
+        assertTrue(mayMatch("/archive/", SUBSTRING));
+        assertFalse(mayMatch("2019/archives", SUBSTRING));
+        assertFalse(mayMatch("archive/page", SUBSTRING));
+    }
+
+    @Test
+    void mayMatchAnyRegex()
+    {
+        assertTrue(mayMatch("news/1", SEVERAL_REGEXES));
+        assertTrue(mayMatch("my/events", SEVERAL_REGEXES));
+        assertFalse(mayMatch("my/news", SEVERAL_REGEXES));
+    }
+
+    @Test
+    void alwaysMayMatchWithoutLiterals()
+    {
+        for (String path : new String[] { "", "blog/42", "other" }) {
+            assertTrue(mayMatch(path, NO_REGEX));
+            assertTrue(mayMatch(path, ALTERNATION));
+            assertTrue(mayMatch(path, CASE_INSENSITIVE));
+        }
+    }
+
+    private boolean mayMatch(String path, int mapperIndex)
+    {
+        BitSet found = this.prefilter.scan(path);
+        return this.prefilter.mayMatch(found, mapperIndex);
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.urlmapping;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+import java.util.regex.Matcher;
+
+import org.xwiki.resource.ResourceReference;
+
+import com.sun.management.ThreadMXBean;
+
+/**
+ * Compares the allocation rate and the time of the regex matching of the mappers with and without matcher reuse (see
+ * {@link DefaultURLMappingConfiguration#isMatcherReuseEnabled()}), measuring the bytes allocated by the current thread.
+ * Most paths match no mapper, like on a wiki where the handlers only convert a few legacy URLs. It's not run by the
+ * build, run it with:
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.mainClass=org.xwiki.contrib.urlmapping.MatcherReuseBenchmark \
+ *   -Dexec.classpathScope=test
+ * </pre>
+ *
+ * @version $Id$
+ */
+public final class MatcherReuseBenchmark
+{
+    private static final int MAPPERS = 30;
+
+    private static final int PATHS = 1_000_000;
+
+    // one path in this number matches a mapper
+    private static final int HIT_RATE = 20;
+
+    private static final int WARM_UP_ROUNDS = 3;
+
+    private static final int MEASURED_ROUNDS = 5;
+
+    private static final long SEED = 42;
+
+    private MatcherReuseBenchmark()
+    {
+    }
+
+    /**
+     * @param args unused
+     */
+    public static void main(String[] args)
+    {
+        ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        String[] paths = getPaths();
+        for (boolean reuse : new boolean[] { false, true }) {
+            URLMapperTable.Entry[] entries = new URLMapperTable.Entry[MAPPERS];
+            for (int i = 0; i < MAPPERS; i++) {
+                Mapper mapper = new Mapper(i);
+                entries[i] = new URLMapperTable.Entry(i, mapper, mapper.getSpecification(), reuse);
+            }
+
+            for (int round = 0; round < WARM_UP_ROUNDS; round++) {
+                match(entries, paths);
+            }
+            long bestTime = Long.MAX_VALUE;
+            long bestBytes = Long.MAX_VALUE;
+            int matches = 0;
+            for (int round = 0; round < MEASURED_ROUNDS; round++) {
+                long bytes = threads.getCurrentThreadAllocatedBytes();
+                long start = System.nanoTime();
+                matches = match(entries, paths);
+                bestTime = Math.min(bestTime, System.nanoTime() - start);
+                bestBytes = Math.min(bestBytes, threads.getCurrentThreadAllocatedBytes() - bytes);
+            }
+
+            System.out.printf("matcher reuse %-5s: %,8.1f bytes per path, %,8.1f ns per path, %,d matches%n", reuse,
+                (double) bestBytes / PATHS, (double) bestTime / PATHS, matches);
+        }
+    }
+
+    private static String[] getPaths()
+    {
+        Random random = new Random(SEED);
+        String[] paths = new String[PATHS];
+        for (int i = 0; i < PATHS; i++) {
+            paths[i] = random.nextInt(HIT_RATE) == 0
+                ? String.format("legacy%d/view/Page%d", random.nextInt(MAPPERS), i)
+                : String.format("Space%d/Page%d", random.nextInt(MAPPERS), i);
+        }
+        return paths;
+    }
+
+    private static int match(URLMapperTable.Entry[] entries, String[] paths)
+    {
+        int matches = 0;
+        for (String path : paths) {
+            for (URLMapperTable.Entry entry : entries) {
+                Matcher matcher = entry.match(path);
+                if (matcher != null) {
+                    matches++;
+                    break;
+                }
+            }
+        }
+        return matches;
+    }
+
+    private static final class Mapper extends AbstractURLMapper
+    {
+        Mapper(int index)
+        {
+            super("^legacy" + index + "/view/(.*)$");
+        }
+
+        @Override
+        public ResourceReference convert(DefaultURLMappingMatch match)
+        {
+            return null;
+        }
+    }
+}
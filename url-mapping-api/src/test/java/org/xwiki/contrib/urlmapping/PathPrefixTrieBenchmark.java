@@ -0,0 +1,112 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.urlmapping;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times {@link PathPrefixTrie#getLongestPrefix(String)} for growing numbers of subtree rules, to check that the lookups
+ * don't depend on the number of rules. It's not run by the build, run it with:
+ *
+ * <pre>
+ * mvn test-compile exec:java -Dexec.mainClass=org.xwiki.contrib.urlmapping.PathPrefixTrieBenchmark \
+ *   -Dexec.classpathScope=test
+ * </pre>
+ *
+ * @version $Id$
+ */
+public final class PathPrefixTrieBenchmark
+{
+    private static final int[] RULE_COUNTS = { 1_000, 10_000, 100_000, 1_000_000 };
+
+    private static final int LOOKUPS = 1_000_000;
+
+    private static final int WARM_UP_ROUNDS = 3;
+
+    private static final int MEASURED_ROUNDS = 5;
+
+    private static final int SPACES = 100;
+
+    private static final long SEED = 42;
+
+    private PathPrefixTrieBenchmark()
+    {
+    }
+
+    /**
+     * @param args unused
+     */
+    public static void main(String[] args)
+    {
+        for (int ruleCount : RULE_COUNTS) {
+            run(ruleCount);
+        }
+    }
+
+    private static void run(int ruleCount)
+    {
+        Random random = new Random(SEED);
+        Map<String, String> rules = new HashMap<>(ruleCount * 2);
+        String[] prefixes = new String[ruleCount];
+        for (int i = 0; i < ruleCount; i++) {
+            prefixes[i] = String.format("display/SPACE%d/Archive/%d", random.nextInt(SPACES), i);
+            rules.put(prefixes[i], "/archive/" + i);
+        }
+
+        long start = System.nanoTime();
+        PathPrefixTrie trie = PathPrefixTrie.build(rules);
+        long buildTime = System.nanoTime() - start;
+
+        // half of the paths are under a rule, the other half only share the first segments of the rules
+        String[] paths = new String[LOOKUPS];
+        for (int i = 0; i < LOOKUPS; i++) {
+            String prefix = prefixes[random.nextInt(ruleCount)];
+            paths[i] = i % 2 == 0 ? prefix + "/Page" + i : prefix + "x/Page" + i;
+        }
+
+        for (int round = 0; round < WARM_UP_ROUNDS; round++) {
+            lookUp(trie, paths);
+        }
+        long best = Long.MAX_VALUE;
+        int matches = 0;
+        for (int round = 0; round < MEASURED_ROUNDS; round++) {
+            start = System.nanoTime();
+            matches = lookUp(trie, paths);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+
+        System.out.printf("%,9d rules: built in %,d ms, %,.1f ns per lookup, %,d matches%n", ruleCount,
+            TimeUnit.NANOSECONDS.toMillis(buildTime), (double) best / LOOKUPS, matches);
+    }
+
+    private static int lookUp(PathPrefixTrie trie, String[] paths)
+    {
+        int matches = 0;
+        for (String path : paths) {
+            if (trie.getLongestPrefix(path) != null) {
+                matches++;
+            }
+        }
+        return matches;
+    }
+}
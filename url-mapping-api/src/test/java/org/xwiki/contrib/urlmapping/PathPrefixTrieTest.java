@@ -0,0 +1,104 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.urlmapping;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Unit tests for {@link PathPrefixTrie}.
+ *
+ * @version $Id$
+ */
+class PathPrefixTrieTest
+{
+    private static void assertMatch(String value, String remainder, PathPrefixTrie.Match match)
+    {
+        assertEquals(value, match.getValue());
+        assertEquals(remainder, match.getRemainder());
+    }
+
+    @Test
+    void getLongestPrefix()
+    {
+        PathPrefixTrie trie = PathPrefixTrie.build(Map.of("a", "A", "a/b", "AB", "/c/d/", "CD"));
+
+        assertEquals(3, trie.size());
+        assertMatch("A", "", trie.getLongestPrefix("a"));
+        assertMatch("AB", "", trie.getLongestPrefix("a/b"));
+        assertMatch("AB", "c/d", trie.getLongestPrefix("/a/b/c/d/"));
+        assertMatch("A", "c", trie.getLongestPrefix("a/c"));
+        assertMatch("CD", "e", trie.getLongestPrefix("c/d/e"));
+        assertNull(trie.getLongestPrefix("c"));
+        assertNull(trie.getLongestPrefix("b"));
+    }
+
+    @Test
+    void getLongestPrefixWithLabelSplitInsideSegment()
+    {
+        PathPrefixTrie trie = PathPrefixTrie.build(Map.of("a/bc", "BC", "a/bd", "BD"));
+
+        // the edge "a/b" is shared by both prefixes, and is not a prefix itself
+        assertNull(trie.getLongestPrefix("a/bx"));
+        assertNull(trie.getLongestPrefix("a/b"));
+        assertNull(trie.getLongestPrefix("a/b/c"));
+        assertNull(trie.getLongestPrefix("a/bcd"));
+        assertMatch("BC", "", trie.getLongestPrefix("a/bc"));
+        assertMatch("BD", "x", trie.getLongestPrefix("a/bd/x"));
+    }
+
+    @Test
+    void getLongestPrefixWithEmptyPrefix()
+    {
+        PathPrefixTrie trie = PathPrefixTrie.build(Map.of("", "ROOT", "a", "A"));
+
+        assertMatch("ROOT", "", trie.getLongestPrefix(""));
+        assertMatch("ROOT", "", trie.getLongestPrefix("/"));
+        assertMatch("ROOT", "b/c", trie.getLongestPrefix("b/c"));
+        assertMatch("A", "b", trie.getLongestPrefix("a/b"));
+    }
+
+    @Test
+    void buildWithEqualNormalizedPrefixes()
+    {
+        Map<String, String> prefixes = new LinkedHashMap<>();
+        prefixes.put("/a/", "first");
+        prefixes.put("a", "last");
+        PathPrefixTrie trie = PathPrefixTrie.build(prefixes);
+
+        assertEquals(1, trie.size());
+        assertMatch("last", "b", trie.getLongestPrefix("a/b"));
+    }
+
+    @Test
+    void buildEmpty()
+    {
+        PathPrefixTrie trie = PathPrefixTrie.build(Map.of());
+
+        assertEquals(0, trie.size());
+        assertNull(trie.getLongestPrefix("a"));
+        assertNull(trie.getLongestPrefix(""));
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.urlmapping;
+
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for {@link PathTemplate}.
+ *
+ * @version $Id$
+ */
+class PathTemplateTest
+{
+    private static void assertInvalid(String template, String message)
+    {
+        IllegalArgumentException exception =
+            assertThrows(IllegalArgumentException.class, () -> PathTemplate.parse(template));
+        assertTrue(exception.getMessage().contains(message), exception.getMessage());
+    }
+
+    @Test
+    void parse()
+    {
+        PathTemplate template = PathTemplate.parse("display/{space}/{id:int}/{rest:path}");
+
+        assertEquals("display/{space}/{id:int}/{rest:path}", template.getTemplate());
+        assertEquals(List.of(PathTemplate.SegmentType.LITERAL, PathTemplate.SegmentType.STRING,
+            PathTemplate.SegmentType.INT, PathTemplate.SegmentType.PATH),
+            template.getSegments().stream().map(PathTemplate.Segment::getType).collect(Collectors.toList()));
+        assertEquals(List.of("display", "space", "id", "rest"),
+            template.getSegments().stream().map(PathTemplate.Segment::getValue).collect(Collectors.toList()));
+    }
+
+    @Test
+    void getRegex()
+    {
+        PathTemplate template = PathTemplate.parse("display/{space:string}/{id:int}/{rest:path}");
+
+        Matcher matcher = template.getRegex().matcher("display/Main/42/a/b");
+        assertTrue(matcher.matches());
+        assertEquals("Main", matcher.group("space"));
+        assertEquals("42", matcher.group("id"));
+        assertEquals("a/b", matcher.group("rest"));
+
+        assertTrue(template.getRegex().matcher("display/Main/42/").matches());
+        assertFalse(template.getRegex().matcher("display/Main/42").matches());
+        assertFalse(template.getRegex().matcher("display/Main/x42/a").matches());
+        assertFalse(template.getRegex().matcher("display//42/a").matches());
+    }
+
+    @Test
+    void getRegexQuotesLiterals()
+    {
+        PathTemplate template = PathTemplate.parse("a.b/(c)/{page}");
+
+        assertTrue(template.getRegex().matcher("a.b/(c)/Page").matches());
+        assertFalse(template.getRegex().matcher("axb/(c)/Page").matches());
+    }
+
+    @Test
+    void parseWithEmptySegments()
+    {
+        PathTemplate template = PathTemplate.parse("a//{page}/");
+
+        assertEquals(4, template.getSegments().size());
+        assertTrue(template.getRegex().matcher("a//Page/").matches());
+        assertFalse(template.getRegex().matcher("a/Page").matches());
+    }
+
+    @Test
+    void parseInvalid()
+    {
+        assertInvalid("a/{rest:path}/b", "Only the last segment");
+        assertInvalid("{page}/{page}", "used twice");
+        assertInvalid("a/{page:int}/{page:path}", "used twice");
+        assertInvalid("a/x{page}", "whole segments");
+        assertInvalid("a/{page}x", "whole segments");
+        assertInvalid("a/{page", "whole segments");
+        assertInvalid("a/page}", "whole segments");
+        assertInvalid("a/{{page}}", "whole segments");
+        assertInvalid("a/{1page}", "Invalid placeholder name [1page]");
+        assertInvalid("a/{}", "Invalid placeholder name []");
+        assertInvalid("a/{page:float}", "Unknown placeholder type [float]");
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.urlmapping;
+
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Unit tests for {@link SegmentTrieRouter}.
+ *
+ * @version $Id$
+ */
+class SegmentTrieRouterTest
+{
+    private final SegmentTrieRouter router = new SegmentTrieRouter(new URLMappingSpecification[] {
+        new TemplateURLMappingSpecification("display/{space}/{page}", "view/{page:path}"),
+        new TemplateURLMappingSpecification("display/{id:int}/{page}", "display/Main/{page}"),
+        new DefaultURLMappingSpecification("display/.*"),
+        new TemplateURLMappingSpecification("{rest:path}")
+    });
+
+    private static void assertRoute(String template, Map<String, String> variables, SegmentTrieRouter.Route route)
+    {
+        assertEquals(template, route.getTemplate().getTemplate());
+        assertEquals(variables, route.getVariables());
+    }
+
+    @Test
+    void route()
+    {
+        SegmentTrieRouter.Route[] routes = this.router.route("display/Sandbox/WebHome");
+
+        assertEquals(4, routes.length);
+        assertRoute("display/{space}/{page}", Map.of("space", "Sandbox", "page", "WebHome"), routes[0]);
+        assertNull(routes[1]);
+        // the mappers which are not template based are not routed
+        assertNull(routes[2]);
+        assertRoute("{rest:path}", Map.of("rest", "display/Sandbox/WebHome"), routes[3]);
+    }
+
+    @Test
+    void routeToFirstMatchingTemplateOfEachMapper()
+    {
+        SegmentTrieRouter.Route[] routes = this.router.route("display/Main/42");
+
+        assertRoute("display/{space}/{page}", Map.of("space", "Main", "page", "42"), routes[0]);
+        assertRoute("display/Main/{page}", Map.of("page", "42"), routes[1]);
+
+        routes = this.router.route("display/42/Main");
+        assertRoute("display/{id:int}/{page}", Map.of("id", "42", "page", "Main"), routes[1]);
+    }
+
+    @Test
+    void routeOverlappingTemplates()
+    {
+        SegmentTrieRouter overlapping = new SegmentTrieRouter(new URLMappingSpecification[] {
+            new TemplateURLMappingSpecification("a/b/c", "{x}/{y}/{z}", "a/{y:int}/{z}"),
+            new TemplateURLMappingSpecification("{x}/1/c", "a/{y}/c", "a/1/{z}")
+        });
+
+        // the literal branches are walked first, but they don't hide the earlier templates of the other branches
+        SegmentTrieRouter.Route[] routes = overlapping.route("a/1/c");
+        assertRoute("{x}/{y}/{z}", Map.of("x", "a", "y", "1", "z", "c"), routes[0]);
+        assertRoute("{x}/1/c", Map.of("x", "a"), routes[1]);
+
+        routes = overlapping.route("a/b/c");
+        assertRoute("a/b/c", Map.of(), routes[0]);
+        assertRoute("a/{y}/c", Map.of("y", "b"), routes[1]);
+    }
+
+    @Test
+    void routePathPlaceholder()
+    {
+        SegmentTrieRouter.Route[] routes = this.router.route("view/a/b/c");
+        assertRoute("view/{page:path}", Map.of("page", "a/b/c"), routes[0]);
+
+        // the path placeholder may be empty, but the separator before it is required
+        routes = this.router.route("view/");
+        assertRoute("view/{page:path}", Map.of("page", ""), routes[0]);
+        routes = this.router.route("view");
+        assertNull(routes[0]);
+        assertRoute("{rest:path}", Map.of("rest", "view"), routes[3]);
+    }
+
+    @Test
+    void routeWithoutMatch()
+    {
+        SegmentTrieRouter.Route[] routes = this.router.route("display/Main");
+
+        assertNull(routes[0]);
+        assertNull(routes[1]);
+        assertNull(routes[2]);
+
+        // the string placeholders don't match empty segments
+        routes = this.router.route("display//WebHome");
+        assertNull(routes[0]);
+        assertNull(routes[1]);
+    }
+}
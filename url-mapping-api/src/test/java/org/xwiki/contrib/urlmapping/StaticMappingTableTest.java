@@ -0,0 +1,258 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.urlmapping;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for {@link StaticMappingTable} and {@link StaticMappingTableBuilder}.
+ *
+ * @version $Id$
+ */
+class StaticMappingTableTest
+{
+    private static StaticMappingTable build(Path directory, List<String> lines, int expectedCount) throws IOException
+    {
+        Path source = directory.resolve("mappings.txt");
+        Path table = directory.resolve("mappings.table");
+        Files.write(source, lines);
+        assertEquals(lines.stream().filter(line -> !line.isEmpty()).count(),
+            StaticMappingTableBuilder.build(source, table, expectedCount));
+        return StaticMappingTable.open(table);
+    }
+
+    private static void assertBuildFails(Path directory, List<String> lines, String message) throws IOException
+    {
+        Path source = directory.resolve("mappings.txt");
+        Path table = directory.resolve("mappings.table");
+        Files.write(source, lines);
+
+        IOException exception = assertThrows(IOException.class, () -> StaticMappingTableBuilder.build(source, table));
+        assertTrue(exception.getMessage().contains(message), exception.getMessage());
+        // neither the table nor the temporary files are left behind
+        try (Stream<Path> files = Files.list(directory)) {
+            assertEquals(List.of(source), files.collect(Collectors.toList()));
+        }
+    }
+
+    private static Path write(Path directory, int... ints) throws IOException
+    {
+        Path file = directory.resolve("corrupt.table");
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(file))) {
+            for (int i : ints) {
+                out.writeInt(i);
+            }
+        }
+        return file;
+    }
+
+    @Test
+    void get(@TempDir Path directory) throws Exception
+    {
+        StaticMappingTable table =
+            build(directory, List.of("", "a\t/a", "b/c\t/b/c", "", "z\t", "\u00e9t\u00e9\t/\u00e9t\u00e9"), 0);
+
+        assertEquals(4, table.size());
+        assertEquals("/a", table.get("a"));
+        assertEquals("/b/c", table.get("b/c"));
+        assertEquals("/\u00e9t\u00e9", table.get("\u00e9t\u00e9"));
+        assertEquals("", table.get("z"));
+        assertNull(table.get("b"));
+        assertNull(table.get("b/c/d"));
+        assertNull(table.get(""));
+    }
+
+    @Test
+    void getWithManyKeys(@TempDir Path directory) throws Exception
+    {
+        // more keys than the initial capacity of the builder, which grows
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < 10000; i++) {
+            lines.add(String.format("old/%05d\t/new/%d", i, i));
+        }
+        StaticMappingTable table = build(directory, lines, 0);
+
+        assertEquals(10000, table.size());
+        for (int i = 0; i < 10000; i++) {
+            assertEquals("/new/" + i, table.get(String.format("old/%05d", i)));
+        }
+        assertNull(table.get("old/10000"));
+        assertNull(table.get("old/1"));
+    }
+
+    @Test
+    void getWithExpectedCount(@TempDir Path directory) throws Exception
+    {
+        List<String> lines = List.of("a\t1", "b\t2", "c\t3");
+
+        StaticMappingTable table = build(directory, lines, 2);
+        assertEquals("3", table.get("c"));
+        table = build(directory, lines, 100);
+        assertEquals("1", table.get("a"));
+    }
+
+    @Test
+    void getEmpty(@TempDir Path directory) throws Exception
+    {
+        StaticMappingTable table = build(directory, List.of(), 0);
+
+        assertEquals(0, table.size());
+        assertNull(table.get("a"));
+    }
+
+    @Test
+    void buildUnsorted(@TempDir Path directory) throws Exception
+    {
+        assertBuildFails(directory, List.of("b\t/b", "a\t/a"), "Key [a] at line [2]");
+    }
+
+    @Test
+    void buildWithDuplicateKeys(@TempDir Path directory) throws Exception
+    {
+        assertBuildFails(directory, List.of("a\t/a", "", "a\t/b"), "Key [a] at line [3]");
+    }
+
+    @Test
+    void buildWithoutValue(@TempDir Path directory) throws Exception
+    {
+        assertBuildFails(directory, List.of("a\t/a", "b"), "Line [2]");
+    }
+
+    @Test
+    void buildReplacesTable(@TempDir Path directory) throws Exception
+    {
+        StaticMappingTable table = build(directory, List.of("a\t/a"), 0);
+        StaticMappingTable replaced = build(directory, List.of("a\t/b", "c\t/c"), 0);
+
+        // the table opened before keeps reading the file it was opened with
+        assertEquals("/a", table.get("a"));
+        assertEquals("/b", replaced.get("a"));
+        assertEquals(2, replaced.size());
+    }
+
+    @Test
+    void openWithWrongMagicNumber(@TempDir Path directory) throws Exception
+    {
+        Path file = write(directory, 0x12345678, 0, 1, 0);
+
+        assertThrows(IOException.class, () -> StaticMappingTable.open(file));
+    }
+
+    @Test
+    void openTooShort(@TempDir Path directory) throws Exception
+    {
+        Path file = write(directory, StaticMappingTable.MAGIC, 0);
+
+        IOException exception = assertThrows(IOException.class, () -> StaticMappingTable.open(file));
+        assertTrue(exception.getMessage().contains("invalid size [8]"), exception.getMessage());
+    }
+
+    @Test
+    void openTruncated(@TempDir Path directory) throws Exception
+    {
+        // the header announces 10 entries and 4 buckets, but the file ends before their slots
+        Path file = write(directory, StaticMappingTable.MAGIC, 10, 4, 0, 0, 0, 0, 0);
+
+        assertThrows(IOException.class, () -> StaticMappingTable.open(file));
+    }
+
+    @Test
+    void openTruncatedTable(@TempDir Path directory) throws Exception
+    {
+        build(directory, List.of("a\t/a", "b\t/b"), 0);
+        Path table = directory.resolve("mappings.table");
+        byte[] bytes = Files.readAllBytes(table);
+        // a table still being copied
+        Path truncated = Files.write(directory.resolve("truncated.table"), Arrays.copyOf(bytes, bytes.length - 1));
+
+        IOException exception = assertThrows(IOException.class, () -> StaticMappingTable.open(truncated));
+        assertTrue(exception.getMessage().contains("truncated"), exception.getMessage());
+    }
+
+    @Test
+    void openWithInvalidSlot(@TempDir Path directory) throws Exception
+    {
+        build(directory, List.of("a\t/a", "b\t/b"), 0);
+        Path table = directory.resolve("mappings.table");
+        // the first slot, after the header and the single bucket, points to the header
+        try (RandomAccessFile file = new RandomAccessFile(table.toFile(), "rw")) {
+            file.seek(StaticMappingTable.HEADER_SIZE + Integer.BYTES);
+            file.writeInt(0);
+        }
+
+        IOException exception = assertThrows(IOException.class, () -> StaticMappingTable.open(table));
+        assertTrue(exception.getMessage().contains("invalid offset [0] of slot [0]"), exception.getMessage());
+    }
+
+    @Test
+    void getCorruptEntry(@TempDir Path directory) throws Exception
+    {
+        build(directory, List.of("a\t/a", "b\t/b"), 0);
+        Path table = directory.resolve("mappings.table");
+        try (RandomAccessFile file = new RandomAccessFile(table.toFile(), "rw")) {
+            // the value length of each entry, after its key length and its one byte key, goes past the end of the file
+            int entries = StaticMappingTable.HEADER_SIZE + 3 * Integer.BYTES;
+            int entryLength = 2 * Integer.BYTES + 1 + 2;
+            for (int entry = entries; entry < file.length(); entry += entryLength) {
+                file.seek(entry + Integer.BYTES + 1);
+                file.writeInt(Integer.MAX_VALUE);
+            }
+        }
+
+        StaticMappingTable corrupt = StaticMappingTable.open(table);
+        assertNull(corrupt.get("a"));
+        assertNull(corrupt.get("b"));
+    }
+
+    @Test
+    void openWithInvalidCounts(@TempDir Path directory) throws Exception
+    {
+        Path negativeSize = write(directory, StaticMappingTable.MAGIC, -1, 1, 0);
+        assertThrows(IOException.class, () -> StaticMappingTable.open(negativeSize));
+
+        Path noBucket = write(directory, StaticMappingTable.MAGIC, 0, 0, 0);
+        assertThrows(IOException.class, () -> StaticMappingTable.open(noBucket));
+    }
+
+    @Test
+    void openMissing(@TempDir Path directory)
+    {
+        assertThrows(IOException.class, () -> StaticMappingTable.open(directory.resolve("missing.table")));
+        assertFalse(Files.exists(directory.resolve("missing.table")));
+    }
+}
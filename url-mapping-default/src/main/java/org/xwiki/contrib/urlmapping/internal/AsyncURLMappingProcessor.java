@@ -0,0 +1,475 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.urlmapping.internal;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.http.HttpServletRequest;
+
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.container.Container;
+import org.xwiki.container.Request;
+import org.xwiki.container.Response;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.context.ExecutionContextException;
+import org.xwiki.context.ExecutionContextManager;
+import org.xwiki.contrib.urlmapping.URLMappingResult;
+
+/**
+ * Converts and redirects requests outside of the threads of the servlet container, using the asynchronous processing
+ * of Servlet 3.
+ * <p>
+ * The conversion and the redirect of a request run in a dedicated executor, with a clone of the execution context of
+ * the request: virtual threads are used when the JVM provides them, and at most {@code urlmapping.asyncThreads}
+ * threads (50 by default) otherwise. At most {@code urlmapping.asyncQueueSize} more requests (1000 by default) wait
+ * for their conversion: the requests arriving when the queue is full are handled synchronously, in the thread of the
+ * servlet container, like the requests of the containers not supporting the asynchronous processing.
+ * <p>
+ * When a request is not converted before its deadline, or when its conversion fails, it is answered with the not
+ * found result. The expired requests are answered by the threads firing the deadlines, which don't wait for the busy
+ * conversion threads, but they are only completed once their conversion has left the mappers, so that the mappers
+ * never read a request recycled by the servlet container. The servlet container times out the requests which are
+ * still not completed {@value #COMPLETION_TIMEOUT} milliseconds after their deadline, and waits for their conversion.
+ *
+ * @version $Id$
+ * @since 0.0.7
+ */
+@Component(roles = AsyncURLMappingProcessor.class)
+@Singleton
+public class AsyncURLMappingProcessor implements Initializable, Disposable
+{
+    /**
+     * The time, in milliseconds, given to the redirect of a request after its deadline.
+     */
+    static final int COMPLETION_TIMEOUT = 30000;
+
+    private static final String ASYNC_THREADS = "urlmapping.asyncThreads";
+
+    private static final int DEFAULT_ASYNC_THREADS = 50;
+
+    private static final String ASYNC_QUEUE_SIZE = "urlmapping.asyncQueueSize";
+
+    private static final int DEFAULT_ASYNC_QUEUE_SIZE = 1000;
+
+    // the not found screens are usually cached, so that a few threads answer the expired requests
+    private static final int DEADLINE_THREADS = 2;
+
+    private static final long THREAD_KEEP_ALIVE = 60;
+
+    private static final String THREAD_NAME = "URL mapping async ";
+
+    @Inject
+    private ConfigurationSource configurationSource;
+
+    @Inject
+    private Container container;
+
+    @Inject
+    private Execution execution;
+
+    @Inject
+    private ExecutionContextManager executionContextManager;
+
+    @Inject
+    private Logger logger;
+
+    private ExecutorService executor;
+
+    // the requests being converted or waiting for their conversion
+    private Semaphore permits;
+
+    // fires the deadlines of the requests, and answers the expired ones
+    private ScheduledThreadPoolExecutor scheduler;
+
+    /**
+     * Redirects a converted request.
+     */
+    @FunctionalInterface
+    interface Redirect
+    {
+        /**
+         * @param conversion the result of the conversion
+         * @throws Exception if the request could not be redirected
+         */
+        void redirect(URLMappingResult conversion) throws Exception;
+    }
+
+    /**
+     * A request processed asynchronously, which is answered once: either with its conversion or, after its deadline,
+     * with the not found result.
+     * <p>
+     * The conversion reads the request of the servlet container, which recycles it once it's completed: a request
+     * answered by its deadline is only completed once its conversion has left the mappers.
+     */
+    private final class AsyncRequest implements AsyncListener
+    {
+        private final AsyncContext asyncContext;
+
+        private final Request request;
+
+        private final Response response;
+
+        private final URLMappingResult notFound;
+
+        private final Redirect redirect;
+
+        private final AtomicBoolean answered = new AtomicBoolean();
+
+        private final AtomicBoolean completed = new AtomicBoolean();
+
+        // whether the conversion started, or was cancelled before, guarded by this
+        private boolean started;
+
+        // whether the conversion is reading the request, guarded by this
+        private boolean converting;
+
+        // whether the request was answered without its conversion, which must not start anymore, guarded by this
+        private boolean expired;
+
+        private volatile Future<?> conversion;
+
+        private volatile Future<?> deadline;
+
+        AsyncRequest(AsyncContext asyncContext, URLMappingResult notFound, Redirect redirect)
+        {
+            this.asyncContext = asyncContext;
+            this.request = container.getRequest();
+            this.response = container.getResponse();
+            this.notFound = notFound;
+            this.redirect = redirect;
+        }
+
+        void convert(Callable<URLMappingResult> converter, ExecutionContext context)
+        {
+            if (!startConversion()) {
+                return;
+            }
+            try {
+                run(context, () -> {
+                    URLMappingResult result;
+                    try {
+                        result = converter.call();
+                    } catch (Exception e) {
+                        logger.error("Failed to convert the request asynchronously, answering the not found result",
+                            e);
+                        result = this.notFound;
+                    } finally {
+                        endConversion();
+                    }
+                    if (this.answered.compareAndSet(false, true)) {
+                        this.deadline.cancel(false);
+                        answer(result);
+                        complete();
+                    }
+                });
+            } finally {
+                permits.release();
+            }
+        }
+
+        private synchronized boolean startConversion()
+        {
+            if (this.started || this.expired) {
+                return false;
+            }
+            this.started = true;
+            this.converting = true;
+            return true;
+        }
+
+        /**
+         * Completes the request answered by its deadline while it was converted.
+         */
+        private void endConversion()
+        {
+            boolean completeNow;
+            synchronized (this) {
+                this.converting = false;
+                completeNow = this.expired;
+                notifyAll();
+            }
+            if (completeNow) {
+                complete();
+            }
+        }
+
+        /**
+         * Releases the permit of a conversion cancelled before it started, which is not released by the conversion.
+         */
+        void conversionDone()
+        {
+            boolean release;
+            synchronized (this) {
+                release = !this.started;
+                this.started = true;
+            }
+            if (release) {
+                permits.release();
+            }
+        }
+
+        void expire(ExecutionContext context)
+        {
+            if (this.answered.compareAndSet(false, true)) {
+                logger.warn("The request was not converted before its deadline, answering the not found result");
+                this.conversion.cancel(true);
+                run(context, () -> answer(this.notFound));
+                boolean completeNow;
+                synchronized (this) {
+                    this.expired = true;
+                    completeNow = !this.converting;
+                }
+                if (completeNow) {
+                    complete();
+                } else {
+                    logger.debug("Completing the request once its conversion has left the mappers");
+                    flush();
+                }
+            }
+        }
+
+        private void run(ExecutionContext context, Runnable task)
+        {
+            if (context != null) {
+                execution.setContext(context);
+            }
+            container.setRequest(this.request);
+            container.setResponse(this.response);
+            try {
+                task.run();
+            } finally {
+                container.removeRequest();
+                container.removeResponse();
+                if (context != null) {
+                    execution.removeContext();
+                }
+            }
+        }
+
+        private void answer(URLMappingResult result)
+        {
+            try {
+                this.redirect.redirect(result);
+            } catch (Exception e) {
+                logger.error("Failed to redirect the request asynchronously", e);
+            }
+        }
+
+        /**
+         * Sends the answer of an expired request to the client, before the request is completed.
+         */
+        private void flush()
+        {
+            try {
+                this.asyncContext.getResponse().flushBuffer();
+            } catch (IOException e) {
+                logger.debug("Failed to send the answer of the expired request", e);
+            }
+        }
+
+        private void complete()
+        {
+            if (this.completed.compareAndSet(false, true)) {
+                this.asyncContext.complete();
+            }
+        }
+
+        /**
+         * Waits for the conversion to leave the mappers, before the servlet container recycles the request.
+         */
+        private synchronized void awaitConversion()
+        {
+            this.expired = true;
+            while (this.converting) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event)
+        {
+            logger.warn("The servlet container timed out an asynchronous URL mapping request");
+            this.answered.set(true);
+            this.conversion.cancel(true);
+            awaitConversion();
+            complete();
+        }
+
+        @Override
+        public void onError(AsyncEvent event)
+        {
+            logger.debug("An asynchronous URL mapping request failed", event.getThrowable());
+            this.answered.set(true);
+            this.completed.set(true);
+            this.conversion.cancel(true);
+            awaitConversion();
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event)
+        {
+            this.completed.set(true);
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event)
+        {
+            // not restarted
+        }
+    }
+
+    @Override
+    public void initialize()
+    {
+        int threads = Math.max(1, this.configurationSource.getProperty(ASYNC_THREADS, DEFAULT_ASYNC_THREADS));
+        int queueSize = Math.max(0, this.configurationSource.getProperty(ASYNC_QUEUE_SIZE, DEFAULT_ASYNC_QUEUE_SIZE));
+        this.permits = new Semaphore(threads + queueSize);
+        this.executor = createExecutor(threads, queueSize);
+        this.scheduler =
+            new ScheduledThreadPoolExecutor(DEADLINE_THREADS, createThreadFactory(THREAD_NAME + "deadline "));
+        // the deadlines of the converted requests don't stay in the queue
+        this.scheduler.setRemoveOnCancelPolicy(true);
+    }
+
+    @Override
+    public void dispose()
+    {
+        this.scheduler.shutdownNow();
+        this.executor.shutdownNow();
+    }
+
+    /**
+     * Starts processing a request asynchronously, if the servlet container supports it for this request and the
+     * queue of the requests waiting for their conversion is not full.
+     *
+     * @param request the request
+     * @param timeout the time, in milliseconds, after which the request is answered with the not found result
+     * @param converter converts the request
+     * @param notFound the not found result
+     * @param redirect redirects the request, and calls the following resource reference handlers
+     * @return whether the request is processed asynchronously, false if it must be handled in the current thread
+     */
+    boolean start(HttpServletRequest request, int timeout, Callable<URLMappingResult> converter,
+        URLMappingResult notFound, Redirect redirect)
+    {
+        if (!request.isAsyncSupported() || request.isAsyncStarted()) {
+            this.logger.debug("The request cannot be processed asynchronously, handling it in the current thread");
+            return false;
+        }
+        if (!this.permits.tryAcquire()) {
+            this.logger.debug("Too many requests are waiting for their conversion, handling it in the current thread");
+            return false;
+        }
+
+        ExecutionContext conversionContext;
+        ExecutionContext deadlineContext;
+        try {
+            conversionContext = cloneContext();
+            deadlineContext = cloneContext();
+        } catch (ExecutionContextException e) {
+            this.permits.release();
+            this.logger.warn("Failed to clone the execution context, handling the request in the current thread", e);
+            return false;
+        }
+
+        AsyncContext asyncContext = request.startAsync();
+        asyncContext.setTimeout((long) timeout + COMPLETION_TIMEOUT);
+        AsyncRequest asyncRequest = new AsyncRequest(asyncContext, notFound, redirect);
+        asyncContext.addListener(asyncRequest);
+        FutureTask<Void> conversion = new FutureTask<>(() -> asyncRequest.convert(converter, conversionContext), null)
+        {
+            @Override
+            protected void done()
+            {
+                asyncRequest.conversionDone();
+            }
+        };
+        // the conversion cancels the deadline and the deadline cancels the conversion: both are set before they run
+        asyncRequest.conversion = conversion;
+        asyncRequest.deadline = this.scheduler.schedule(() -> asyncRequest.expire(deadlineContext), timeout,
+            TimeUnit.MILLISECONDS);
+        try {
+            this.executor.execute(conversion);
+        } catch (RejectedExecutionException e) {
+            // the permits keep the queue from being full, so that only a disposed executor rejects the conversions
+            this.logger.debug("The conversion of the request was rejected, converting it in the current thread");
+            conversion.run();
+        }
+        return true;
+    }
+
+    private ExecutionContext cloneContext() throws ExecutionContextException
+    {
+        ExecutionContext context = this.execution.getContext();
+        return context == null ? null : this.executionContextManager.clone(context);
+    }
+
+    private static ExecutorService createExecutor(int threads, int queueSize)
+    {
+        try {
+            // Java 21+
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, THREAD_KEEP_ALIVE, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, queueSize)), createThreadFactory(THREAD_NAME));
+            executor.allowCoreThreadTimeOut(true);
+            return executor;
+        }
+    }
+
+    private static ThreadFactory createThreadFactory(String name)
+    {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -0,0 +1,262 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.urlmapping.internal;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.contrib.urlmapping.StaticMappingTableBuilder;
+import org.xwiki.contrib.urlmapping.URLMappingException;
+import org.xwiki.contrib.urlmapping.URLMappingImporter;
+import org.xwiki.job.event.status.JobProgressManager;
+
+/**
+ * Imports mapping datasets with an external sort: the records are read in chunks bounded by the
+ * {@code urlmapping.importMemoryBudget} configuration property (in bytes, 256 MB by default), each chunk is sorted
+ * and written to a run file, and the runs are merged into the sorted source of the static mapping table.
+ * <p>
+ * The runs are kept in a work directory next to the table, along with a checkpoint saved after each run: importing
+ * the same dataset again after a crash skips the lines covered by the runs.
+ * <p>
+ * Unlike the sort, the build of the table is not bounded: its perfect hash is computed on the heap, with about
+ * {@link StaticMappingTableBuilder#BYTES_PER_MAPPING} (24) bytes per mapping, which must fit in the same budget. The
+ * default budget covers about 11 million mappings; for larger datasets, the import fails before building the table,
+ * and can be resumed from the merged runs with a larger budget and heap.
+ * <p>
+ * The progress of the first step follows the bytes of the dataset covered by the runs, and is reported as each run
+ * is saved.
+ *
+ * @version $Id$
+ * @since 0.0.7
+ */
+@Component
+@Singleton
+public class DefaultURLMappingImporter implements URLMappingImporter
+{
+    private static final String MEMORY_BUDGET = "urlmapping.importMemoryBudget";
+
+    private static final int DEFAULT_MEMORY_BUDGET = 256 * 1024 * 1024;
+
+    // the estimated memory used by a record besides the characters of its path and target
+    private static final int RECORD_OVERHEAD = 96;
+
+    private static final int STEPS = 3;
+
+    private static final int READ_STEPS = 100;
+
+    private static final char SEPARATOR = '\t';
+
+    // returned for the invalid records
+    private static final String[] MALFORMED = new String[0];
+
+    @Inject
+    private ConfigurationSource configurationSource;
+
+    @Inject
+    private JobProgressManager progressManager;
+
+    @Inject
+    private Logger logger;
+
+    @Override
+    public int importMappings(Path source, Format format, Path target) throws URLMappingException
+    {
+        long start = System.nanoTime();
+        long budget = this.configurationSource.getProperty(MEMORY_BUDGET, DEFAULT_MEMORY_BUDGET);
+        Path directory = target.resolveSibling(target.getFileName() + ".import");
+        this.progressManager.pushLevelProgress(STEPS, this);
+        try {
+            URLMappingImportCheckpoint checkpoint = URLMappingImportCheckpoint.load(directory, source, format);
+
+            this.progressManager.startStep(this);
+            writeRuns(source, format, checkpoint, budget);
+            this.progressManager.endStep(this);
+
+            this.progressManager.startStep(this);
+            Path sorted = directory.resolve("sorted.txt");
+            int merged = SortedRunMerger.merge(checkpoint.getRuns(), sorted);
+            this.progressManager.endStep(this);
+            checkTableMemory(merged, budget, source);
+
+            this.progressManager.startStep(this);
+            int count = StaticMappingTableBuilder.build(sorted, target, merged);
+            this.progressManager.endStep(this);
+
+            this.logger.info("Imported [{}] mappings from [{}] into [{}] in [{}] s, [{}] invalid records were skipped",
+                count, source, target, TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start),
+                checkpoint.getRejected());
+            checkpoint.delete();
+            return count;
+        } catch (IOException e) {
+            throw new URLMappingException(String.format("Failed to import the mappings of [%s]", source), e);
+        } finally {
+            this.progressManager.popLevelProgress(this);
+        }
+    }
+
+    private void checkTableMemory(int count, long budget, Path source) throws URLMappingException
+    {
+        long needed = (long) count * StaticMappingTableBuilder.BYTES_PER_MAPPING;
+        if (needed > budget) {
+            throw new URLMappingException(String.format("Building the table of the [%d] mappings of [%s] needs about"
+                + " [%d] bytes of memory, more than the [%s] of [%d] bytes", count, source, needed, MEMORY_BUDGET,
+                budget));
+        }
+    }
+
+    /**
+     * Reads the dataset, from the first line not covered by the runs of the checkpoint, and writes sorted runs of at
+     * most the memory budget.
+     */
+    private void writeRuns(Path source, Format format, URLMappingImportCheckpoint checkpoint, long budget)
+        throws IOException
+    {
+        ReadProgress progress = new ReadProgress(Files.size(source));
+        this.progressManager.pushLevelProgress(READ_STEPS, progress);
+        try (BufferedReader reader = Files.newBufferedReader(source, StandardCharsets.UTF_8)) {
+            long lineNumber = skipCoveredLines(reader, checkpoint.getLines(), progress);
+            if (lineNumber > 0) {
+                this.logger.info("Resuming the import of [{}] after [{}] lines", source, lineNumber);
+            }
+
+            long rejected = checkpoint.getRejected();
+            List<String[]> records = new ArrayList<>();
+            long used = 0;
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                lineNumber++;
+                progress.read(line);
+                String[] mapping = parse(line, format, lineNumber, source);
+                if (mapping == MALFORMED) {
+                    rejected++;
+                } else if (mapping != null) {
+                    records.add(mapping);
+                    used += RECORD_OVERHEAD + 2L * (mapping[0].length() + mapping[1].length());
+                }
+                if (used >= budget) {
+                    writeRun(records, checkpoint, lineNumber, rejected);
+                    progress.report();
+                    used = 0;
+                }
+            }
+            if (!records.isEmpty() || checkpoint.getLines() < lineNumber) {
+                writeRun(records, checkpoint, lineNumber, rejected);
+            }
+            progress.report();
+        } finally {
+            this.progressManager.popLevelProgress(progress);
+        }
+    }
+
+    private static long skipCoveredLines(BufferedReader reader, long lines, ReadProgress progress) throws IOException
+    {
+        long skipped = 0;
+        while (skipped < lines) {
+            String line = reader.readLine();
+            if (line == null) {
+                break;
+            }
+            progress.read(line);
+            skipped++;
+        }
+        return skipped;
+    }
+
+    private String[] parse(String line, Format format, long lineNumber, Path source)
+    {
+        try {
+            return URLMappingRecords.parse(line, format, lineNumber);
+        } catch (IllegalArgumentException e) {
+            this.logger.debug("Skipping line [{}] of [{}]: {}", lineNumber, source, e.getMessage());
+            return MALFORMED;
+        }
+    }
+
+    private void writeRun(List<String[]> records, URLMappingImportCheckpoint checkpoint, long lineNumber,
+        long rejected) throws IOException
+    {
+        // the sort is stable: the last record of a path comes last
+        records.sort(Comparator.comparing(mapping -> mapping[0]));
+        Path run = checkpoint.getNextRun();
+        try (BufferedWriter writer = Files.newBufferedWriter(run, StandardCharsets.UTF_8)) {
+            for (int i = 0; i < records.size(); i++) {
+                String[] mapping = records.get(i);
+                if (i + 1 == records.size() || !mapping[0].equals(records.get(i + 1)[0])) {
+                    writer.write(mapping[0]);
+                    writer.write(SEPARATOR);
+                    writer.write(mapping[1]);
+                    writer.newLine();
+                }
+            }
+        }
+        checkpoint.addRun(lineNumber, rejected);
+        this.logger.debug("Wrote the sorted run [{}] with [{}] records", run, records.size());
+        records.clear();
+    }
+
+    /**
+     * The progress of the reading of the dataset, in steps of its size. The characters read are counted instead of
+     * the bytes, which only makes the progress lag behind for the non ASCII characters.
+     */
+    private final class ReadProgress
+    {
+        private final long size;
+
+        private long read;
+
+        private int reported;
+
+        ReadProgress(long size)
+        {
+            this.size = Math.max(1, size);
+        }
+
+        void read(String line)
+        {
+            // the line and its line break
+            this.read += line.length() + 1;
+        }
+
+        /**
+         * Reports the steps covered by the lines read so far, once they are saved in a run.
+         */
+        void report()
+        {
+            long covered = Math.min(READ_STEPS, this.read * READ_STEPS / this.size);
+            for (; this.reported < covered; this.reported++) {
+                progressManager.startStep(this);
+                progressManager.endStep(this);
+            }
+        }
+    }
+}
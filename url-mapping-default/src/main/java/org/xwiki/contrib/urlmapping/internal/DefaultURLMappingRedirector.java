@@ -20,13 +20,10 @@
 package org.xwiki.contrib.urlmapping.internal;
 
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.Map;
 
 import javax.inject.Inject;
 import javax.inject.Provider;
 import javax.inject.Singleton;
-import javax.script.ScriptContext;
 import javax.servlet.http.HttpServletResponse;
 
 import org.slf4j.Logger;
@@ -37,14 +34,10 @@ import org.xwiki.contrib.urlmapping.URLMappingException;
 import org.xwiki.contrib.urlmapping.URLMappingRedirector;
 import org.xwiki.contrib.urlmapping.URLMappingResult;
 import org.xwiki.contrib.urlmapping.URLMappingConfiguration;
-import org.xwiki.rendering.block.Block;
 import org.xwiki.resource.ResourceReference;
 import org.xwiki.resource.entity.EntityResourceReference;
-import org.xwiki.script.ScriptContextManager;
 
 import com.xpn.xwiki.XWikiContext;
-import com.xpn.xwiki.doc.XWikiDocument;
-import com.xpn.xwiki.web.Utils;
 
 /**
  * Default redirector.
@@ -58,15 +51,18 @@ public class DefaultURLMappingRedirector implements URLMappingRedirector
     @Inject
     private Provider<XWikiContext> contextProvider;
 
-    @Inject
-    private ScriptContextManager scriptContextManager;
-
     @Inject
     private Logger logger;
 
     @Inject
     private Container container;
 
+    @Inject
+    private EntityURLCache entityURLs;
+
+    @Inject
+    private URLMappingScreenWriter screens;
+
     @Override
     public void redirect(URLMappingResult conversion) throws URLMappingException
     {
@@ -80,53 +76,35 @@ public class DefaultURLMappingRedirector implements URLMappingRedirector
 
         HttpServletResponse response = ((ServletResponse) this.container.getResponse()).getHttpServletResponse();
 
-        int delay = configuration.getDelay();
-        boolean isURLPresent = url != null && !url.isEmpty();
-        String templateName = isURLPresent
+        String templateName = url != null && !url.isEmpty()
             ? configuration.getRedirectScreenTemplateName()
             : configuration.getNotFoundScreenTemplateName();
 
-        int httpStatus = conversion.getHTTPStatus();
-        if (isURLPresent && (delay == 0 || templateName == null || templateName.isEmpty())) {
-            sendRedirect(response, url, getRedirectHTTPStatus(httpStatus, configuration.getRedirectHTTPStatus()));
+        if (isDirect(url, configuration, templateName)) {
+            sendRedirect(conversion, response, url,
+                getRedirectHTTPStatus(conversion.getHTTPStatus(), configuration.getRedirectHTTPStatus()));
         } else {
-            Block suggestions = conversion.getSuggestions();
-            Map<String, Object> m = new HashMap<>(4);
-            m.put("url", url);
-            m.put("suggestions", suggestions);
-            m.put("conversion", conversion);
-            m.put("configuration", configuration);
-            this.scriptContextManager.getScriptContext().setAttribute("urlmapper", m, ScriptContext.ENGINE_SCOPE);
-            response.setStatus(getHTTPStatus(httpStatus, isURLPresent));
-            response.setContentType("text/html; charset=utf-8");
             try {
-                if (templateName.endsWith(".vm")) {
-                    templateName = templateName.substring(0, templateName.length() - 3);
-                }
-                logger.debug("Redirecting using template [{}] with values [{}]", templateName, m);
-                XWikiContext context = this.contextProvider.get();
-                if (context.getDoc() == null) {
-                    // This avoids rendering errors
-                    context.setDoc(new XWikiDocument(null));
-                }
-                Utils.parseTemplate(templateName, context);
+                this.screens.write(conversion, url, templateName, response);
+            } catch (URLMappingException e) {
+                throw e;
             } catch (Exception e) {
                 logger.error(
                     "An error occurred while rendering the redirection screen, falling back to a simple redirection",
                     e
                 );
-                sendRedirect(response, url, conversion.getHTTPStatus());
+                sendRedirect(conversion, response, url, conversion.getHTTPStatus());
             }
         }
     }
 
-    private static int getHTTPStatus(int httpStatus, boolean isURLPresent)
+    /**
+     * @return whether the conversion redirects without a screen: when it has a URL and no delay or no redirect screen
+     */
+    private static boolean isDirect(String url, URLMappingConfiguration configuration, String templateName)
     {
-        if (httpStatus == 0) {
-            return isURLPresent ? 200 : 404;
-        }
-
-        return httpStatus;
+        return url != null && !url.isEmpty()
+            && (configuration.getDelay() == 0 || templateName == null || templateName.isEmpty());
     }
 
     private static int getRedirectHTTPStatus(int httpStatus, int conversion)
@@ -134,9 +112,11 @@ public class DefaultURLMappingRedirector implements URLMappingRedirector
         return httpStatus == 0 ? conversion : httpStatus;
     }
 
-    private void sendRedirect(HttpServletResponse response, String url, int status) throws URLMappingException
+    private void sendRedirect(URLMappingResult conversion, HttpServletResponse response, String url, int status)
+        throws URLMappingException
     {
         logger.debug("Redirecting to [{}], status [{}]", url, status);
+        RedirectCacheHeaders.set(conversion, status, response);
         try {
             if (status == 0 || status == 302) {
                 response.sendRedirect(url);
@@ -149,7 +129,7 @@ public class DefaultURLMappingRedirector implements URLMappingRedirector
         }
     }
 
-    private static String getURL(URLMappingResult conversion, XWikiContext context)
+    private String getURL(URLMappingResult conversion, XWikiContext context)
         throws URLMappingException
     {
         String url = conversion.getURL();
@@ -159,7 +139,7 @@ public class DefaultURLMappingRedirector implements URLMappingRedirector
             if (targetResourceReference != null) {
                 if (targetResourceReference instanceof EntityResourceReference) {
                     EntityResourceReference target = (EntityResourceReference) targetResourceReference;
-                    url = context.getWiki().getURL(
+                    url = this.entityURLs.getURL(
                         target.getEntityReference(),
                         target.getAction().toString(),
                         context
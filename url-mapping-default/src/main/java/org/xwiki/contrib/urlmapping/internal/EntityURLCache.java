@@ -0,0 +1,126 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.urlmapping.internal;
+
+import java.net.URL;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheException;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.LRUCacheConfiguration;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.model.reference.EntityReference;
+
+import com.xpn.xwiki.XWikiContext;
+
+/**
+ * Remembers the URLs of the entities the redirects lead to, so that repeated redirects to the same page don't generate
+ * its URL again. The URLs are cached by entity reference, action, current wiki and scheme and authority of the
+ * request, and are dropped when a wiki descriptor or the preferences of a wiki change (see
+ * {@link EntityURLCacheListener}).
+ * <p>
+ * The cache holds at most {@code urlmapping.entityURLCacheSize} URLs (10000 by default), 0 disabling it.
+ *
+ * @version $Id$
+ * @since 0.0.7
+ */
+@Component(roles = EntityURLCache.class)
+@Singleton
+public class EntityURLCache implements Initializable
+{
+    private static final String CACHE_SIZE = "urlmapping.entityURLCacheSize";
+
+    private static final int DEFAULT_CACHE_SIZE = 10000;
+
+    private static final char SEPARATOR = '\u0000';
+
+    @Inject
+    private CacheManager cacheManager;
+
+    @Inject
+    private ConfigurationSource configurationSource;
+
+    private Cache<String> urls;
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        int size = this.configurationSource.getProperty(CACHE_SIZE, DEFAULT_CACHE_SIZE);
+        if (size > 0) {
+            try {
+                this.urls = this.cacheManager.createNewCache(new LRUCacheConfiguration("urlmapping.entityurls", size));
+            } catch (CacheException e) {
+                throw new InitializationException("Failed to create the cache of the URLs of the entities", e);
+            }
+        }
+    }
+
+    /**
+     * @param reference the reference of the entity
+     * @param action the action to perform on the entity
+     * @param context the context of the request
+     * @return the URL of the entity
+     */
+    String getURL(EntityReference reference, String action, XWikiContext context)
+    {
+        if (this.urls == null) {
+            return context.getWiki().getURL(reference, action, context);
+        }
+
+        String key = getKey(reference, action, context);
+        String url = this.urls.get(key);
+        if (url == null) {
+            url = context.getWiki().getURL(reference, action, context);
+            if (url != null) {
+                this.urls.set(key, url);
+            }
+        }
+        return url;
+    }
+
+    /**
+     * Drops all the cached URLs.
+     */
+    void invalidate()
+    {
+        if (this.urls != null) {
+            this.urls.removeAll();
+        }
+    }
+
+    private static String getKey(EntityReference reference, String action, XWikiContext context)
+    {
+        StringBuilder key = new StringBuilder();
+        key.append(context.getWikiId()).append(SEPARATOR);
+        URL requestURL = context.getURL();
+        if (requestURL != null) {
+            key.append(requestURL.getProtocol()).append("://").append(requestURL.getAuthority());
+        }
+        key.append(SEPARATOR).append(action).append(SEPARATOR).append(reference.getType()).append(SEPARATOR)
+            .append(reference);
+        return key.toString();
+    }
+}
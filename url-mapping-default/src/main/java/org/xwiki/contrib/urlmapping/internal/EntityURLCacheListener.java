@@ -0,0 +1,94 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.urlmapping.internal;
+
+import java.util.List;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.xwiki.bridge.event.DocumentCreatedEvent;
+import org.xwiki.bridge.event.DocumentDeletedEvent;
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
+import org.xwiki.bridge.event.WikiDeletedEvent;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.event.Event;
+
+import com.xpn.xwiki.doc.XWikiDocument;
+
+/**
+ * Invalidates the {@link EntityURLCache} when the generation of the URLs may have changed: when a wiki is deleted, or
+ * when a wiki descriptor ({@code XWiki.XWikiServer*}) or the preferences of a wiki ({@code XWiki.XWikiPreferences})
+ * are saved or deleted.
+ *
+ * @version $Id$
+ * @since 0.0.7
+ */
+@Component
+@Singleton
+@Named(EntityURLCacheListener.HINT)
+public class EntityURLCacheListener implements EventListener
+{
+    static final String HINT = "urlmappingentityurls";
+
+    private static final String XWIKI_SPACE = "XWiki";
+
+    private static final String DESCRIPTOR_PREFIX = "XWikiServer";
+
+    private static final String PREFERENCES = "XWikiPreferences";
+
+    @Inject
+    private EntityURLCache entityURLs;
+
+    @Override
+    public String getName()
+    {
+        return HINT;
+    }
+
+    @Override
+    public List<Event> getEvents()
+    {
+        return List.of(
+            new DocumentCreatedEvent(),
+            new DocumentUpdatedEvent(),
+            new DocumentDeletedEvent(),
+            new WikiDeletedEvent()
+        );
+    }
+
+    @Override
+    public void onEvent(Event event, Object source, Object data)
+    {
+        if (event instanceof WikiDeletedEvent || isURLConfiguration(((XWikiDocument) source).getDocumentReference())) {
+            this.entityURLs.invalidate();
+        }
+    }
+
+    private static boolean isURLConfiguration(DocumentReference reference)
+    {
+        String name = reference.getName();
+        return XWIKI_SPACE.equals(reference.getLastSpaceReference().getName())
+            && (name.startsWith(DESCRIPTOR_PREFIX) || PREFERENCES.equals(name));
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.urlmapping.internal;
+
+import java.io.IOException;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * A rendered not found screen, with the entity tag identifying its content.
+ *
+ * @version $Id$
+ * @since 0.0.7
+ */
+final class NotFoundPage
+{
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private static final int BYTE_MASK = 0xff;
+
+    private static final String ETAG = "ETag";
+
+    private static final String IF_NONE_MATCH = "If-None-Match";
+
+    private static final String WEAK_PREFIX = "W/";
+
+    private final byte[] content;
+
+    private final String etag;
+
+    private final long expiration;
+
+    /**
+     * @param content the encoded content of the page
+     * @param expiration the time, in nanoseconds, after which the page must be rendered again
+     */
+    NotFoundPage(byte[] content, long expiration)
+    {
+        this.content = content;
+        this.expiration = expiration;
+        long hash = FNV_OFFSET_BASIS;
+        for (byte b : content) {
+            hash = (hash ^ (b & BYTE_MASK)) * FNV_PRIME;
+        }
+        this.etag = '"' + Long.toHexString(hash) + '"';
+    }
+
+    /**
+     * @return the size of the content of the page, in bytes
+     */
+    int size()
+    {
+        return this.content.length;
+    }
+
+    /**
+     * @return the entity tag of the page
+     */
+    String getETag()
+    {
+        return this.etag;
+    }
+
+    /**
+     * @param now the current time, in nanoseconds
+     * @return whether the page must be rendered again
+     */
+    boolean isExpired(long now)
+    {
+        return now - this.expiration >= 0;
+    }
+
+    /**
+     * Writes the page to a response, or only answers that it was not modified if the request already has it.
+     *
+     * @param request the request
+     * @param response the response, whose status and content type are already set
+     * @throws IOException if the page could not be written
+     */
+    void write(HttpServletRequest request, HttpServletResponse response) throws IOException
+    {
+        response.setHeader(ETAG, this.etag);
+        if (matches(request.getHeader(IF_NONE_MATCH))) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+        response.setContentLength(this.content.length);
+        response.getOutputStream().write(this.content);
+    }
+
+    private boolean matches(String ifNoneMatch)
+    {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String tag : ifNoneMatch.split(",")) {
+            String trimmed = tag.trim();
+            if (trimmed.startsWith(WEAK_PREFIX)) {
+                trimmed = trimmed.substring(WEAK_PREFIX.length());
+            }
+            if ("*".equals(trimmed) || this.etag.equals(trimmed)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
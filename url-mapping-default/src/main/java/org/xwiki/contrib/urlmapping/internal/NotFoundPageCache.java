@@ -0,0 +1,229 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.urlmapping.internal;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.contrib.urlmapping.URLMappingConfiguration;
+import org.xwiki.contrib.urlmapping.URLMappingException;
+
+import com.xpn.xwiki.XWikiContext;
+
+/**
+ * Keeps the not found screens rendered for guests, by handler configuration, wiki, request URI and locale, so that the
+ * dead links hit repeatedly don't render the whole screen each time. The screens of the other users are not cached
+ * since they depend on the user.
+ * <p>
+ * The screens are kept {@code urlmapping.notFoundCacheLifespan} seconds (60 by default), and at most
+ * {@code urlmapping.notFoundCacheMaxBytes} bytes of screens are kept (16 MB by default), 0 disabling the cache. The
+ * screens are dropped when the skin or the preferences change (see {@link NotFoundPageCacheListener}), and the
+ * screens of a handler are not used anymore once its configuration is reloaded.
+ *
+ * @version $Id$
+ * @since 0.0.7
+ */
+@Component(roles = NotFoundPageCache.class)
+@Singleton
+public class NotFoundPageCache implements Initializable
+{
+    private static final String MAX_BYTES = "urlmapping.notFoundCacheMaxBytes";
+
+    private static final int DEFAULT_MAX_BYTES = 16 * 1024 * 1024;
+
+    private static final String LIFESPAN = "urlmapping.notFoundCacheLifespan";
+
+    private static final int DEFAULT_LIFESPAN = 60;
+
+    private static final String GET = "GET";
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private static final float LOAD_FACTOR = 0.75f;
+
+    private static final String HTML_CONTENT_TYPE = "text/html; charset=";
+
+    @Inject
+    private ConfigurationSource configurationSource;
+
+    @Inject
+    private Logger logger;
+
+    private long maxBytes;
+
+    private long lifespan;
+
+    // the least recently used pages first
+    private final LinkedHashMap<Key, NotFoundPage> pages = new LinkedHashMap<>(INITIAL_CAPACITY, LOAD_FACTOR, true);
+
+    private long bytes;
+
+    /**
+     * The key of a page. The configurations of the handlers are compared by identity, a reloaded configuration being
+     * a new object.
+     */
+    private static final class Key
+    {
+        private final URLMappingConfiguration configuration;
+
+        private final String wikiId;
+
+        private final String uri;
+
+        private final Locale locale;
+
+        Key(URLMappingConfiguration configuration, HttpServletRequest request, XWikiContext context)
+        {
+            this.configuration = configuration;
+            this.wikiId = context.getWikiId();
+            this.uri = request.getRequestURI();
+            this.locale = context.getLocale();
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return this.configuration == other.configuration && Objects.equals(this.wikiId, other.wikiId)
+                && this.uri.equals(other.uri) && Objects.equals(this.locale, other.locale);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hash(System.identityHashCode(this.configuration), this.wikiId, this.uri, this.locale);
+        }
+    }
+
+    @Override
+    public void initialize()
+    {
+        this.maxBytes = this.configurationSource.getProperty(MAX_BYTES, DEFAULT_MAX_BYTES);
+        this.lifespan = TimeUnit.SECONDS.toNanos(this.configurationSource.getProperty(LIFESPAN, DEFAULT_LIFESPAN));
+    }
+
+    /**
+     * @param request the request
+     * @param context the context of the request
+     * @return whether the not found screen of the request can be cached
+     */
+    boolean isCacheable(HttpServletRequest request, XWikiContext context)
+    {
+        return this.maxBytes > 0 && this.lifespan > 0 && GET.equalsIgnoreCase(request.getMethod())
+            && request.getRequestURI() != null && context.getUserReference() == null;
+    }
+
+    /**
+     * Writes the cached page of a request, if any.
+     *
+     * @param configuration the configuration of the handler
+     * @param request the request
+     * @param context the context of the request, giving its wiki and locale
+     * @param status the HTTP status of the page
+     * @param response the response to write the page to
+     * @return whether the page was written, false if it must be rendered
+     * @throws URLMappingException if the page could not be written
+     */
+    boolean write(URLMappingConfiguration configuration, HttpServletRequest request, XWikiContext context,
+        int status, HttpServletResponse response) throws URLMappingException
+    {
+        NotFoundPage page = get(configuration, request, context);
+        if (page == null) {
+            return false;
+        }
+        this.logger.debug("Answering [{}] with the cached not found screen", request.getRequestURI());
+        response.setStatus(status);
+        response.setContentType(HTML_CONTENT_TYPE + context.getWiki().getEncoding());
+        try {
+            page.write(request, response);
+        } catch (IOException e) {
+            throw new URLMappingException("Failed to write the not found screen", e);
+        }
+        return true;
+    }
+
+    /**
+     * @param configuration the configuration of the handler
+     * @param request the request
+     * @param context the context of the request, giving its wiki and locale
+     * @return the cached page, or null if it must be rendered
+     */
+    synchronized NotFoundPage get(URLMappingConfiguration configuration, HttpServletRequest request,
+        XWikiContext context)
+    {
+        Key key = new Key(configuration, request, context);
+        NotFoundPage page = this.pages.get(key);
+        if (page != null && page.isExpired(System.nanoTime())) {
+            this.pages.remove(key);
+            this.bytes -= page.size();
+            return null;
+        }
+        return page;
+    }
+
+    /**
+     * @param configuration the configuration of the handler
+     * @param request the request
+     * @param context the context of the request, giving its wiki and locale
+     * @param content the rendered page
+     * @return the page, which is not cached if it's larger than the cache
+     */
+    synchronized NotFoundPage put(URLMappingConfiguration configuration, HttpServletRequest request,
+        XWikiContext context, byte[] content)
+    {
+        NotFoundPage page = new NotFoundPage(content, System.nanoTime() + this.lifespan);
+        if (page.size() > this.maxBytes) {
+            return page;
+        }
+        NotFoundPage previous = this.pages.put(new Key(configuration, request, context), page);
+        this.bytes += page.size() - (previous == null ? 0 : previous.size());
+        for (Iterator<NotFoundPage> it = this.pages.values().iterator(); this.bytes > this.maxBytes;) {
+            this.bytes -= it.next().size();
+            it.remove();
+        }
+        return page;
+    }
+
+    /**
+     * Drops all the pages.
+     */
+    synchronized void invalidate()
+    {
+        this.pages.clear();
+        this.bytes = 0;
+    }
+}
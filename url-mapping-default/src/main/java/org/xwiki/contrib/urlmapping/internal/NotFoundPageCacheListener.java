@@ -0,0 +1,88 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.urlmapping.internal;
+
+import java.util.List;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.xwiki.bridge.event.DocumentCreatedEvent;
+import org.xwiki.bridge.event.DocumentDeletedEvent;
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.model.reference.LocalDocumentReference;
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.event.Event;
+
+import com.xpn.xwiki.doc.XWikiDocument;
+
+/**
+ * Invalidates the {@link NotFoundPageCache} when the not found screens may look different: when the preferences of a
+ * wiki or a space ({@code XWiki.XWikiPreferences} and {@code WebPreferences}), which hold the skin and the
+ * configuration, or a skin document are saved or deleted.
+ *
+ * @version $Id$
+ * @since 0.0.7
+ */
+@Component
+@Singleton
+@Named(NotFoundPageCacheListener.HINT)
+public class NotFoundPageCacheListener implements EventListener
+{
+    static final String HINT = "urlmappingnotfoundpages";
+
+    private static final LocalDocumentReference SKIN_CLASS = new LocalDocumentReference("XWiki", "XWikiSkins");
+
+    private static final List<String> PREFERENCES = List.of("XWikiPreferences", "WebPreferences");
+
+    @Inject
+    private NotFoundPageCache notFoundPages;
+
+    @Override
+    public String getName()
+    {
+        return HINT;
+    }
+
+    @Override
+    public List<Event> getEvents()
+    {
+        return List.of(
+            new DocumentCreatedEvent(),
+            new DocumentUpdatedEvent(),
+            new DocumentDeletedEvent()
+        );
+    }
+
+    @Override
+    public void onEvent(Event event, Object source, Object data)
+    {
+        XWikiDocument document = (XWikiDocument) source;
+        XWikiDocument original = document.getOriginalDocument();
+        if (PREFERENCES.contains(document.getDocumentReference().getName())
+            || document.getXObject(SKIN_CLASS) != null
+            || original != null && original.getXObject(SKIN_CLASS) != null)
+        {
+            this.notFoundPages.invalidate();
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.urlmapping.internal;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.regex.Pattern;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.xwiki.xml.XMLUtils;
+
+/**
+ * A redirect screen rendered once with a placeholder URL, and kept as the UTF-8 encoded fragments around the
+ * occurrences of the placeholder. A redirect only escapes its URL and writes it between the fragments.
+ *
+ * @version $Id$
+ * @since 0.0.7
+ */
+final class PrecompiledRedirectScreen
+{
+    /**
+     * The URL with which the screen is rendered, which is left unchanged by the XML escaping of the templates.
+     */
+    static final String URL_PLACEHOLDER = "urlmappingprecompiledredirectscreenurl";
+
+    private static final Pattern PLACEHOLDER_PATTERN = Pattern.compile(URL_PLACEHOLDER, Pattern.LITERAL);
+
+    private final byte[][] fragments;
+
+    private final int fragmentsLength;
+
+    /**
+     * @param html the redirect screen rendered with {@link #URL_PLACEHOLDER} as URL
+     */
+    PrecompiledRedirectScreen(String html)
+    {
+        String[] parts = PLACEHOLDER_PATTERN.split(html, -1);
+        this.fragments = new byte[parts.length][];
+        int length = 0;
+        for (int i = 0; i < parts.length; i++) {
+            this.fragments[i] = parts[i].getBytes(StandardCharsets.UTF_8);
+            length += this.fragments[i].length;
+        }
+        this.fragmentsLength = length;
+    }
+
+    /**
+     * Writes the redirect screen of a URL to a response.
+     *
+     * @param response the response to write the screen to
+     * @param url the URL to redirect to
+     * @throws IOException if the screen could not be written
+     */
+    void write(HttpServletResponse response, String url) throws IOException
+    {
+        byte[] escapedURL = XMLUtils.escape(url).getBytes(StandardCharsets.UTF_8);
+        byte[] page = new byte[this.fragmentsLength + (this.fragments.length - 1) * escapedURL.length];
+        int position = 0;
+        for (int i = 0; i < this.fragments.length; i++) {
+            if (i > 0) {
+                System.arraycopy(escapedURL, 0, page, position, escapedURL.length);
+                position += escapedURL.length;
+            }
+            System.arraycopy(this.fragments[i], 0, page, position, this.fragments[i].length);
+            position += this.fragments[i].length;
+        }
+        response.setContentLength(page.length);
+        response.getOutputStream().write(page);
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.urlmapping.internal;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+import javax.script.ScriptContext;
+import javax.servlet.http.HttpServletResponse;
+
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.contrib.urlmapping.DefaultURLMappingConfiguration;
+import org.xwiki.contrib.urlmapping.URLMappingConfiguration;
+import org.xwiki.contrib.urlmapping.URLMappingException;
+import org.xwiki.contrib.urlmapping.URLMappingResult;
+import org.xwiki.script.ScriptContextManager;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
+
+/**
+ * Keeps the redirect screens rendered once for the handlers enabling
+ * {@link DefaultURLMappingConfiguration#isPrecompiledRedirectScreenEnabled()}: a screen is rendered for each template,
+ * delay, title, intro message, wiki and locale. The screens are rendered without conversion and suggestions.
+ *
+ * @version $Id$
+ * @since 0.0.7
+ */
+@Component(roles = PrecompiledRedirectScreens.class)
+@Singleton
+public class PrecompiledRedirectScreens
+{
+    private static final int MAX_SCREENS = 100;
+
+    private static final String TEMPLATE_EXTENSION = ".vm";
+
+    private static final String BINDING = "urlmapper";
+
+    private static final String CONTENT_TYPE = "text/html; charset=utf-8";
+
+    // the screens which could not be rendered, which are rendered for each redirect instead
+    private static final PrecompiledRedirectScreen UNAVAILABLE = new PrecompiledRedirectScreen("");
+
+    @Inject
+    private Provider<XWikiContext> contextProvider;
+
+    @Inject
+    private ScriptContextManager scriptContextManager;
+
+    @Inject
+    private Logger logger;
+
+    private final Map<List<Object>, PrecompiledRedirectScreen> screens = new ConcurrentHashMap<>();
+
+    /**
+     * Writes the redirect screen rendered once for the configuration of a conversion, if the configuration enables
+     * it. The screens of the conversions with suggestions are not precompiled.
+     *
+     * @param conversion the conversion to redirect
+     * @param templateName the name of the template of the redirect screen
+     * @param url the URL to redirect to
+     * @param status the HTTP status of the screen
+     * @param response the response to write the screen to
+     * @return whether the screen was written
+     * @throws URLMappingException if the screen could not be written
+     */
+    boolean write(URLMappingResult conversion, String templateName, String url, int status,
+        HttpServletResponse response) throws URLMappingException
+    {
+        URLMappingConfiguration configuration = conversion.getConfiguration();
+        if (!(configuration instanceof DefaultURLMappingConfiguration)
+            || !((DefaultURLMappingConfiguration) configuration).isPrecompiledRedirectScreenEnabled()
+            || conversion.getSuggestions() != null) {
+            return false;
+        }
+        PrecompiledRedirectScreen screen = get(configuration, templateName);
+        if (screen == null) {
+            return false;
+        }
+        this.logger.debug("Redirecting to [{}] using the precompiled template [{}]", url, templateName);
+        response.setStatus(status);
+        response.setContentType(CONTENT_TYPE);
+        try {
+            screen.write(response, url);
+        } catch (IOException e) {
+            throw new URLMappingException("Failed to write the redirect screen", e);
+        }
+        return true;
+    }
+
+    /**
+     * @param configuration the configuration of the handler redirecting
+     * @param templateName the name of the template of the redirect screen
+     * @return the redirect screen, or null if it could not be rendered once
+     */
+    PrecompiledRedirectScreen get(URLMappingConfiguration configuration, String templateName)
+    {
+        XWikiContext context = this.contextProvider.get();
+        List<Object> key = Arrays.asList(templateName, configuration.getDelay(), configuration.getTitle(),
+            configuration.getIntroMessage(), context.getWikiId(), context.getLocale());
+        PrecompiledRedirectScreen screen = this.screens.get(key);
+        if (screen == null) {
+            screen = render(configuration, templateName, context);
+            if (this.screens.size() >= MAX_SCREENS) {
+                this.screens.clear();
+            }
+            this.screens.put(key, screen);
+        }
+        return screen == UNAVAILABLE ? null : screen;
+    }
+
+    private PrecompiledRedirectScreen render(URLMappingConfiguration configuration, String templateName,
+        XWikiContext context)
+    {
+        Map<String, Object> m = new HashMap<>(4);
+        m.put("url", PrecompiledRedirectScreen.URL_PLACEHOLDER);
+        m.put("suggestions", null);
+        m.put("conversion", null);
+        m.put("configuration", configuration);
+        ScriptContext scriptContext = this.scriptContextManager.getScriptContext();
+        scriptContext.setAttribute(BINDING, m, ScriptContext.ENGINE_SCOPE);
+        try {
+            if (context.getDoc() == null) {
+                // This avoids rendering errors
+                context.setDoc(new XWikiDocument(null));
+            }
+            String template = templateName.endsWith(TEMPLATE_EXTENSION) ? templateName
+                : templateName + TEMPLATE_EXTENSION;
+            String html = context.getWiki().evaluateTemplate(template, context);
+            this.logger.debug("Rendered the redirect screen template [{}] for [{}] in [{}]", template,
+                context.getLocale(), context.getWikiId());
+            return new PrecompiledRedirectScreen(html);
+        } catch (Exception e) {
+            this.logger.warn("Failed to render the redirect screen template [{}] once, it will be rendered for "
+                + "each redirect", templateName, e);
+            return UNAVAILABLE;
+        } finally {
+            scriptContext.removeAttribute(BINDING, ScriptContext.ENGINE_SCOPE);
+        }
+    }
+}
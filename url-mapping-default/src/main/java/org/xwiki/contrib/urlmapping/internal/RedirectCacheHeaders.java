@@ -0,0 +1,92 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.urlmapping.internal;
+
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.xwiki.contrib.urlmapping.DefaultURLMappingConfiguration;
+import org.xwiki.contrib.urlmapping.URLMappingConfiguration;
+import org.xwiki.contrib.urlmapping.URLMappingResult;
+
+/**
+ * Sets the headers letting browsers and proxies cache a redirect: the {@code Cache-Control} header chosen by the
+ * result, or else the one configured for the permanent redirects of the handler, and the matching {@code Expires}
+ * header for the HTTP/1.0 caches.
+ *
+ * @version $Id$
+ * @since 0.0.7
+ */
+final class RedirectCacheHeaders
+{
+    private static final String CACHE_CONTROL = "Cache-Control";
+
+    private static final String EXPIRES = "Expires";
+
+    private static final int SC_PERMANENT_REDIRECT = 308;
+
+    private static final Pattern MAX_AGE = Pattern.compile("\\bmax-age\\s*=\\s*\"?(\\d{1,10})");
+
+    private RedirectCacheHeaders()
+    {
+    }
+
+    /**
+     * @param conversion the result of the conversion
+     * @param status the status of the redirect, 0 for a 302 redirect
+     * @param response the response
+     */
+    static void set(URLMappingResult conversion, int status, HttpServletResponse response)
+    {
+        String cacheControl = getCacheControl(conversion, status);
+        if (cacheControl == null || cacheControl.isEmpty()) {
+            return;
+        }
+        response.setHeader(CACHE_CONTROL, cacheControl);
+        Matcher maxAge = MAX_AGE.matcher(cacheControl);
+        if (maxAge.find()) {
+            response.setDateHeader(EXPIRES,
+                System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(Long.parseLong(maxAge.group(1))));
+        }
+    }
+
+    private static String getCacheControl(URLMappingResult conversion, int status)
+    {
+        String cacheControl = conversion.getCacheControl();
+        if (cacheControl != null) {
+            return cacheControl;
+        }
+        URLMappingConfiguration configuration = conversion.getConfiguration();
+        if ((status != HttpServletResponse.SC_MOVED_PERMANENTLY && status != SC_PERMANENT_REDIRECT)
+            || !(configuration instanceof DefaultURLMappingConfiguration))
+        {
+            return null;
+        }
+        DefaultURLMappingConfiguration defaultConfiguration = (DefaultURLMappingConfiguration) configuration;
+        cacheControl = defaultConfiguration.getRedirectCacheControl();
+        if (cacheControl == null && defaultConfiguration.getRedirectCacheLifespan() > 0) {
+            cacheControl = "public, max-age=" + defaultConfiguration.getRedirectCacheLifespan();
+        }
+        return cacheControl;
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.urlmapping.internal;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Merges the sorted runs of an import into a single sorted source for the static mapping table builder, keeping only
+ * the last mapping of each path.
+ *
+ * @version $Id$
+ * @since 0.0.7
+ */
+final class SortedRunMerger
+{
+    private static final char SEPARATOR = '\t';
+
+    private SortedRunMerger()
+    {
+    }
+
+    /**
+     * The current line of a run.
+     */
+    private static final class RunCursor
+    {
+        private final BufferedReader reader;
+
+        private final int index;
+
+        private String line;
+
+        private String key;
+
+        RunCursor(BufferedReader reader, int index)
+        {
+            this.reader = reader;
+            this.index = index;
+        }
+
+        boolean advance() throws IOException
+        {
+            this.line = this.reader.readLine();
+            this.key = this.line == null ? null : this.line.substring(0, this.line.indexOf(SEPARATOR));
+            return this.line != null;
+        }
+    }
+
+    /**
+     * @param runs the runs, each sorted by path without duplicates, in the order of the dataset
+     * @param target the file to write the merged mappings to
+     * @return the number of merged mappings
+     * @throws IOException if the runs could not be read or the target written
+     */
+    static int merge(List<Path> runs, Path target) throws IOException
+    {
+        // for the same path, the mapping of the latest run comes first
+        PriorityQueue<RunCursor> queue = new PriorityQueue<>(Math.max(1, runs.size()),
+            Comparator.<RunCursor, String>comparing(cursor -> cursor.key)
+                .thenComparing(Comparator.<RunCursor>comparingInt(cursor -> cursor.index).reversed()));
+        List<BufferedReader> readers = new ArrayList<>(runs.size());
+        int count = 0;
+        try (BufferedWriter writer = Files.newBufferedWriter(target, StandardCharsets.UTF_8)) {
+            for (int i = 0; i < runs.size(); i++) {
+                BufferedReader reader = Files.newBufferedReader(runs.get(i), StandardCharsets.UTF_8);
+                readers.add(reader);
+                RunCursor cursor = new RunCursor(reader, i);
+                if (cursor.advance()) {
+                    queue.add(cursor);
+                }
+            }
+
+            String previousKey = null;
+            while (!queue.isEmpty()) {
+                RunCursor cursor = queue.poll();
+                if (!cursor.key.equals(previousKey)) {
+                    writer.write(cursor.line);
+                    writer.newLine();
+                    previousKey = cursor.key;
+                    count++;
+                }
+                if (cursor.advance()) {
+                    queue.add(cursor);
+                }
+            }
+        } finally {
+            for (BufferedReader reader : readers) {
+                reader.close();
+            }
+        }
+        return count;
+    }
+}
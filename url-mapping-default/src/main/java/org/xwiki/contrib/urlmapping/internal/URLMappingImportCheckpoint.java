@@ -0,0 +1,189 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.urlmapping.internal;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import org.xwiki.contrib.urlmapping.URLMappingImporter;
+
+/**
+ * The progress of an import saved in its work directory: the sorted runs written so far, and the number of lines of
+ * the dataset they cover. The checkpoint is only used to resume the import of the same dataset, unchanged.
+ *
+ * @version $Id$
+ * @since 0.0.7
+ */
+final class URLMappingImportCheckpoint
+{
+    private static final String FILE = "checkpoint.properties";
+
+    private static final String SOURCE = "source";
+
+    private static final String LINES = "lines";
+
+    private static final String RUNS = "runs";
+
+    private static final String REJECTED = "rejected";
+
+    private final Path directory;
+
+    private final String source;
+
+    private long lines;
+
+    private int runs;
+
+    private long rejected;
+
+    private URLMappingImportCheckpoint(Path directory, String source)
+    {
+        this.directory = directory;
+        this.source = source;
+    }
+
+    /**
+     * @param directory the work directory of the import
+     * @param source the dataset file
+     * @param format the format of the dataset
+     * @return the checkpoint of the previous import of the dataset, or an empty checkpoint if the dataset was not
+     *     being imported or was modified since
+     * @throws IOException if the work directory could not be read or prepared
+     */
+    static URLMappingImportCheckpoint load(Path directory, Path source, URLMappingImporter.Format format)
+        throws IOException
+    {
+        BasicFileAttributes attributes = Files.readAttributes(source, BasicFileAttributes.class);
+        String sourceId = String.format("%s|%d|%d|%s", source.toAbsolutePath(), attributes.size(),
+            attributes.lastModifiedTime().toMillis(), format);
+        URLMappingImportCheckpoint checkpoint = new URLMappingImportCheckpoint(directory, sourceId);
+
+        Path file = directory.resolve(FILE);
+        Properties properties = new Properties();
+        if (Files.exists(file)) {
+            try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                properties.load(reader);
+            }
+        }
+        if (sourceId.equals(properties.getProperty(SOURCE))) {
+            checkpoint.lines = Long.parseLong(properties.getProperty(LINES));
+            checkpoint.runs = Integer.parseInt(properties.getProperty(RUNS));
+            checkpoint.rejected = Long.parseLong(properties.getProperty(REJECTED));
+        } else {
+            checkpoint.delete();
+            Files.createDirectories(directory);
+        }
+        return checkpoint;
+    }
+
+    /**
+     * @return the number of lines of the dataset covered by the runs
+     */
+    long getLines()
+    {
+        return this.lines;
+    }
+
+    /**
+     * @return the number of invalid records in the lines covered by the runs
+     */
+    long getRejected()
+    {
+        return this.rejected;
+    }
+
+    /**
+     * @return the file of the next run
+     */
+    Path getNextRun()
+    {
+        return getRun(this.runs);
+    }
+
+    /**
+     * @return the files of the runs, in the order of the dataset
+     */
+    List<Path> getRuns()
+    {
+        List<Path> files = new ArrayList<>(this.runs);
+        for (int i = 0; i < this.runs; i++) {
+            files.add(getRun(i));
+        }
+        return files;
+    }
+
+    /**
+     * Saves the checkpoint once the next run is written.
+     *
+     * @param coveredLines the number of lines of the dataset covered by the runs, including the new one
+     * @param rejectedRecords the number of invalid records in these lines
+     * @throws IOException if the checkpoint could not be saved
+     */
+    void addRun(long coveredLines, long rejectedRecords) throws IOException
+    {
+        Properties properties = new Properties();
+        properties.setProperty(SOURCE, this.source);
+        properties.setProperty(LINES, String.valueOf(coveredLines));
+        properties.setProperty(RUNS, String.valueOf(this.runs + 1));
+        properties.setProperty(REJECTED, String.valueOf(rejectedRecords));
+        Path file = this.directory.resolve(FILE);
+        Path tmp = this.directory.resolve(FILE + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            properties.store(writer, null);
+        }
+        Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        this.lines = coveredLines;
+        this.runs++;
+        this.rejected = rejectedRecords;
+    }
+
+    /**
+     * Deletes the work directory.
+     *
+     * @throws IOException if the work directory could not be deleted
+     */
+    void delete() throws IOException
+    {
+        if (!Files.isDirectory(this.directory)) {
+            return;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(this.directory)) {
+            for (Path file : files) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(this.directory);
+    }
+
+    private Path getRun(int index)
+    {
+        return this.directory.resolve("run-" + index + ".txt");
+    }
+}
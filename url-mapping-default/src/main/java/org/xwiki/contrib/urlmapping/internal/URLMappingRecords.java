@@ -0,0 +1,157 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.urlmapping.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.lang3.StringUtils;
+import org.xwiki.contrib.urlmapping.URLMappingImporter;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Parses and normalizes the records of the mapping datasets imported by {@link DefaultURLMappingImporter}.
+ *
+ * @version $Id$
+ * @since 0.0.7
+ */
+final class URLMappingRecords
+{
+    private static final String PATH = "path";
+
+    private static final String TARGET = "target";
+
+    private static final String MISSING_FIELDS = "the record doesn't have a path and a target";
+
+    private static final char QUOTE = '"';
+
+    private static final ObjectMapper JSON = new ObjectMapper();
+
+    private URLMappingRecords()
+    {
+    }
+
+    /**
+     * @param line a line of the dataset
+     * @param format the format of the dataset
+     * @param lineNumber the number of the line, starting at 1
+     * @return the normalized path and target of the record, or null if the line has no record
+     * @throws IllegalArgumentException if the record is invalid
+     */
+    static String[] parse(String line, URLMappingImporter.Format format, long lineNumber)
+    {
+        if (StringUtils.isBlank(line)) {
+            return null;
+        }
+
+        String[] fields = format == URLMappingImporter.Format.CSV ? parseCSV(line) : parseJSON(line);
+        if (format == URLMappingImporter.Format.CSV && lineNumber == 1 && PATH.equalsIgnoreCase(fields[0].trim())
+            && TARGET.equalsIgnoreCase(fields[1].trim())) {
+            // header
+            return null;
+        }
+        return new String[] { normalizePath(fields[0]), normalizeTarget(fields[1]) };
+    }
+
+    private static String[] parseCSV(String line)
+    {
+        List<String> fields = new ArrayList<>(2);
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        int i = 0;
+        while (i < line.length()) {
+            char c = line.charAt(i);
+            if (c == QUOTE && quoted && i + 1 < line.length() && line.charAt(i + 1) == QUOTE) {
+                // escaped quote
+                field.append(c);
+                i++;
+            } else if (c == QUOTE) {
+                quoted = !quoted;
+            } else if (c == ',' && !quoted) {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+            i++;
+        }
+        fields.add(field.toString());
+
+        if (quoted || fields.size() < 2) {
+            throw new IllegalArgumentException(MISSING_FIELDS);
+        }
+        return new String[] { fields.get(0), fields.get(1) };
+    }
+
+    private static String[] parseJSON(String line)
+    {
+        JsonNode node;
+        try {
+            node = JSON.readTree(line);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("the record is not valid JSON: " + e.getOriginalMessage());
+        }
+        JsonNode path = node.get(PATH);
+        JsonNode target = node.get(TARGET);
+        if (path == null || !path.isTextual() || target == null || !target.isTextual()) {
+            throw new IllegalArgumentException(MISSING_FIELDS);
+        }
+        return new String[] { path.asText(), target.asText() };
+    }
+
+    /**
+     * @param path a path, which may be absolute
+     * @return the path relative to the prefix of the handler
+     */
+    static String normalizePath(String path)
+    {
+        String normalized = StringUtils.stripStart(path.trim(), "/");
+        if (normalized.isEmpty()) {
+            throw new IllegalArgumentException("the path is empty");
+        }
+        if (StringUtils.containsAny(normalized, '?', '#')) {
+            throw new IllegalArgumentException("the path has a query string or a fragment");
+        }
+        checkCharacters(normalized);
+        return normalized;
+    }
+
+    private static String normalizeTarget(String target)
+    {
+        String normalized = target.trim();
+        if (normalized.isEmpty()) {
+            throw new IllegalArgumentException("the target is empty");
+        }
+        checkCharacters(normalized);
+        return normalized;
+    }
+
+    private static void checkCharacters(String value)
+    {
+        for (int i = 0; i < value.length(); i++) {
+            if (Character.isISOControl(value.charAt(i))) {
+                throw new IllegalArgumentException("[" + value + "] contains a control character");
+            }
+        }
+    }
+}
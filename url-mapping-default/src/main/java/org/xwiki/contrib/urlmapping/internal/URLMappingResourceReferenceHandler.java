@@ -19,10 +19,7 @@
  */
 package org.xwiki.contrib.urlmapping.internal;
 
-import java.util.Collection;
-import java.util.Collections;
 import java.util.List;
-import java.util.stream.Collectors;
 
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -31,12 +28,21 @@ import javax.inject.Singleton;
 import javax.servlet.http.HttpServletRequest;
 
 import org.slf4j.Logger;
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheException;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.LRUCacheConfiguration;
+import org.xwiki.cache.event.CacheEntryEvent;
+import org.xwiki.cache.event.CacheEntryListener;
 import org.xwiki.component.annotation.Component;
 import org.xwiki.component.manager.ComponentLookupException;
 import org.xwiki.component.manager.ComponentManager;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
 import org.xwiki.configuration.ConfigurationSource;
 import org.xwiki.container.Container;
 import org.xwiki.container.servlet.ServletRequest;
+import org.xwiki.contrib.urlmapping.AbstractURLMappingPrefixHandler;
 import org.xwiki.contrib.urlmapping.DefaultURLMappingResult;
 import org.xwiki.contrib.urlmapping.DefaultURLMappingConfiguration;
 import org.xwiki.contrib.urlmapping.URLMappingException;
@@ -49,9 +55,16 @@ import org.xwiki.resource.ResourceReferenceHandlerChain;
 import org.xwiki.resource.ResourceReferenceHandlerException;
 import org.xwiki.resource.ResourceType;
 import org.xwiki.resource.annotations.Authenticate;
+import org.xwiki.wiki.descriptor.WikiDescriptorManager;
 
 /**
  * The URL mapping resource reference handler.
+ * <p>
+ * Each wiki has its own routes, since handlers may be registered in the component manager of a single wiki. They are
+ * built on the first request to the wiki and rebuilt after handlers are added or removed. The routes of at most
+ * {@code urlmapping.wikiRoutesCacheSize} wikis (100 by default) are kept: when the routes of an idle wiki are evicted,
+ * the handlers registered only in this wiki drop their configuration and mapper table.
+ *
  * @since 0.0.1
  * @version $Id$
  */
@@ -60,7 +73,12 @@ import org.xwiki.resource.annotations.Authenticate;
 @Singleton
 @Authenticate
 public class URLMappingResourceReferenceHandler extends AbstractResourceReferenceHandler<ResourceType>
+    implements Initializable
 {
+    private static final String WIKI_ROUTES_CACHE_SIZE = "urlmapping.wikiRoutesCacheSize";
+
+    private static final int DEFAULT_WIKI_ROUTES_CACHE_SIZE = 100;
+
     @Inject
     private Container container;
 
@@ -68,9 +86,24 @@ public class URLMappingResourceReferenceHandler extends AbstractResourceReferenc
     @Named("context")
     private Provider<ComponentManager> componentManagerProvider;
 
+    @Inject
+    private Provider<ComponentManager> rootComponentManagerProvider;
+
+    @Inject
+    private WikiDescriptorManager wikiDescriptorManager;
+
+    @Inject
+    private URLPrefixHandlerRoutesBuilder routesBuilder;
+
+    @Inject
+    private CacheManager cacheManager;
+
     @Inject
     private URLMappingRedirector redirector;
 
+    @Inject
+    private AsyncURLMappingProcessor asyncProcessor;
+
     @Inject
     private ConfigurationSource configurationSource;
 
@@ -79,17 +112,100 @@ public class URLMappingResourceReferenceHandler extends AbstractResourceReferenc
 
     private URLMappingResult notFound;
 
-    private List<ResourceType> supportedTypes = Collections.emptyList();
+    // published by the registration listener, read without locking by the requests
+    private volatile URLPrefixHandlerRoutes routes = URLPrefixHandlerRoutes.EMPTY;
+
+    // applies the postponed updates of the routes, if any
+    private volatile Runnable routesUpdate = () -> { };
+
+    // the routes of the wikis which received requests recently, by wiki id
+    private Cache<WikiRoutes> wikiRoutes;
+
+    /**
+     * The routes of a wiki, along with the global routes which were current when they were built: they are outdated
+     * once new global routes are published.
+     */
+    private static final class WikiRoutes
+    {
+        private final URLPrefixHandlerRoutes global;
+
+        private final URLPrefixHandlerRoutes routes;
+
+        WikiRoutes(URLPrefixHandlerRoutes global, URLPrefixHandlerRoutes routes)
+        {
+            this.global = global;
+            this.routes = routes;
+        }
+    }
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        int size = this.configurationSource.getProperty(WIKI_ROUTES_CACHE_SIZE, DEFAULT_WIKI_ROUTES_CACHE_SIZE);
+        try {
+            this.wikiRoutes = this.cacheManager.createNewCache(new LRUCacheConfiguration("urlmapping.routes", size));
+            this.wikiRoutes.addCacheEntryListener(new CacheEntryListener<WikiRoutes>()
+            {
+                @Override
+                public void cacheEntryAdded(CacheEntryEvent<WikiRoutes> event)
+                {
+                    // nothing to release
+                }
+
+                @Override
+                public void cacheEntryRemoved(CacheEntryEvent<WikiRoutes> event)
+                {
+                    release(event.getEntry().getKey(), event.getEntry().getValue());
+                }
+
+                @Override
+                public void cacheEntryModified(CacheEntryEvent<WikiRoutes> event)
+                {
+                    // the previous routes were outdated
+                }
+            });
+        } catch (CacheException e) {
+            throw new InitializationException("Failed to create the cache of the routes of the wikis", e);
+        }
+    }
 
     @Override
     public List<ResourceType> getSupportedResourceReferences()
     {
-        return this.supportedTypes;
+        return getRoutes().getSupportedTypes();
+    }
+
+    /**
+     * @return the routes of the current wiki, built from the handlers of its component manager if they are not known
+     *     yet
+     */
+    URLPrefixHandlerRoutes getRoutes()
+    {
+        this.routesUpdate.run();
+        URLPrefixHandlerRoutes global = this.routes;
+        String wikiId = this.wikiDescriptorManager.getCurrentWikiId();
+        if (wikiId == null) {
+            return global;
+        }
+
+        WikiRoutes current = this.wikiRoutes.get(wikiId);
+        if (current == null || current.global != global) {
+            // several requests may build the routes at the same time, the last one wins
+            logger.debug("Building the URL prefix routes of wiki [{}]", wikiId);
+            current = new WikiRoutes(global, this.routesBuilder.build(this.componentManagerProvider.get()));
+            this.wikiRoutes.set(wikiId, current);
+        }
+        return current.routes;
     }
 
-    void setSupportedTypes(Collection<String> types)
+    void setRoutes(URLPrefixHandlerRoutes routes)
     {
-        this.supportedTypes = types.stream().map(ResourceType::new).collect(Collectors.toList());
+        this.routes = routes;
+    }
+
+    void setRoutesUpdate(Runnable routesUpdate)
+    {
+        this.routesUpdate = routesUpdate;
     }
 
     @Override
@@ -99,7 +215,10 @@ public class URLMappingResourceReferenceHandler extends AbstractResourceReferenc
         if (reference instanceof URLMappingResourceReference) {
             try {
                 logger.debug("Handling reference [{}]", reference);
-                handle((URLMappingResourceReference) reference);
+                if (handle((URLMappingResourceReference) reference, chain)) {
+                    // the following handlers are called once the request is redirected
+                    return;
+                }
             } catch (URLMappingException e) {
                 throw new ResourceReferenceHandlerException("Failed to redirect", e);
             }
@@ -109,22 +228,60 @@ public class URLMappingResourceReferenceHandler extends AbstractResourceReferenc
         chain.handleNext(reference);
     }
 
-    private void handle(URLMappingResourceReference ref) throws URLMappingException
+    /**
+     * @return whether the request is handled asynchronously
+     */
+    private boolean handle(URLMappingResourceReference ref, ResourceReferenceHandlerChain chain)
+        throws URLMappingException
     {
         HttpServletRequest request = ((ServletRequest) this.container.getRequest()).getHttpServletRequest();
+
+        URLMappingPrefixHandler handler = findHandler(ref.getName());
+        if (handleAsync(ref, handler, request, chain)) {
+            return true;
+        }
+
+        redirector.redirect(convert(ref, handler, request));
+        return false;
+    }
+
+    /**
+     * Hands the request over to the asynchronous processor if the handler is configured for it.
+     *
+     * @return whether the request is handled asynchronously
+     */
+    private boolean handleAsync(URLMappingResourceReference ref, URLMappingPrefixHandler handler,
+        HttpServletRequest request, ResourceReferenceHandlerChain chain)
+    {
+        int asyncTimeout = handler instanceof AbstractURLMappingPrefixHandler
+            ? ((AbstractURLMappingPrefixHandler) handler).getAsyncTimeout()
+            : 0;
+        if (asyncTimeout <= 0) {
+            return false;
+        }
+
+        boolean started = this.asyncProcessor.start(request, asyncTimeout, () -> convert(ref, handler, request),
+            getNotFoundConfiguration(), conversion -> {
+                redirector.redirect(conversion);
+                chain.handleNext(ref);
+            });
+        if (started) {
+            logger.debug("Handling [{}] asynchronously", ref);
+        }
+        return started;
+    }
+
+    private URLMappingResult convert(URLMappingResourceReference ref, URLMappingPrefixHandler handler,
+        HttpServletRequest request)
+    {
         String method = request.getMethod();
 
         URLMappingResult conversion = null;
-
-        try {
-            URLMappingPrefixHandler handler = componentManagerProvider.get()
-                .getInstance(URLMappingPrefixHandler.class, ref.getName());
+        if (handler != null) {
             String path = ref.getPath();
             logger.debug("Converting path [{}], method [{}] using prefix handler [{}]", path, method,
                 handler.getClass().getName());
             conversion = handler.convert(path, method, request);
-        } catch (ComponentLookupException e) {
-            this.logger.error("Could not get the URL prefix handler named [{}]", ref.getName(), e);
         }
 
         if (conversion == null) {
@@ -132,7 +289,49 @@ public class URLMappingResourceReferenceHandler extends AbstractResourceReferenc
             conversion = getNotFoundConfiguration();
         }
         logger.debug("Converted [{}] to [{}]", ref, conversion);
-        redirector.redirect(conversion);
+        return conversion;
+    }
+
+    private URLMappingPrefixHandler findHandler(String name)
+    {
+        try {
+            return getHandler(name);
+        } catch (ComponentLookupException e) {
+            this.logger.error("Could not get the URL prefix handler named [{}]", name, e);
+            return null;
+        }
+    }
+
+    private URLMappingPrefixHandler getHandler(String name) throws ComponentLookupException
+    {
+        URLPrefixHandlerRoutes currentRoutes = getRoutes();
+        URLMappingPrefixHandler handler = currentRoutes.getHandler(name);
+        if (handler == null) {
+            // not instantiated yet, or only available in the component manager of the current wiki
+            logger.debug("Prefix handler [{}] is not in the routing snapshot, looking it up", name);
+            handler = componentManagerProvider.get().getInstance(URLMappingPrefixHandler.class, name);
+            currentRoutes.setHandler(name, handler);
+        }
+        return handler;
+    }
+
+    /**
+     * Releases the handlers of evicted routes which are not shared with other wikis.
+     */
+    private void release(String wikiId, WikiRoutes evicted)
+    {
+        if (evicted == null) {
+            return;
+        }
+        logger.debug("Releasing the URL prefix routes of wiki [{}]", wikiId);
+        ComponentManager rootComponentManager = this.rootComponentManagerProvider.get();
+        for (String hint : evicted.routes.getHints()) {
+            URLMappingPrefixHandler handler = evicted.routes.getHandler(hint);
+            if (handler instanceof AbstractURLMappingPrefixHandler
+                && !rootComponentManager.hasComponent(URLMappingPrefixHandler.class, hint)) {
+                ((AbstractURLMappingPrefixHandler) handler).invalidateConfiguration();
+            }
+        }
     }
 
     private URLMappingResult getNotFoundConfiguration()
@@ -19,7 +19,10 @@
  */
 package org.xwiki.contrib.urlmapping.internal;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.function.Supplier;
 
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.LoggerFactory;
@@ -32,65 +35,82 @@ import org.slf4j.Logger;
 import org.xwiki.resource.ResourceReference;
 import org.xwiki.resource.ResourceReferenceResolver;
 import org.xwiki.resource.ResourceType;
+import org.xwiki.resource.UnsupportedResourceReferenceException;
 import org.xwiki.url.ExtendedURL;
 
-import static org.apache.commons.lang3.StringUtils.strip;
-
 /**
  * The URL mapping resource reference resolver.
+ * <p>
+ * A resolver is registered for each first segment of the prefixes of the URL prefix handlers, and finds the handler
+ * with the longest prefix matching the URL in the current {@link URLPrefixHandlerRoutes}, so that prefixes like
+ * {@code legacy/confluence} and {@code legacy/mediawiki} can be handled by different handlers.
+ *
  * @since 0.0.1
  * @version $Id$
  */
 public class URLMappingResourceReferenceResolver implements ResourceReferenceResolver<ExtendedURL>
 {
+    static final DefaultParameterizedType ROLE =
+        new DefaultParameterizedType(null, ResourceReferenceResolver.class, ExtendedURL.class);
+
     private static final Logger LOGGER = LoggerFactory.getLogger(URLMappingResourceReferenceResolver.class);
 
     private static final String SLASH = "/";
 
-    private final String prefix;
-    private final String name;
+    private final String type;
+
+    private final Supplier<URLPrefixHandlerRoutes> routes;
 
-    URLMappingResourceReferenceResolver(String prefix, String name)
+    URLMappingResourceReferenceResolver(String type, Supplier<URLPrefixHandlerRoutes> routes)
     {
-        this.prefix = prefix;
-        this.name = name;
+        this.type = type;
+        this.routes = routes;
     }
 
     @Override
     public ResourceReference resolve(ExtendedURL representation, ResourceType resourceType,
-        Map<String, Object> parameters)
+        Map<String, Object> parameters) throws UnsupportedResourceReferenceException
     {
-        String path = StringUtils.stripStart(representation.toString(), SLASH);
-        return new URLMappingResourceReference(this.prefix, this.name, path);
+        List<String> segments = new ArrayList<>(representation.getSegments().size() + 1);
+        segments.add(this.type);
+        segments.addAll(representation.getSegments());
+        URLPrefixTree.Match match = this.routes.get().findHandler(segments);
+        if (match == null) {
+            throw new UnsupportedResourceReferenceException(
+                String.format("No URL prefix handler matches [%s]", String.join(SLASH, segments)));
+        }
+
+        // the type segment was already removed from the URL
+        List<String> remaining = segments.subList(match.getLength(), segments.size());
+        ExtendedURL rest = new ExtendedURL(new ArrayList<>(remaining), representation.getParameters());
+        String path = StringUtils.stripStart(rest.toString(), SLASH);
+        return new URLMappingResourceReference(this.type, match.getHint(), path);
     }
 
     /**
-     * Register a resource reference resolver for a URL prefix handler.
-     * We manually register the resolver for each handler, so it has the right hint corresponding to the prefix
-     * set in the configuration.
-     * @param name the name of the URL prefix handler
-     * @param prefix the prefix to use
+     * Register a resource reference resolver for the URL prefix handlers whose prefix starts with the given segment.
+     * We manually register the resolvers, so they have the hints corresponding to the prefixes set in the
+     * configuration.
+     *
+     * @param type the first segment of the prefixes
+     * @param routes provides the current routes to the URL prefix handlers
      * @param componentManager the component manager to which to register the resolver
      */
-    public static void register(String name, String prefix, ComponentManager componentManager)
+    static void register(String type, Supplier<URLPrefixHandlerRoutes> routes, ComponentManager componentManager)
     {
-        String strippedPrefix = strip(prefix, SLASH);
-        if (strippedPrefix == null || strippedPrefix.isEmpty()) {
-            return;
-        }
         DefaultComponentDescriptor<URLMappingResourceReferenceResolver> descriptor = new DefaultComponentDescriptor<>();
         descriptor.setImplementation(URLMappingResourceReferenceResolver.class);
         descriptor.setInstantiationStrategy(ComponentInstantiationStrategy.SINGLETON);
-        descriptor.setRoleHint(strippedPrefix);
-        descriptor.setRoleType(new DefaultParameterizedType(null, ResourceReferenceResolver.class, ExtendedURL.class));
+        descriptor.setRoleHint(type);
+        descriptor.setRoleType(ROLE);
 
-        URLMappingResourceReferenceResolver r = new URLMappingResourceReferenceResolver(strippedPrefix, name);
-        LOGGER.debug("Registering a new instance of URLMappingResourceReferenceResolver, hint [{}], named [{}] using "
-                + "component manager [{}]", strippedPrefix, name, componentManager.getClass().getName());
+        URLMappingResourceReferenceResolver r = new URLMappingResourceReferenceResolver(type, routes);
+        LOGGER.debug("Registering a new instance of URLMappingResourceReferenceResolver, hint [{}] using "
+                + "component manager [{}]", type, componentManager.getClass().getName());
         try {
             componentManager.registerComponent(descriptor, r);
         } catch (ComponentRepositoryException e) {
-            LOGGER.error("Could not register URL Mapping resolver for prefix [{}]", strippedPrefix, e);
+            LOGGER.error("Could not register URL Mapping resolver for prefix [{}]", type, e);
         }
     }
 }
@@ -0,0 +1,62 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.urlmapping.internal;
+
+import java.util.List;
+
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.model.reference.LocalDocumentReference;
+
+import com.xpn.xwiki.doc.AbstractMandatoryClassInitializer;
+import com.xpn.xwiki.objects.classes.BaseClass;
+
+/**
+ * Creates the default class of the URL mapping rules defined in wiki pages, see
+ * {@link WikiRulesURLMappingPrefixHandler}.
+ *
+ * @version $Id$
+ * @since 0.0.7
+ */
+@Component
+@Singleton
+@Named("URLMapping.Code.URLMappingRuleClass")
+public class URLMappingRuleClassDocumentInitializer extends AbstractMandatoryClassInitializer
+{
+    private static final int FIELD_SIZE = 60;
+
+    /**
+     * Default constructor.
+     */
+    public URLMappingRuleClassDocumentInitializer()
+    {
+        super(new LocalDocumentReference(List.of("URLMapping", "Code"), "URLMappingRuleClass"), "URL Mapping Rule");
+    }
+
+    @Override
+    protected void createClass(BaseClass xclass)
+    {
+        xclass.addTextField("path", "Path", FIELD_SIZE);
+        xclass.addBooleanField("regex", "Regular expression", "yesno");
+        xclass.addTextField("target", "Target", FIELD_SIZE);
+    }
+}
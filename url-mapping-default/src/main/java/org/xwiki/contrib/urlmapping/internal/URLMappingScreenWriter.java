@@ -0,0 +1,159 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.urlmapping.internal;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+import javax.script.ScriptContext;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.container.Container;
+import org.xwiki.container.servlet.ServletRequest;
+import org.xwiki.contrib.urlmapping.URLMappingConfiguration;
+import org.xwiki.contrib.urlmapping.URLMappingResult;
+import org.xwiki.script.ScriptContextManager;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.web.Utils;
+
+/**
+ * Writes the redirect and not found screens of the conversions, using the precompiled redirect screens and the cached
+ * not found pages when possible, and rendering the screen templates otherwise.
+ *
+ * @version $Id$
+ * @since 0.0.7
+ */
+@Component(roles = URLMappingScreenWriter.class)
+@Singleton
+public class URLMappingScreenWriter
+{
+    private static final String CONTENT_TYPE = "text/html; charset=utf-8";
+
+    private static final String HTML_CONTENT_TYPE = "text/html; charset=";
+
+    private static final String TEMPLATE_EXTENSION = ".vm";
+
+    @Inject
+    private Provider<XWikiContext> contextProvider;
+
+    @Inject
+    private ScriptContextManager scriptContextManager;
+
+    @Inject
+    private Logger logger;
+
+    @Inject
+    private Container container;
+
+    @Inject
+    private PrecompiledRedirectScreens redirectScreens;
+
+    @Inject
+    private NotFoundPageCache notFoundPages;
+
+    /**
+     * Writes the redirect screen of a conversion, or its not found screen if it has no URL.
+     *
+     * @param conversion the conversion
+     * @param url the URL to redirect to, null or empty if the conversion found nothing
+     * @param templateName the name of the template of the screen
+     * @param response the response to write the screen to
+     * @throws Exception if the screen could not be written
+     */
+    public void write(URLMappingResult conversion, String url, String templateName, HttpServletResponse response)
+        throws Exception
+    {
+        boolean isURLPresent = url != null && !url.isEmpty();
+        int httpStatus = getHTTPStatus(conversion.getHTTPStatus(), isURLPresent);
+        if (isURLPresent && this.redirectScreens.write(conversion, templateName, url, httpStatus, response)) {
+            return;
+        }
+
+        URLMappingConfiguration configuration = conversion.getConfiguration();
+        XWikiContext context = this.contextProvider.get();
+        HttpServletRequest request = getRequest();
+        boolean cacheable = !isURLPresent && request != null && this.notFoundPages.isCacheable(request, context);
+        if (cacheable && this.notFoundPages.write(configuration, request, context, httpStatus, response)) {
+            return;
+        }
+
+        Map<String, Object> m = new HashMap<>(4);
+        m.put("url", url);
+        m.put("suggestions", conversion.getSuggestions());
+        m.put("conversion", conversion);
+        m.put("configuration", configuration);
+        this.scriptContextManager.getScriptContext().setAttribute("urlmapper", m, ScriptContext.ENGINE_SCOPE);
+        response.setStatus(httpStatus);
+        response.setContentType(CONTENT_TYPE);
+        String template = getTemplate(templateName);
+        this.logger.debug("Redirecting using template [{}] with values [{}]", template, m);
+        if (context.getDoc() == null) {
+            // This avoids rendering errors
+            context.setDoc(new XWikiDocument(null));
+        }
+        if (cacheable) {
+            writeNotFoundPage(configuration, template, request, response, context);
+        } else {
+            Utils.parseTemplate(template, context);
+        }
+    }
+
+    /**
+     * Renders the not found screen like {@link Utils#parseTemplate(String, XWikiContext)}, and caches it.
+     */
+    private void writeNotFoundPage(URLMappingConfiguration configuration, String templateName,
+        HttpServletRequest request, HttpServletResponse response, XWikiContext context) throws Exception
+    {
+        String encoding = context.getWiki().getEncoding();
+        String content = context.getWiki().evaluateTemplate(templateName + TEMPLATE_EXTENSION, context).trim();
+        content = context.getWiki().getPluginManager().endParsing(content, context);
+        response.setContentType(HTML_CONTENT_TYPE + encoding);
+        this.notFoundPages.put(configuration, request, context, content.getBytes(encoding)).write(request, response);
+    }
+
+    private HttpServletRequest getRequest()
+    {
+        return this.container.getRequest() instanceof ServletRequest
+            ? ((ServletRequest) this.container.getRequest()).getHttpServletRequest() : null;
+    }
+
+    private static String getTemplate(String templateName)
+    {
+        return templateName.endsWith(TEMPLATE_EXTENSION)
+            ? templateName.substring(0, templateName.length() - TEMPLATE_EXTENSION.length()) : templateName;
+    }
+
+    private static int getHTTPStatus(int httpStatus, boolean isURLPresent)
+    {
+        if (httpStatus == 0) {
+            return isURLPresent ? 200 : 404;
+        }
+
+        return httpStatus;
+    }
+}
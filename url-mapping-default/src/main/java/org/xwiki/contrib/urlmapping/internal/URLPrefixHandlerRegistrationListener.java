@@ -19,17 +19,19 @@
  */
 package org.xwiki.contrib.urlmapping.internal;
 
-import java.util.ArrayList;
-import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Provider;
 import javax.inject.Singleton;
 
-import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.xwiki.component.annotation.Component;
 import org.xwiki.component.descriptor.ComponentDescriptor;
@@ -39,6 +41,8 @@ import org.xwiki.component.manager.ComponentLookupException;
 import org.xwiki.component.manager.ComponentManager;
 import org.xwiki.component.util.DefaultParameterizedType;
 import org.xwiki.contrib.urlmapping.URLMappingPrefixHandler;
+import org.xwiki.job.event.JobFinishedEvent;
+import org.xwiki.job.event.JobStartedEvent;
 import org.xwiki.observation.EventListener;
 import org.xwiki.observation.event.ApplicationStartedEvent;
 import org.xwiki.observation.event.Event;
@@ -57,16 +61,38 @@ public class URLPrefixHandlerRegistrationListener implements EventListener
 {
     static final String HINT = "urlprefixhandler";
 
+    // the types of the jobs installing, upgrading or uninstalling extensions
+    private static final Set<String> EXTENSION_JOB_TYPES = Set.of("install", "uninstall");
+
     @Inject
     private Provider<ComponentManager> rootComponentManagerProvider;
 
     @Inject
-    @Named("context")
-    private Provider<ComponentManager> contextComponentManagerProvider;
+    private URLPrefixHandlerRoutesBuilder routesBuilder;
+
+    @Inject
+    private URLPrefixHandlerWarmUp warmUp;
 
     @Inject
     private Logger logger;
 
+    // the types for which a resolver was registered
+    private final Set<String> resolverTypes = new HashSet<>();
+
+    // the types of the handlers registered in the component managers of wikis, which keep their resolver
+    private final Set<String> wikiTypes = ConcurrentHashMap.newKeySet();
+
+    // the number of running extension jobs
+    private final AtomicInteger runningJobs = new AtomicInteger();
+
+    // the number of registration events since the last update of the routes
+    private final AtomicInteger pendingEvents = new AtomicInteger();
+
+    private volatile boolean routesOutdated;
+
+    // the last routes published to the resource reference handler
+    private volatile URLPrefixHandlerRoutes publishedRoutes = URLPrefixHandlerRoutes.EMPTY;
+
     @Override
     public String getName()
     {
@@ -79,46 +105,89 @@ public class URLPrefixHandlerRegistrationListener implements EventListener
         return List.of(
             new ApplicationStartedEvent(),
             new ComponentDescriptorAddedEvent(URLMappingPrefixHandler.class),
-            new ComponentDescriptorRemovedEvent(URLMappingPrefixHandler.class)
+            new ComponentDescriptorRemovedEvent(URLMappingPrefixHandler.class),
+            new JobStartedEvent(),
+            new JobFinishedEvent()
         );
     }
 
     @Override
     public void onEvent(Event event, Object source, Object data)
     {
+        if (event instanceof JobStartedEvent) {
+            if (isExtensionJob(((JobStartedEvent) event).getJobType())) {
+                this.runningJobs.incrementAndGet();
+            }
+            return;
+        }
+        if (event instanceof JobFinishedEvent) {
+            // the listener may have been registered while a job was running
+            if (isExtensionJob(((JobFinishedEvent) event).getJobType())
+                && this.runningJobs.updateAndGet(n -> Math.max(0, n - 1)) == 0) {
+                updateOutdatedRoutes();
+            }
+            return;
+        }
+
         if (event instanceof ApplicationStartedEvent) {
             // register resolvers for already registered handlers manager since no
             // ComponentDescriptorAddedEvent will be sent for them.
             //  see https://jira.xwiki.org/browse/XWIKI-18563. When this is fixed, we won't need anymore to listen to
             // ApplicationStartedEvent.
             logger.debug("Received application started event, will register all prefix handlers");
-            registerAllHandlers();
         } else if (event instanceof ComponentDescriptorAddedEvent) {
-            ComponentManager componentManager = (ComponentManager) source;
-            ComponentDescriptor<?> descriptor = (ComponentDescriptor<?>) data;
+            logger.debug("ComponentDescriptorAddedEvent for a URLMappingPrefixHandler with hint [{}]",
+                ((ComponentDescriptor<?>) data).getRoleHint());
+            addWikiType((ComponentDescriptor<?>) data, source);
+        } else if (event instanceof ComponentDescriptorRemovedEvent) {
+            logger.debug("ComponentDescriptorRemovedEvent for a URLMappingPrefixHandler with hint [{}]",
+                ((ComponentDescriptor<?>) data).getRoleHint());
+        }
 
-            String name = descriptor.getRoleHint();
+        this.pendingEvents.incrementAndGet();
+        this.routesOutdated = true;
+        // Extension installs may add many handlers: the routes are updated once at the end, or when they are needed by
+        // a request. The other jobs, which may run for a long time, don't postpone the registration of new prefixes.
+        if (event instanceof ApplicationStartedEvent) {
+            updateOutdatedRoutes();
+            this.warmUp.start(this.publishedRoutes);
+        } else if (this.runningJobs.get() == 0) {
+            updateOutdatedRoutes();
+        } else {
+            logger.debug("Postponing the update of the URL prefix routes until the end of the running extension jobs");
+        }
+    }
 
-            logger.debug("ComponentDescriptorAddedEvent for a URLMappingPrefixHandler with hint [{}]", name);
+    private static boolean isExtensionJob(String jobType)
+    {
+        return EXTENSION_JOB_TYPES.contains(jobType);
+    }
 
-            try {
-                URLMappingPrefixHandler handler = componentManager.getInstance(URLMappingPrefixHandler.class, name);
-                registerHandler(handler, name);
-            } catch (ComponentLookupException e) {
-                logger.error("Could not register a URL Mapping prefix handler for [{}])", name, e);
+    /**
+     * Updates the routes if handlers were added or removed since the last update.
+     */
+    private void updateOutdatedRoutes()
+    {
+        if (this.routesOutdated) {
+            synchronized (this) {
+                if (this.routesOutdated) {
+                    updateRoutes();
+                }
             }
-        } else if (event instanceof ComponentDescriptorRemovedEvent) {
-            ComponentDescriptor<?> descriptor = (ComponentDescriptor<?>) data;
-            String name = descriptor.getRoleHint();
-            logger.debug("ComponentDescriptorRemovedEvent for a URLMappingPrefixHandler with hint [{}]", name);
-            unregisterHandler(name);
         }
-
-        updateSupportedTypes();
     }
 
-    private void updateSupportedTypes()
+    /**
+     * Builds a new routing snapshot from the handlers registered in the root component manager, publishes it to the
+     * resource reference handler, which then rebuilds the routes of the wikis, and registers a resolver for each first
+     * segment of the prefixes of the handlers.
+     */
+    private void updateRoutes()
     {
+        // events received from now on will need another update
+        this.routesOutdated = false;
+        int events = this.pendingEvents.getAndSet(0);
+        long start = System.nanoTime();
         try {
             URLMappingResourceReferenceHandler urlMappingHandler = rootComponentManagerProvider.get().getInstance(
                     new DefaultParameterizedType(
@@ -126,55 +195,59 @@ public class URLPrefixHandlerRegistrationListener implements EventListener
                         ResourceReferenceHandler.class,
                         ResourceType.class
                     ), "urlmapping");
-            Map<String, URLMappingPrefixHandler> handlers =
-                contextComponentManagerProvider.get().getInstanceMap(URLMappingPrefixHandler.class);
-            Collection<String> types = new ArrayList<>(handlers.size());
-            for (Map.Entry<String, URLMappingPrefixHandler> entry : handlers.entrySet()) {
-                String type = StringUtils.strip(entry.getValue().getPrefix(), "/");
-                if (StringUtils.isEmpty(type)) {
-                    logger.warn("URL Mapping handler with hint [{}] has no prefix, it won't be used", entry.getKey());
-                } else {
-                    types.add(type);
-                    logger.debug("URL Mapping handler with hint [{}] has prefix [{}]", entry.getKey(), type);
-                }
-            }
-            logger.debug("Updating supported types: [{}]", types);
-            urlMappingHandler.setSupportedTypes(types);
+            URLPrefixHandlerRoutes routes = this.routesBuilder.build(rootComponentManagerProvider.get());
+            logger.debug("Updating supported types: [{}]", routes.getSupportedTypes());
+            urlMappingHandler.setRoutes(routes);
+            this.publishedRoutes = routes;
+            urlMappingHandler.setRoutesUpdate(this::updateOutdatedRoutes);
+            updateResolvers(routes, urlMappingHandler);
+            logger.info("Updated the routes of [{}] URL prefix handlers after [{}] registration events in [{}] ms",
+                routes.getHints().size(), events, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
         } catch (ComponentLookupException e) {
             logger.error("Failed to update the supported URL prefixes", e);
         }
     }
 
-    private void registerHandler(URLMappingPrefixHandler handler, String name)
+    /**
+     * Keeps the resource type of a handler registered in the component manager of a wiki, since the resolvers of the
+     * routes of the wikis are registered in the root component manager.
+     *
+     * @param source the component manager in which the handler was registered
+     */
+    private void addWikiType(ComponentDescriptor<?> descriptor, Object source)
     {
-        String prefix = handler.getPrefix();
-        if (StringUtils.isEmpty(prefix)) {
-            logger.debug("URL prefix handler [{}], name [{}] doesn't have a prefix, it will not be registered.",
-                handler.getClass().getName(), name);
+        if (!(source instanceof ComponentManager) || source == this.rootComponentManagerProvider.get()) {
             return;
         }
-        logger.debug("Registering URL prefix handler [{}], name [{}] with prefix [{}].", handler.getClass().getName(),
-            name, prefix);
-        URLMappingResourceReferenceResolver.register(name, prefix, rootComponentManagerProvider.get());
+        List<String> segments = this.routesBuilder.getPrefixSegments(descriptor, (ComponentManager) source);
+        if (!segments.isEmpty() && this.wikiTypes.add(segments.get(0))) {
+            logger.debug("URL prefix type [{}] is used by the handler [{}] of a wiki", segments.get(0),
+                descriptor.getRoleHint());
+        }
     }
 
-    private void registerAllHandlers()
+    private void updateResolvers(URLPrefixHandlerRoutes routes, URLMappingResourceReferenceHandler urlMappingHandler)
     {
-        try {
-            ComponentManager componentManager = contextComponentManagerProvider.get();
-            Map<String, URLMappingPrefixHandler> handlers =
-                componentManager.getInstanceMap(URLMappingPrefixHandler.class);
-            for (Map.Entry<String, URLMappingPrefixHandler> entry : handlers.entrySet()) {
-                registerHandler(entry.getValue(), entry.getKey());
+        ComponentManager componentManager = rootComponentManagerProvider.get();
+        Set<String> types = new HashSet<>(this.wikiTypes);
+        for (ResourceType type : routes.getSupportedTypes()) {
+            types.add(type.getId());
+        }
+
+        for (String type : types) {
+            if (this.resolverTypes.add(type)) {
+                logger.debug("Registering URL prefix resolver for type [{}]", type);
+                URLMappingResourceReferenceResolver.register(type, urlMappingHandler::getRoutes, componentManager);
             }
-        } catch (ComponentLookupException e) {
-            logger.error("Could not register URL Mapping resolvers", e);
         }
-    }
 
-    private void unregisterHandler(String name)
-    {
-        logger.debug("Unregistering URL prefix handler with name [{}]", name);
-        rootComponentManagerProvider.get().unregisterComponent(URLMappingResourceReferenceResolver.class, name);
+        for (Iterator<String> it = this.resolverTypes.iterator(); it.hasNext();) {
+            String type = it.next();
+            if (!types.contains(type)) {
+                logger.debug("Unregistering URL prefix resolver for type [{}]", type);
+                componentManager.unregisterComponent(URLMappingResourceReferenceResolver.ROLE, type);
+                it.remove();
+            }
+        }
     }
 }
@@ -0,0 +1,132 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.urlmapping.internal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.xwiki.contrib.urlmapping.URLMappingPrefixHandler;
+import org.xwiki.resource.ResourceType;
+
+/**
+ * A snapshot of the registered URL prefix handlers, so that requests find their handler without looking it up in the
+ * component manager. A new snapshot is built and published each time a handler is added or removed: the prefixes and
+ * the hints of a snapshot never change.
+ * <p>
+ * The handlers are not necessarily instantiated when the snapshot is built: the snapshot then keeps the instance
+ * looked up by the first request to the handler, so the instances of a snapshot are added concurrently by the request
+ * threads.
+ * <p>
+ * The prefixes may have several segments, like {@code legacy/confluence}: the resource types handled are the first
+ * segments of the prefixes, and the handler of a URL is the one with the longest prefix matching it.
+ *
+ * @version $Id$
+ * @since 0.0.7
+ */
+final class URLPrefixHandlerRoutes
+{
+    static final URLPrefixHandlerRoutes EMPTY = new URLPrefixHandlerRoutes(Collections.emptyMap(),
+        Collections.emptyMap());
+
+    private final Map<String, URLMappingPrefixHandler> handlersByHint;
+
+    private final Set<String> hints;
+
+    private final URLPrefixTree prefixes;
+
+    private final List<ResourceType> supportedTypes;
+
+    /**
+     * @param handlersByHint the handlers already instantiated, by hint
+     * @param hintsByPrefix the hints of the handlers, by prefix
+     */
+    URLPrefixHandlerRoutes(Map<String, URLMappingPrefixHandler> handlersByHint, Map<String, String> hintsByPrefix)
+    {
+        this.handlersByHint = new ConcurrentHashMap<>(handlersByHint);
+        this.hints = Collections.unmodifiableSet(new HashSet<>(hintsByPrefix.values()));
+        this.prefixes = new URLPrefixTree(hintsByPrefix);
+        Set<String> types = new LinkedHashSet<>();
+        for (String prefix : hintsByPrefix.keySet()) {
+            List<String> segments = URLPrefixTree.split(prefix);
+            if (!segments.isEmpty()) {
+                types.add(segments.get(0));
+            }
+        }
+        List<ResourceType> resourceTypes = new ArrayList<>(types.size());
+        for (String type : types) {
+            resourceTypes.add(new ResourceType(type));
+        }
+        this.supportedTypes = Collections.unmodifiableList(resourceTypes);
+    }
+
+    /**
+     * @param hint the hint of a handler
+     * @return the handler, or null if there is no handler with this hint in the snapshot or it was not instantiated
+     *     yet
+     */
+    URLMappingPrefixHandler getHandler(String hint)
+    {
+        return this.handlersByHint.get(hint);
+    }
+
+    /**
+     * Keeps the instance of a handler of the snapshot, so that the next requests don't need to look it up.
+     *
+     * @param hint the hint of the handler
+     * @param handler the handler instance
+     */
+    void setHandler(String hint, URLMappingPrefixHandler handler)
+    {
+        if (this.hints.contains(hint)) {
+            this.handlersByHint.putIfAbsent(hint, handler);
+        }
+    }
+
+    /**
+     * @return the hints of the handlers of the snapshot
+     */
+    Set<String> getHints()
+    {
+        return this.hints;
+    }
+
+    /**
+     * @param segments the segments of a URL, starting with the resource type
+     * @return the handler with the longest prefix matching the URL, or null if there is none
+     */
+    URLPrefixTree.Match findHandler(List<String> segments)
+    {
+        return this.prefixes.find(segments);
+    }
+
+    /**
+     * @return the first segments of the prefixes of the handlers, as resource types
+     */
+    List<ResourceType> getSupportedTypes()
+    {
+        return this.supportedTypes;
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.urlmapping.internal;
+
+import java.lang.reflect.Type;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.descriptor.ComponentDescriptor;
+import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.component.manager.ComponentManager;
+import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.contrib.urlmapping.DefaultURLMappingConfiguration;
+import org.xwiki.contrib.urlmapping.URLMappingPrefix;
+import org.xwiki.contrib.urlmapping.URLMappingPrefixHandler;
+
+/**
+ * Builds the routes to the URL prefix handlers registered in a component manager.
+ *
+ * @version $Id$
+ * @since 0.0.7
+ */
+@Component(roles = URLPrefixHandlerRoutesBuilder.class)
+@Singleton
+public class URLPrefixHandlerRoutesBuilder
+{
+    private static final String MISSING_PREFIX = "URL Mapping handler with hint [{}] has no prefix, it won't be used";
+
+    private static final Set<String> BUILT_IN_HINTS = Set.of(WikiRulesURLMappingPrefixHandler.HINT);
+
+    @Inject
+    private ConfigurationSource configurationSource;
+
+    @Inject
+    private Logger logger;
+
+    /**
+     * @param componentManager the component manager in which the handlers are registered
+     * @return the routes to the handlers
+     */
+    URLPrefixHandlerRoutes build(ComponentManager componentManager)
+    {
+        List<ComponentDescriptor<URLMappingPrefixHandler>> descriptors =
+            componentManager.getComponentDescriptorList((Type) URLMappingPrefixHandler.class);
+        Map<String, URLMappingPrefixHandler> handlers = new HashMap<>();
+        Map<String, String> hintsByPrefix = new HashMap<>(descriptors.size());
+        for (ComponentDescriptor<URLMappingPrefixHandler> descriptor : descriptors) {
+            String hint = descriptor.getRoleHint();
+            String prefix = StringUtils.join(URLPrefixTree.split(getPrefix(descriptor, componentManager, handlers)),
+                '/');
+            if (StringUtils.isEmpty(prefix)) {
+                logMissingPrefix(hint);
+            } else {
+                String previous = hintsByPrefix.put(prefix, hint);
+                if (previous != null) {
+                    logger.warn("URL Mapping handlers with hints [{}] and [{}] have the same prefix [{}], [{}] "
+                        + "will be used", previous, hint, prefix, hint);
+                }
+                logger.debug("URL Mapping handler with hint [{}] has prefix [{}]", hint, prefix);
+            }
+        }
+        logger.debug("Built the routes of [{}] URL prefix handlers, [{}] handlers were instantiated",
+            descriptors.size(), handlers.size());
+        return new URLPrefixHandlerRoutes(handlers, hintsByPrefix);
+    }
+
+    /**
+     * @param descriptor the descriptor of a handler
+     * @param componentManager the component manager in which the handler is registered
+     * @return the segments of the prefix of the handler, empty if the handler has no prefix
+     */
+    List<String> getPrefixSegments(ComponentDescriptor<?> descriptor, ComponentManager componentManager)
+    {
+        return URLPrefixTree.split(getPrefix(descriptor, componentManager, new HashMap<>()));
+    }
+
+    /**
+     * Gets the prefix of a handler from the configuration or the {@link URLMappingPrefix} annotation of its
+     * implementation, or, if it's not declared there, from the handler itself, which is then instantiated.
+     *
+     * @param handlers the handlers instantiated so far, to which the handler is added if it is instantiated
+     * @return the prefix, or an empty string if the handler has no prefix
+     */
+    private String getPrefix(ComponentDescriptor<?> descriptor, ComponentManager componentManager,
+        Map<String, URLMappingPrefixHandler> handlers)
+    {
+        String hint = descriptor.getRoleHint();
+        String prefix = new DefaultURLMappingConfiguration(this.configurationSource, hint).getPrefix();
+        if (StringUtils.isEmpty(prefix) && descriptor.getImplementation() != null) {
+            URLMappingPrefix annotation = descriptor.getImplementation().getAnnotation(URLMappingPrefix.class);
+            prefix = annotation == null ? null : annotation.value();
+        }
+
+        if (StringUtils.isEmpty(prefix)) {
+            try {
+                URLMappingPrefixHandler handler = componentManager.getInstance(URLMappingPrefixHandler.class, hint);
+                handlers.put(hint, handler);
+                prefix = handler.getPrefix();
+            } catch (ComponentLookupException e) {
+                logger.error("Could not get the URL prefix handler named [{}]", hint, e);
+            }
+        }
+
+        return StringUtils.defaultString(prefix);
+    }
+
+    private void logMissingPrefix(String hint)
+    {
+        if (BUILT_IN_HINTS.contains(hint)) {
+            // the built-in handlers are only used when they are configured
+            logger.debug(MISSING_PREFIX, hint);
+        } else {
+            logger.warn(MISSING_PREFIX, hint);
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.urlmapping.internal;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.component.manager.ComponentManager;
+import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.context.ExecutionContextException;
+import org.xwiki.context.ExecutionContextManager;
+import org.xwiki.contrib.urlmapping.AbstractURLMappingPrefixHandler;
+import org.xwiki.contrib.urlmapping.URLMappingPrefixHandler;
+
+/**
+ * Warms up the URL prefix handlers after the application is started, so that the first requests don't pay for reading
+ * their configuration, building their mapper tables and filling their caches: each handler converts the sample paths
+ * of its {@code warmupPaths} configuration.
+ * <p>
+ * The warm-up is disabled by default: it's enabled by the {@code urlmapping.warmup} configuration property, and runs
+ * in a background thread for at most {@code urlmapping.warmupBudget} seconds (30 by default).
+ *
+ * @version $Id$
+ * @since 0.0.7
+ */
+@Component(roles = URLPrefixHandlerWarmUp.class)
+@Singleton
+public class URLPrefixHandlerWarmUp
+{
+    private static final String WARMUP = "urlmapping.warmup";
+
+    private static final String WARMUP_BUDGET = "urlmapping.warmupBudget";
+
+    private static final int DEFAULT_WARMUP_BUDGET = 30;
+
+    @Inject
+    private ConfigurationSource configurationSource;
+
+    @Inject
+    private Provider<ComponentManager> rootComponentManagerProvider;
+
+    @Inject
+    private ExecutionContextManager executionContextManager;
+
+    @Inject
+    private Execution execution;
+
+    @Inject
+    private Logger logger;
+
+    /**
+     * Starts the warm-up of the handlers of the routes in a background thread, if it is enabled.
+     *
+     * @param routes the routes to the handlers to warm up
+     */
+    void start(URLPrefixHandlerRoutes routes)
+    {
+        if (!Boolean.TRUE.equals(this.configurationSource.getProperty(WARMUP, Boolean.class))) {
+            return;
+        }
+
+        long budget = TimeUnit.SECONDS.toNanos(
+            this.configurationSource.getProperty(WARMUP_BUDGET, DEFAULT_WARMUP_BUDGET));
+        Thread thread = new Thread(() -> run(routes, budget), "URL mapping warm-up");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    private void run(URLPrefixHandlerRoutes routes, long budget)
+    {
+        long start = System.nanoTime();
+        try {
+            // the mappers may need the XWiki context, which is taken from the execution context
+            this.executionContextManager.initialize(new ExecutionContext());
+        } catch (ExecutionContextException e) {
+            this.logger.error("Failed to initialize the execution context of the URL mapping warm-up", e);
+            return;
+        }
+
+        try {
+            long deadline = start + budget;
+            int handlers = 0;
+            int paths = 0;
+            for (String hint : routes.getHints()) {
+                if (System.nanoTime() - deadline > 0) {
+                    this.logger.warn("The URL mapping warm-up exceeded its budget of [{}] s, [{}] of [{}] URL prefix "
+                        + "handlers were warmed up", TimeUnit.NANOSECONDS.toSeconds(budget), handlers,
+                        routes.getHints().size());
+                    break;
+                }
+                URLMappingPrefixHandler handler = getHandler(routes, hint);
+                if (handler instanceof AbstractURLMappingPrefixHandler) {
+                    paths += ((AbstractURLMappingPrefixHandler) handler).warmUp(deadline);
+                }
+                handlers++;
+            }
+            this.logger.info("Warmed up [{}] URL prefix handlers with [{}] sample paths in [{}] ms", handlers, paths,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        } catch (RuntimeException e) {
+            this.logger.error("The URL mapping warm-up failed", e);
+        } finally {
+            this.execution.removeContext();
+        }
+    }
+
+    private URLMappingPrefixHandler getHandler(URLPrefixHandlerRoutes routes, String hint)
+    {
+        URLMappingPrefixHandler handler = routes.getHandler(hint);
+        if (handler == null) {
+            try {
+                handler = this.rootComponentManagerProvider.get().getInstance(URLMappingPrefixHandler.class, hint);
+                routes.setHandler(hint, handler);
+            } catch (ComponentLookupException e) {
+                this.logger.warn("Could not get the URL prefix handler named [{}] to warm it up", hint, e);
+            }
+        }
+        return handler;
+    }
+}
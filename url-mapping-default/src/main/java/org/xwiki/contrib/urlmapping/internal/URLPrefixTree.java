@@ -0,0 +1,174 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.urlmapping.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A radix tree of the prefixes of the URL prefix handlers, made of path segments, used to find the handler with the
+ * longest prefix matching a URL. The cost of a lookup depends on the number of segments of the URL, not on the number
+ * of handlers.
+ *
+ * @version $Id$
+ * @since 0.0.7
+ */
+final class URLPrefixTree
+{
+    private static final String SEPARATOR = "/";
+
+    private final Node root = new Node(new ArrayList<>());
+
+    /**
+     * The handler found for a URL.
+     */
+    static final class Match
+    {
+        private final String hint;
+
+        private final int length;
+
+        Match(String hint, int length)
+        {
+            this.hint = hint;
+            this.length = length;
+        }
+
+        /**
+         * @return the hint of the handler
+         */
+        String getHint()
+        {
+            return this.hint;
+        }
+
+        /**
+         * @return the number of segments of the prefix of the handler
+         */
+        int getLength()
+        {
+            return this.length;
+        }
+    }
+
+    /**
+     * A node of the tree, reached through a sequence of segments.
+     */
+    private static final class Node
+    {
+        private List<String> label;
+
+        private final Map<String, Node> children = new HashMap<>();
+
+        private String hint;
+
+        Node(List<String> label)
+        {
+            this.label = label;
+        }
+    }
+
+    /**
+     * @param hintsByPrefix the hints of the handlers, by prefix
+     */
+    URLPrefixTree(Map<String, String> hintsByPrefix)
+    {
+        for (Map.Entry<String, String> entry : hintsByPrefix.entrySet()) {
+            add(split(entry.getKey()), entry.getValue());
+        }
+    }
+
+    /**
+     * @param prefix a prefix
+     * @return the segments of the prefix, ignoring the empty ones
+     */
+    static List<String> split(String prefix)
+    {
+        List<String> segments = new ArrayList<>(Arrays.asList(prefix.split(SEPARATOR)));
+        segments.removeIf(String::isEmpty);
+        return segments;
+    }
+
+    private void add(List<String> segments, String hint)
+    {
+        Node node = this.root;
+        int i = 0;
+        while (i < segments.size()) {
+            Node child = node.children.get(segments.get(i));
+            if (child == null) {
+                child = new Node(new ArrayList<>(segments.subList(i, segments.size())));
+                node.children.put(segments.get(i), child);
+                i = segments.size();
+            } else {
+                int common = commonLength(child.label, segments, i);
+                if (common < child.label.size()) {
+                    // split the edge
+                    Node middle = new Node(new ArrayList<>(child.label.subList(0, common)));
+                    child.label = new ArrayList<>(child.label.subList(common, child.label.size()));
+                    middle.children.put(child.label.get(0), child);
+                    node.children.put(middle.label.get(0), middle);
+                    child = middle;
+                }
+                i += common;
+            }
+            node = child;
+        }
+        node.hint = hint;
+    }
+
+    private static int commonLength(List<String> label, List<String> segments, int start)
+    {
+        int common = 0;
+        while (common < label.size() && start + common < segments.size()
+            && label.get(common).equals(segments.get(start + common)))
+        {
+            common++;
+        }
+        return common;
+    }
+
+    /**
+     * @param segments the segments of a URL
+     * @return the handler having the longest prefix matching the segments, or null if there is none
+     */
+    Match find(List<String> segments)
+    {
+        Match best = null;
+        Node node = this.root;
+        int i = 0;
+        while (node != null) {
+            if (node.hint != null) {
+                best = new Match(node.hint, i);
+            }
+
+            Node child = i < segments.size() ? node.children.get(segments.get(i)) : null;
+            if (child != null && commonLength(child.label, segments, i) == child.label.size()) {
+                i += child.label.size();
+                node = child;
+            } else {
+                node = null;
+            }
+        }
+        return best;
+    }
+}
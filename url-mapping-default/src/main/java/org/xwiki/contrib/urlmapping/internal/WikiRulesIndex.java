@@ -0,0 +1,261 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.urlmapping.internal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.xwiki.model.reference.DocumentReference;
+
+/**
+ * An immutable snapshot of the URL mapping rules defined in wiki pages: the rules whose path is a literal are indexed
+ * by path, and the rules whose path is a regex are kept compiled, in order. A new snapshot is built from the previous
+ * one each time the rules of a document change, so that the conversions never wait for an update.
+ * <p>
+ * When several rules apply to a path, the rule of the document indexed first wins, and then the rule with the lowest
+ * object number. The literal rules are tried before the regex rules.
+ *
+ * @version $Id$
+ * @since 0.0.7
+ */
+final class WikiRulesIndex
+{
+    static final WikiRulesIndex EMPTY = new WikiRulesIndex(Collections.emptyMap(), Collections.emptyList(),
+        Collections.emptyMap(), Collections.emptyMap(), 0);
+
+    private static final Comparator<Rule> PRECEDENCE = Comparator.comparingLong(Rule::getOrder);
+
+    private static final int POSITION_BITS = 32;
+
+    private final Map<String, List<Rule>> exactRules;
+
+    private final List<Rule> patternRules;
+
+    private final Map<DocumentReference, List<Rule>> rulesByDocument;
+
+    private final Map<DocumentReference, Long> documentOrders;
+
+    private final long nextDocumentOrder;
+
+    /**
+     * A rule converting the paths equal to, or matching, its path to its target.
+     */
+    static final class Rule
+    {
+        private final String path;
+
+        private final Pattern pattern;
+
+        private final String target;
+
+        private final long order;
+
+        /**
+         * @param path the path converted by the rule, or the regex matching the paths converted by the rule
+         * @param regex whether the path is a regex, whose groups can be referenced by the target
+         * @param target the target of the rule
+         * @throws java.util.regex.PatternSyntaxException if the path is not a valid regex
+         */
+        Rule(String path, boolean regex, String target)
+        {
+            this(path, regex ? Pattern.compile(path) : null, target, 0);
+        }
+
+        private Rule(String path, Pattern pattern, String target, long order)
+        {
+            this.path = path;
+            this.pattern = pattern;
+            this.target = target;
+            this.order = order;
+        }
+
+        String getPath()
+        {
+            return this.path;
+        }
+
+        String getTarget()
+        {
+            return this.target;
+        }
+
+        boolean isRegex()
+        {
+            return this.pattern != null;
+        }
+
+        long getOrder()
+        {
+            return this.order;
+        }
+
+        Rule withOrder(long newOrder)
+        {
+            return new Rule(this.path, this.pattern, this.target, newOrder);
+        }
+
+        /**
+         * @return the target of the rule for a path matching its regex, with the references to the groups replaced
+         */
+        String expand(Matcher matcher)
+        {
+            StringBuilder result = new StringBuilder();
+            matcher.appendReplacement(result, this.target);
+            return result.toString();
+        }
+    }
+
+    private WikiRulesIndex(Map<String, List<Rule>> exactRules, List<Rule> patternRules,
+        Map<DocumentReference, List<Rule>> rulesByDocument, Map<DocumentReference, Long> documentOrders,
+        long nextDocumentOrder)
+    {
+        this.exactRules = exactRules;
+        this.patternRules = patternRules;
+        this.rulesByDocument = rulesByDocument;
+        this.documentOrders = documentOrders;
+        this.nextDocumentOrder = nextDocumentOrder;
+    }
+
+    /**
+     * @param path the path to convert, relative to the prefix of the handler
+     * @return the target of the first rule applying to the path, or null if no rule applies to it
+     */
+    String getTarget(String path)
+    {
+        List<Rule> exact = this.exactRules.get(path);
+        if (exact != null) {
+            return exact.get(0).getTarget();
+        }
+        for (Rule rule : this.patternRules) {
+            Matcher matcher = rule.pattern.matcher(path);
+            if (matcher.matches()) {
+                try {
+                    return rule.expand(matcher);
+                } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+                    // the target references a group which does not exist, the next rules may apply
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the number of rules of the snapshot
+     */
+    int size()
+    {
+        int size = 0;
+        for (List<Rule> rules : this.rulesByDocument.values()) {
+            size += rules.size();
+        }
+        return size;
+    }
+
+    /**
+     * Builds a new snapshot where the rules of the given documents replace their previous rules. The documents keep
+     * their precedence, and the new documents come after the other ones.
+     *
+     * @param updates the new rules of the updated documents, an empty list removing the rules of a document
+     * @return the new snapshot
+     */
+    WikiRulesIndex update(Map<DocumentReference, List<Rule>> updates)
+    {
+        Map<String, List<Rule>> exact = new HashMap<>(this.exactRules);
+        Map<DocumentReference, List<Rule>> byDocument = new LinkedHashMap<>(this.rulesByDocument);
+        Map<DocumentReference, Long> orders = new HashMap<>(this.documentOrders);
+        long nextOrder = this.nextDocumentOrder;
+        boolean patternsChanged = false;
+
+        for (Map.Entry<DocumentReference, List<Rule>> update : updates.entrySet()) {
+            DocumentReference document = update.getKey();
+            List<Rule> previous = byDocument.getOrDefault(document, Collections.emptyList());
+            for (Rule rule : previous) {
+                patternsChanged |= rule.isRegex();
+                if (!rule.isRegex()) {
+                    remove(exact, rule);
+                }
+            }
+
+            List<Rule> rules = new ArrayList<>(update.getValue().size());
+            if (update.getValue().isEmpty()) {
+                byDocument.remove(document);
+                orders.remove(document);
+            } else {
+                Long documentOrder = orders.get(document);
+                if (documentOrder == null) {
+                    documentOrder = nextOrder++;
+                    orders.put(document, documentOrder);
+                }
+                for (Rule rule : update.getValue()) {
+                    Rule ordered = rule.withOrder((documentOrder << POSITION_BITS) + rules.size());
+                    rules.add(ordered);
+                    patternsChanged |= ordered.isRegex();
+                    if (!ordered.isRegex()) {
+                        add(exact, ordered);
+                    }
+                }
+                byDocument.put(document, Collections.unmodifiableList(rules));
+            }
+        }
+
+        List<Rule> patterns = patternsChanged ? getPatternRules(byDocument) : this.patternRules;
+        return new WikiRulesIndex(exact, patterns, byDocument, orders, nextOrder);
+    }
+
+    private static void add(Map<String, List<Rule>> exact, Rule rule)
+    {
+        List<Rule> rules = new ArrayList<>(exact.getOrDefault(rule.getPath(), Collections.emptyList()));
+        rules.add(rule);
+        rules.sort(PRECEDENCE);
+        exact.put(rule.getPath(), Collections.unmodifiableList(rules));
+    }
+
+    private static void remove(Map<String, List<Rule>> exact, Rule rule)
+    {
+        List<Rule> rules = new ArrayList<>(exact.getOrDefault(rule.getPath(), Collections.emptyList()));
+        rules.remove(rule);
+        if (rules.isEmpty()) {
+            exact.remove(rule.getPath());
+        } else {
+            exact.put(rule.getPath(), Collections.unmodifiableList(rules));
+        }
+    }
+
+    private static List<Rule> getPatternRules(Map<DocumentReference, List<Rule>> byDocument)
+    {
+        List<Rule> patterns = new ArrayList<>();
+        for (List<Rule> rules : byDocument.values()) {
+            for (Rule rule : rules) {
+                if (rule.isRegex()) {
+                    patterns.add(rule);
+                }
+            }
+        }
+        patterns.sort(PRECEDENCE);
+        return Collections.unmodifiableList(patterns);
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.urlmapping.internal;
+
+import java.util.List;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+import org.xwiki.bridge.event.DocumentCreatedEvent;
+import org.xwiki.bridge.event.DocumentDeletedEvent;
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.component.manager.ComponentManager;
+import org.xwiki.contrib.urlmapping.URLMappingPrefixHandler;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.event.Event;
+
+import com.xpn.xwiki.doc.XWikiDocument;
+
+/**
+ * Updates the URL mapping rules of the documents saved or deleted, see {@link WikiRulesURLMappingPrefixHandler}. Only
+ * the documents which had or have rules are given to the handler.
+ *
+ * @version $Id$
+ * @since 0.0.7
+ */
+@Component
+@Singleton
+@Named(WikiRulesListener.HINT)
+public class WikiRulesListener implements EventListener
+{
+    static final String HINT = "urlmappingwikirules";
+
+    @Inject
+    private Provider<ComponentManager> rootComponentManagerProvider;
+
+    @Inject
+    private Logger logger;
+
+    @Override
+    public String getName()
+    {
+        return HINT;
+    }
+
+    @Override
+    public List<Event> getEvents()
+    {
+        return List.of(
+            new DocumentCreatedEvent(),
+            new DocumentUpdatedEvent(),
+            new DocumentDeletedEvent()
+        );
+    }
+
+    @Override
+    public void onEvent(Event event, Object source, Object data)
+    {
+        XWikiDocument document = (XWikiDocument) source;
+        try {
+            WikiRulesURLMappingPrefixHandler handler = (WikiRulesURLMappingPrefixHandler) this
+                .rootComponentManagerProvider.get()
+                .getInstance(URLMappingPrefixHandler.class, WikiRulesURLMappingPrefixHandler.HINT);
+            DocumentReference ruleClass = handler.getRuleClassReference();
+            XWikiDocument original = document.getOriginalDocument();
+            if (!document.getXObjects(ruleClass).isEmpty()
+                || original != null && !original.getXObjects(ruleClass).isEmpty())
+            {
+                handler.updateRules(document);
+            }
+        } catch (ComponentLookupException e) {
+            this.logger.error("Failed to update the URL mapping rules of [{}]", document.getDocumentReference(), e);
+        }
+    }
+}
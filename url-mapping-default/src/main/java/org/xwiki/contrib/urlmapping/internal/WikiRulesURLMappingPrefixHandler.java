@@ -0,0 +1,278 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.urlmapping.internal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.PatternSyntaxException;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.contrib.urlmapping.AbstractURLMapper;
+import org.xwiki.contrib.urlmapping.AbstractURLMappingPrefixHandler;
+import org.xwiki.contrib.urlmapping.DefaultURLMappingMatch;
+import org.xwiki.contrib.urlmapping.DefaultURLMappingResult;
+import org.xwiki.contrib.urlmapping.URLMapper;
+import org.xwiki.contrib.urlmapping.URLMappingMatch;
+import org.xwiki.contrib.urlmapping.URLMappingResult;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.model.reference.WikiReference;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryException;
+import org.xwiki.query.QueryManager;
+import org.xwiki.resource.ResourceReference;
+import org.xwiki.resource.entity.EntityResourceAction;
+import org.xwiki.resource.entity.EntityResourceReference;
+import org.xwiki.security.authorization.AuthorizationManager;
+import org.xwiki.security.authorization.Right;
+import org.xwiki.wiki.descriptor.WikiDescriptorManager;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+
+/**
+ * A URL prefix handler converting paths with rules defined as objects in the pages of the main wiki, so that editors
+ * can manage redirections without writing URL mappers. Each object of the rule class has a {@code path}, a
+ * {@code target} and a {@code regex} property: the path is either the path to convert, relative to the prefix of the
+ * handler, or a regex matching the paths to convert, whose groups can be referenced in the target like {@code $1}. The
+ * target is a URL when it starts with {@code /} or contains {@code ://}, and the reference of the document to view
+ * otherwise.
+ * <p>
+ * The handler is only used when its prefix is configured with {@code urlmapping.prefixhandlers.wikirules.prefix}. The
+ * rule class is {@code URLMapping.Code.URLMappingRuleClass} by default, and can be changed with
+ * {@code urlmapping.prefixhandlers.wikirules.ruleClass}.
+ * <p>
+ * Since the rules redirect any visitor of the wiki, only the rules of the documents whose last author has the admin
+ * or programming right on the main wiki are used: the rules of the other documents are ignored, until the document is
+ * saved by such an author.
+ * <p>
+ * The rules are loaded once in memory, with a single query, the first time they are needed. Then the rules of a
+ * document are updated each time it's saved or deleted (see {@link WikiRulesListener}): the conversions use the
+ * published index and never query the database.
+ *
+ * @version $Id$
+ * @since 0.0.7
+ */
+@Component
+@Singleton
+@Named(WikiRulesURLMappingPrefixHandler.HINT)
+public class WikiRulesURLMappingPrefixHandler extends AbstractURLMappingPrefixHandler
+{
+    static final String HINT = "wikirules";
+
+    private static final String RULE_CLASS = "urlmapping.prefixhandlers.wikirules.ruleClass";
+
+    private static final String DEFAULT_RULE_CLASS = "URLMapping.Code.URLMappingRuleClass";
+
+    private static final String PATH = "path";
+
+    private static final String TARGET = "target";
+
+    private static final String REGEX = "regex";
+
+    private static final String SLASH = "/";
+
+    private static final String RULES_QUERY =
+        "select distinct obj.name from BaseObject obj where obj.className = :className";
+
+    @Inject
+    private Provider<XWikiContext> contextProvider;
+
+    @Inject
+    private QueryManager queryManager;
+
+    @Inject
+    private WikiDescriptorManager wikiDescriptorManager;
+
+    @Inject
+    private ConfigurationSource configurationSource;
+
+    @Inject
+    private AuthorizationManager authorizationManager;
+
+    @Inject
+    @Named("current")
+    private DocumentReferenceResolver<String> documentReferenceResolver;
+
+    @Inject
+    @Named("local")
+    private EntityReferenceSerializer<String> localSerializer;
+
+    @Inject
+    private Logger logger;
+
+    private volatile WikiRulesIndex index;
+
+    /**
+     * Converts the paths with the rules of the current index.
+     */
+    private final class WikiRulesURLMapper extends AbstractURLMapper
+    {
+        @Override
+        public URLMappingResult convert(URLMappingMatch match)
+        {
+            String target = getIndex().getTarget(match.getMatchedURL());
+            if (target == null) {
+                return null;
+            }
+            if (target.startsWith(SLASH) || target.contains("://")) {
+                return new DefaultURLMappingResult(getConfiguration(), target);
+            }
+            DocumentReference reference = documentReferenceResolver.resolve(target);
+            return new DefaultURLMappingResult(getConfiguration(),
+                new EntityResourceReference(reference, EntityResourceAction.VIEW));
+        }
+
+        @Override
+        public ResourceReference convert(DefaultURLMappingMatch match)
+        {
+            return null;
+        }
+    }
+
+    @Override
+    protected URLMapper[] getMappers()
+    {
+        return new URLMapper[] {
+            new WikiRulesURLMapper()
+        };
+    }
+
+    /**
+     * @return the reference of the class of the rule objects, in the main wiki
+     */
+    public DocumentReference getRuleClassReference()
+    {
+        String ruleClass = this.configurationSource.getProperty(RULE_CLASS, DEFAULT_RULE_CLASS);
+        return this.documentReferenceResolver.resolve(ruleClass,
+            new WikiReference(this.wikiDescriptorManager.getMainWikiId()));
+    }
+
+    /**
+     * Updates the rules of a document, if the rules were already loaded. Documents of other wikis than the main wiki
+     * are ignored.
+     *
+     * @param document the saved document, or the deleted document, which has no objects anymore
+     */
+    public void updateRules(XWikiDocument document)
+    {
+        DocumentReference reference = document.getDocumentReference();
+        if (!reference.getWikiReference().getName().equals(this.wikiDescriptorManager.getMainWikiId())) {
+            return;
+        }
+        // waits for the rules being loaded, which may not include the changes of the document
+        synchronized (this) {
+            if (this.index != null) {
+                this.index = this.index.update(Collections.singletonMap(reference, getRules(document)));
+                this.logger.debug("Updated the URL mapping rules of [{}]", reference);
+            }
+        }
+    }
+
+    private WikiRulesIndex getIndex()
+    {
+        WikiRulesIndex current = this.index;
+        if (current == null) {
+            synchronized (this) {
+                current = this.index;
+                if (current == null) {
+                    current = loadRules();
+                    this.index = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    private WikiRulesIndex loadRules()
+    {
+        XWikiContext context = this.contextProvider.get();
+        DocumentReference ruleClass = getRuleClassReference();
+        Map<DocumentReference, List<WikiRulesIndex.Rule>> rules = new LinkedHashMap<>();
+        try {
+            List<String> documents = this.queryManager.createQuery(RULES_QUERY, Query.HQL)
+                .bindValue("className", this.localSerializer.serialize(ruleClass))
+                .setWiki(ruleClass.getWikiReference().getName())
+                .execute();
+            for (String document : documents) {
+                DocumentReference reference =
+                    this.documentReferenceResolver.resolve(document, ruleClass.getWikiReference());
+                rules.put(reference, getRules(context.getWiki().getDocument(reference, context)));
+            }
+        } catch (QueryException | XWikiException e) {
+            this.logger.error("Failed to load the URL mapping rules of class [{}], only the rules of the documents "
+                + "saved from now on will be used", ruleClass, e);
+        }
+        WikiRulesIndex loaded = WikiRulesIndex.EMPTY.update(rules);
+        this.logger.info("Loaded [{}] URL mapping rules from [{}] documents", loaded.size(), rules.size());
+        return loaded;
+    }
+
+    private List<WikiRulesIndex.Rule> getRules(XWikiDocument document)
+    {
+        List<BaseObject> objects = document.getXObjects(getRuleClassReference());
+        if (!objects.isEmpty() && !canDefineRules(document.getAuthorReference())) {
+            this.logger.warn("Ignoring the URL mapping rules of [{}], its author [{}] doesn't have the admin or "
+                + "programming right on the main wiki", document.getDocumentReference(), document.getAuthorReference());
+            return Collections.emptyList();
+        }
+        List<WikiRulesIndex.Rule> rules = new ArrayList<>(objects.size());
+        for (BaseObject object : objects) {
+            if (object == null) {
+                continue;
+            }
+            boolean regex = object.getIntValue(REGEX) == 1;
+            String path = regex ? object.getStringValue(PATH) : StringUtils.stripStart(object.getStringValue(PATH),
+                SLASH);
+            String target = StringUtils.trim(object.getStringValue(TARGET));
+            if (StringUtils.isBlank(path) || StringUtils.isBlank(target)) {
+                continue;
+            }
+            try {
+                rules.add(new WikiRulesIndex.Rule(path, regex, target));
+            } catch (PatternSyntaxException e) {
+                this.logger.warn("Ignoring the URL mapping rule [{}] of [{}], its path is not a valid regex: [{}]",
+                    object.getNumber(), document.getDocumentReference(), e.getMessage());
+            }
+        }
+        return rules;
+    }
+
+    private boolean canDefineRules(DocumentReference author)
+    {
+        WikiReference mainWiki = new WikiReference(this.wikiDescriptorManager.getMainWikiId());
+        return this.authorizationManager.hasAccess(Right.ADMIN, author, mainWiki)
+            || this.authorizationManager.hasAccess(Right.PROGRAMMING, author, mainWiki);
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.urlmapping;
+
+import javax.inject.Named;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.resource.ResourceReference;
+import org.xwiki.resource.entity.EntityResourceAction;
+import org.xwiki.resource.entity.EntityResourceReference;
+
+@Component
+@Named("testcached")
+public class TestCachedURLMappingPrefixHandler extends AbstractURLMappingPrefixHandler
+{
+    private int conversions;
+
+    @Override
+    protected void initializeConfigurationDefaults(DefaultURLMappingConfiguration configuration)
+    {
+        configuration.setDefault(DefaultURLMappingConfiguration.Key.RESULT_CACHE, true);
+    }
+
+    @Override
+    protected URLMapper[] getMappers()
+    {
+        return new URLMapper[] {
+            new AbstractURLMapper("^page$")
+            {
+                {
+                    setCacheable(true);
+                }
+
+                @Override
+                public ResourceReference convert(DefaultURLMappingMatch match)
+                {
+                    conversions++;
+                    return new EntityResourceReference(
+                        new DocumentReference("mywiki", "MySpace", "MyDoc"),
+                        EntityResourceAction.VIEW
+                    );
+                }
+            }
+        };
+    }
+
+    public int getConversions()
+    {
+        return this.conversions;
+    }
+}
@@ -57,6 +57,18 @@ public class TestCustomIntroURLMappingPrefixHandler extends AbstractURLMappingPr
                 {
                     return null;
                 }
+
+                @Override
+                public boolean isCacheable()
+                {
+                    return false;
+                }
+
+                @Override
+                public boolean isIndependent()
+                {
+                    return false;
+                }
             })
             {
                 @Override
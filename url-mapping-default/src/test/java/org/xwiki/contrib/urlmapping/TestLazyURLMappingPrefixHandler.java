@@ -0,0 +1,66 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.urlmapping;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.inject.Named;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.resource.ResourceReference;
+
+@Component
+@Named("testlazy")
+@URLMappingPrefix("lazyprefix")
+public class TestLazyURLMappingPrefixHandler extends AbstractURLMappingPrefixHandler
+{
+    private static final AtomicInteger INSTANCES = new AtomicInteger();
+
+    public TestLazyURLMappingPrefixHandler()
+    {
+        INSTANCES.incrementAndGet();
+    }
+
+    @Override
+    protected URLMapper[] getMappers()
+    {
+        return new URLMapper[] {
+            new AbstractURLMapper()
+            {
+                @Override
+                public ResourceReference convert(DefaultURLMappingMatch match)
+                {
+                    throw new UnsupportedOperationException();
+                }
+
+                @Override
+                public URLMappingResult convert(URLMappingMatch match)
+                {
+                    return new DefaultURLMappingResult(getConfiguration(), "/lazy");
+                }
+            }
+        };
+    }
+
+    public static int getInstances()
+    {
+        return INSTANCES.get();
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.urlmapping;
+
+import javax.inject.Named;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.resource.ResourceReference;
+
+@Component
+@Named("testtemplate")
+public class TestTemplateURLMappingPrefixHandler extends AbstractURLMappingPrefixHandler
+{
+    @Override
+    protected URLMapper[] getMappers()
+    {
+        return new URLMapper[] {
+            new AbstractURLMapper(new TemplateURLMappingSpecification("display/{space}/{page}", "view/{id:int}"))
+            {
+                @Override
+                public ResourceReference convert(DefaultURLMappingMatch match)
+                {
+                    throw new UnsupportedOperationException();
+                }
+
+                @Override
+                public URLMappingResult convert(URLMappingMatch match)
+                {
+                    TemplateURLMappingMatch m = (TemplateURLMappingMatch) match;
+                    String target = m.getVariable("id") == null
+                        ? "/" + m.getVariable("space") + "/" + m.getVariable("page")
+                        : "/id/" + m.getVariable("id");
+                    return new DefaultURLMappingResult(getConfiguration(), target);
+                }
+            },
+            new AbstractURLMapper("^legacy/.*$")
+            {
+                @Override
+                public ResourceReference convert(DefaultURLMappingMatch match)
+                {
+                    throw new UnsupportedOperationException();
+                }
+
+                @Override
+                public URLMappingResult convert(URLMappingMatch match)
+                {
+                    return new DefaultURLMappingResult(getConfiguration(), "/legacy");
+                }
+            },
+            new AbstractURLMapper(new TemplateURLMappingSpecification("files/{rest:path}"))
+            {
+                @Override
+                public ResourceReference convert(DefaultURLMappingMatch match)
+                {
+                    throw new UnsupportedOperationException();
+                }
+
+                @Override
+                public URLMappingResult convert(URLMappingMatch match)
+                {
+                    // mappers written for regexes get the named groups
+                    return new DefaultURLMappingResult(getConfiguration(),
+                        "/files/" + ((DefaultURLMappingMatch) match).getMatcher().group("rest"));
+                }
+            }
+        };
+    }
+}
@@ -124,6 +124,22 @@ public class TestURLMappingPrefixHandler extends AbstractURLMappingPrefixHandler
                     return new DefaultURLMappingResult(configuration, match.getMatchResult().group(1));
                 }
             },
+            new AbstractURLMapper(new DefaultURLMappingSpecification("^2CACHEDURL$"))
+            {
+                @Override
+                public ResourceReference convert(DefaultURLMappingMatch match)
+                {
+                    throw new UnsupportedOperationException();
+                }
+
+                @Override
+                public URLMappingResult convert(URLMappingMatch match)
+                {
+                    DefaultURLMappingResult result = new DefaultURLMappingResult(configuration, "/cachedurl");
+                    result.setCacheControl("public, max-age=60");
+                    return result;
+                }
+            },
             new URLMapper()
             {
                 @Override
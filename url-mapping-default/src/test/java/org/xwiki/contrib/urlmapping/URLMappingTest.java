@@ -20,45 +20,77 @@
 package org.xwiki.contrib.urlmapping;
 
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
 
 import javax.inject.Inject;
 import javax.inject.Provider;
+import javax.servlet.AsyncContext;
 import javax.servlet.ServletOutputStream;
 
 import static org.hamcrest.Matchers.hasItem;
 import static org.hamcrest.Matchers.not;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import org.apache.commons.lang3.StringUtils;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
 import org.junit.jupiter.params.provider.ValueSource;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
 import org.xwiki.cache.Cache;
 import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.CacheConfiguration;
+import org.xwiki.component.annotation.ComponentAnnotationLoader;
 import org.xwiki.component.descriptor.ComponentDescriptor;
+import org.xwiki.component.embed.EmbeddableComponentManager;
 import org.xwiki.component.event.ComponentDescriptorAddedEvent;
 import org.xwiki.component.event.ComponentDescriptorRemovedEvent;
-import org.xwiki.component.manager.ComponentLookupException;
 import org.xwiki.component.manager.ComponentManager;
 import org.xwiki.component.util.DefaultParameterizedType;
 import org.xwiki.configuration.ConfigurationSource;
 import org.xwiki.container.Container;
 import org.xwiki.container.servlet.ServletRequest;
 import org.xwiki.container.servlet.ServletResponse;
+import org.xwiki.context.ExecutionContextManager;
+import org.xwiki.contrib.urlmapping.internal.AsyncURLMappingProcessor;
+import org.xwiki.contrib.urlmapping.internal.DefaultURLMappingImporter;
 import org.xwiki.contrib.urlmapping.internal.DefaultURLMappingRedirector;
+import org.xwiki.contrib.urlmapping.internal.EntityURLCache;
+import org.xwiki.contrib.urlmapping.internal.EntityURLCacheListener;
+import org.xwiki.contrib.urlmapping.internal.NotFoundPageCache;
+import org.xwiki.contrib.urlmapping.internal.NotFoundPageCacheListener;
+import org.xwiki.contrib.urlmapping.internal.PrecompiledRedirectScreens;
 import org.xwiki.contrib.urlmapping.internal.URLMappingResourceReferenceHandler;
 import org.xwiki.contrib.urlmapping.internal.URLMappingResourceReferenceResolver;
+import org.xwiki.contrib.urlmapping.internal.URLMappingScreenWriter;
 import org.xwiki.contrib.urlmapping.internal.URLPrefixHandlerRegistrationListener;
+import org.xwiki.contrib.urlmapping.internal.URLPrefixHandlerRoutesBuilder;
+import org.xwiki.contrib.urlmapping.internal.URLPrefixHandlerWarmUp;
+import org.xwiki.contrib.urlmapping.internal.WikiRulesListener;
+import org.xwiki.contrib.urlmapping.internal.WikiRulesURLMappingPrefixHandler;
+import org.xwiki.job.event.JobFinishedEvent;
+import org.xwiki.job.event.JobStartedEvent;
 import org.xwiki.job.event.status.JobProgressManager;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.EntityReference;
+import org.xwiki.model.reference.WikiReference;
 import org.xwiki.observation.EventListener;
 import org.xwiki.observation.event.ApplicationStartedEvent;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryManager;
 import org.xwiki.resource.ResourceReference;
 import org.xwiki.resource.ResourceReferenceHandlerChain;
 import org.xwiki.resource.ResourceReferenceResolver;
@@ -66,6 +98,7 @@ import org.xwiki.resource.ResourceType;
 import org.xwiki.resource.internal.MainResourceReferenceHandlerManager;
 import org.xwiki.security.authorization.AuthorizationManager;
 import org.xwiki.security.authorization.ContextualAuthorizationManager;
+import org.xwiki.security.authorization.Right;
 import org.xwiki.template.TemplateManager;
 import org.xwiki.test.annotation.BeforeComponent;
 import org.xwiki.test.annotation.ComponentList;
@@ -80,6 +113,8 @@ import org.xwiki.wiki.descriptor.WikiDescriptorManager;
 
 import com.xpn.xwiki.XWiki;
 import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
 import com.xpn.xwiki.plugin.XWikiPluginManager;
 import com.xpn.xwiki.test.junit5.mockito.OldcoreTest;
 import com.xpn.xwiki.test.reference.ReferenceComponentList;
@@ -93,10 +128,18 @@ import static org.hamcrest.Matchers.containsString;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyBoolean;
 import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.after;
+import static org.mockito.Mockito.atLeastOnce;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -109,13 +152,40 @@ import static org.mockito.Mockito.when;
 @OldcoreTest
 @ComponentList({
     DefaultURLMappingRedirector.class,
+    URLMappingScreenWriter.class,
+    DefaultURLMappingImporter.class,
+    PrecompiledRedirectScreens.class,
+    EntityURLCache.class,
+    EntityURLCacheListener.class,
+    AsyncURLMappingProcessor.class,
+    NotFoundPageCache.class,
+    NotFoundPageCacheListener.class,
     TestURLMappingPrefixHandler.class,
     TestDelayedURLMappingPrefixHandler.class,
     TestCustomIntroURLMappingPrefixHandler.class,
     TestCustomRedirectStatusURLMappingPrefixHandler.class,
     TestCustomRuntimeConfigIntroHandlerMapping.class,
+    TestCompiledURLMappingPrefixHandler.class,
+    TestPrefilteredURLMappingPrefixHandler.class,
+    TestDynamicURLMappingPrefixHandler.class,
+    TestCachedURLMappingPrefixHandler.class,
+    TestUnmatchedURLMappingPrefixHandler.class,
+    TestConcurrentURLMappingPrefixHandler.class,
+    TestSlowURLMappingPrefixHandler.class,
+    TestReuseURLMappingPrefixHandler.class,
+    TestTemplateURLMappingPrefixHandler.class,
+    TestAdaptiveURLMappingPrefixHandler.class,
+    TestNestedURLMappingPrefixHandler.class,
+    TestDeepNestedURLMappingPrefixHandler.class,
+    TestLazyURLMappingPrefixHandler.class,
+    TestStaticTableURLMappingPrefixHandler.class,
+    TestSubtreeURLMappingPrefixHandler.class,
     URLPrefixHandlerRegistrationListener.class,
-    URLMappingResourceReferenceHandler.class
+    URLPrefixHandlerRoutesBuilder.class,
+    URLPrefixHandlerWarmUp.class,
+    URLMappingResourceReferenceHandler.class,
+    WikiRulesURLMappingPrefixHandler.class,
+    WikiRulesListener.class
 })
 @ReferenceComponentList
 @PageComponentList
@@ -135,6 +205,9 @@ class URLMappingTest
     @MockComponent
     Container container;
 
+    @MockComponent
+    ExecutionContextManager executionContextManager;
+
     @InjectComponentManager
     private MockitoComponentManager componentManager;
 
@@ -159,6 +232,9 @@ class URLMappingTest
     @MockComponent
     XWikiContext context;
 
+    @MockComponent
+    QueryManager queryManager;
+
     @Inject
     private TemplateManager templateManager;
 
@@ -166,6 +242,8 @@ class URLMappingTest
 
     private XWikiRequest request;
 
+    private Cache<Object> cache;
+
     private static int nextChainCalled = 0;
 
     private static final ResourceReferenceHandlerChain dummyChain = reference -> nextChainCalled++;
@@ -202,7 +280,7 @@ class URLMappingTest
         componentManager.registerComponent(ComponentManager.class, "context", componentManager);
         componentManager.registerComponent(ConfigurationSource.class, "all", configurationSource);
         componentManager.registerComponent(ConfigurationSource.class, "xwikicfg", configurationSource);
-        Cache<Object> cache = mock(Cache.class);
+        cache = mock(Cache.class);
         when(cacheManager.createNewCache(any())).thenReturn(cache);
 
         when(configurationSource.getProperty(any(), (String) any())).thenAnswer(c -> c.getArgument(1));
@@ -217,6 +295,21 @@ class URLMappingTest
         conf("urlmapping.prefixhandlers.testcustomredirect.prefix", "customredirect");
         conf("urlmapping.prefixhandlers.testcustomredirect.redirectHttpStatus", 307);
         conf("urlmapping.prefixhandlers.customruntimeconfig.prefix", "customruntimeconfig");
+        conf("urlmapping.prefixhandlers.testcompiled.prefix", "compiledprefix");
+        conf("urlmapping.prefixhandlers.testprefiltered.prefix", "prefilteredprefix");
+        conf("urlmapping.prefixhandlers.testdynamic.prefix", "dynamicprefix");
+        conf("urlmapping.prefixhandlers.testcached.prefix", "cachedprefix");
+        conf("urlmapping.prefixhandlers.testunmatched.prefix", "unmatchedprefix");
+        conf("urlmapping.prefixhandlers.testconcurrent.prefix", "concurrentprefix");
+        conf("urlmapping.prefixhandlers.testslow.prefix", "slowprefix");
+        conf("urlmapping.prefixhandlers.testreuse.prefix", "reuseprefix");
+        conf("urlmapping.prefixhandlers.testtemplate.prefix", "templateprefix");
+        conf("urlmapping.prefixhandlers.testadaptive.prefix", "adaptiveprefix");
+        conf("urlmapping.prefixhandlers.testnested.prefix", "nested");
+        conf("urlmapping.prefixhandlers.testdeepnested.prefix", "/nested/deep/");
+        conf("urlmapping.prefixhandlers.teststatic.prefix", "staticprefix");
+        conf("urlmapping.prefixhandlers.wikirules.prefix", "rulesprefix");
+        conf("urlmapping.prefixhandlers.testsubtree.prefix", "subtreeprefix");
         conf("logging.deprecated.enabled", true);
     }
 
@@ -273,7 +366,7 @@ class URLMappingTest
         mainResourceReferenceHandlerManager.handle(getResourceReference(path));
     }
 
-    private ResourceReference getResourceReference(String path) throws ComponentLookupException
+    private ResourceReference getResourceReference(String path) throws Exception
     {
         String[] segments = StringUtils.stripStart(path, "/").split("/");
         ExtendedURL eURL = new ExtendedURL(Arrays.stream(segments).skip(1).collect(Collectors.toList()));
@@ -373,6 +466,195 @@ class URLMappingTest
         verify(this.response).setStatus(429);
     }
 
+    @Test
+    void testPrecompiledRedirectScreen() throws Exception
+    {
+        conf("urlmapping.prefixhandlers.testcustomintro.precompiledRedirectScreen", true);
+
+        httpGet("/customintro/hello");
+        assertThat(html.get(), containsString("&#60;Redirecting&#62;. Please update your bookmarks."));
+        assertThat(html.get(), containsString("<meta http-equiv=\"refresh\" content=\"3; url=/bye\" />"));
+        httpGet("/customintro/hello");
+        assertThat(html.get(), containsString("<a href=\"/bye\">/bye</a>"));
+
+        // the template is only rendered once
+        verify(getXWikiContext().getWiki()).evaluateTemplate(any(), any());
+        verify(this.response, times(2)).setStatus(429);
+    }
+
+    @Test
+    void testPrecompiledRedirectScreenByWiki() throws Exception
+    {
+        conf("urlmapping.prefixhandlers.testcustomintro.precompiledRedirectScreen", true);
+        XWikiContext xcontext = getXWikiContext();
+
+        // the template is rendered once per wiki
+        xcontext.setWikiId("wiki1");
+        httpGet("/customintro/hello");
+        xcontext.setWikiId("wiki2");
+        httpGet("/customintro/hello");
+        xcontext.setWikiId("wiki1");
+        httpGet("/customintro/hello");
+        verify(xcontext.getWiki(), times(2)).evaluateTemplate(any(), any());
+    }
+
+    @Test
+    void testEntityURLCache() throws Exception
+    {
+        httpGet("/myprefix/expectedmatch");
+        ArgumentCaptor<String> key = ArgumentCaptor.forClass(String.class);
+        verify(this.cache).set(key.capture(), eq("/hello"));
+        when(this.cache.get(key.getValue())).thenReturn("/cached");
+
+        httpGet("/myprefix/expectedmatch");
+        verify(this.response).sendRedirect("/cached");
+
+        // the URLs are generated again once a wiki descriptor is saved
+        EventListener listener = componentManager.getInstance(EventListener.class, "urlmappingentityurls");
+        listener.onEvent(new DocumentUpdatedEvent(),
+            new XWikiDocument(new DocumentReference("xwiki", "XWiki", "XWikiServerSubwiki")), null);
+        verify(this.cache).removeAll();
+    }
+
+    @Test
+    void testNotFoundPageCache() throws Exception
+    {
+        when(this.request.getRequestURI()).thenReturn("/xwiki/myprefix/unexpectedmatch");
+
+        httpGet("/myprefix/unexpectedmatch");
+        assertThat(html.get(), containsString("url-mapping-suggestions"));
+        html.set(null);
+        httpGet("/myprefix/unexpectedmatch");
+        assertThat(html.get(), containsString("url-mapping-suggestions"));
+
+        // the page is only rendered once, and both answers have the same entity tag
+        XWiki wiki = getXWikiContext().getWiki();
+        verify(wiki).evaluateTemplate(any(), any());
+        ArgumentCaptor<String> etag = ArgumentCaptor.forClass(String.class);
+        verify(this.response, times(2)).setHeader(eq("ETag"), etag.capture());
+        assertEquals(etag.getAllValues().get(0), etag.getAllValues().get(1));
+
+        when(this.request.getHeader("If-None-Match")).thenReturn(etag.getValue());
+        html.set(null);
+        httpGet("/myprefix/unexpectedmatch");
+        verify(this.response).setStatus(304);
+        assertEquals(null, html.get());
+
+        // the page is rendered again once the preferences of a wiki are saved
+        EventListener listener = componentManager.getInstance(EventListener.class, "urlmappingnotfoundpages");
+        listener.onEvent(new DocumentUpdatedEvent(),
+            new XWikiDocument(new DocumentReference("xwiki", "XWiki", "XWikiPreferences")), null);
+        httpGet("/myprefix/unexpectedmatch");
+        verify(wiki, times(2)).evaluateTemplate(any(), any());
+    }
+
+    @Test
+    void testNotFoundPageCacheByWiki() throws Exception
+    {
+        when(this.request.getRequestURI()).thenReturn("/xwiki/myprefix/unexpectedmatch");
+        XWikiContext xcontext = getXWikiContext();
+        XWiki wiki = xcontext.getWiki();
+
+        // the same URI gets its own page in each wiki
+        xcontext.setWikiId("wiki1");
+        httpGet("/myprefix/unexpectedmatch");
+        xcontext.setWikiId("wiki2");
+        httpGet("/myprefix/unexpectedmatch");
+        verify(wiki, times(2)).evaluateTemplate(any(), any());
+
+        xcontext.setWikiId("wiki1");
+        httpGet("/myprefix/unexpectedmatch");
+        xcontext.setWikiId("wiki2");
+        httpGet("/myprefix/unexpectedmatch");
+        verify(wiki, times(2)).evaluateTemplate(any(), any());
+    }
+
+    @Test
+    void testAsyncProcessing() throws Exception
+    {
+        conf("urlmapping.prefixhandlers.test.async", true);
+        AsyncContext asyncContext = mock(AsyncContext.class);
+        when(this.request.isAsyncSupported()).thenReturn(true);
+        when(this.request.startAsync()).thenReturn(asyncContext);
+
+        httpGet("/myprefix/expectedmatch");
+        verify(asyncContext, timeout(5000)).complete();
+        verify(this.response).sendRedirect("/hello");
+    }
+
+    @Test
+    void testAsyncProcessingTimeout() throws Exception
+    {
+        conf("urlmapping.prefixhandlers.testconcurrent.async", true);
+        conf("urlmapping.prefixhandlers.testconcurrent.asyncTimeout", 10);
+        AsyncContext asyncContext = mock(AsyncContext.class);
+        when(this.request.isAsyncSupported()).thenReturn(true);
+        when(this.request.startAsync()).thenReturn(asyncContext);
+
+        // the first mapper takes 100 ms
+        httpGet("/concurrentprefix/first");
+        verify(asyncContext, timeout(5000)).complete();
+        verify(this.response).setStatus(404);
+        verify(this.response, never()).sendRedirect(any());
+    }
+
+    @Test
+    void testAsyncProcessingTimeoutWhileConverting() throws Exception
+    {
+        conf("urlmapping.prefixhandlers.testslow.async", true);
+        conf("urlmapping.prefixhandlers.testslow.asyncTimeout", 10);
+        AsyncContext asyncContext = mock(AsyncContext.class);
+        when(asyncContext.getResponse()).thenReturn(this.response);
+        when(this.request.isAsyncSupported()).thenReturn(true);
+        when(this.request.startAsync()).thenReturn(asyncContext);
+        TestSlowURLMappingPrefixHandler.release = new CountDownLatch(1);
+
+        // the mapper is still converting when the request is answered, and reads the request afterwards
+        httpGet("/slowprefix/page");
+        verify(this.response, timeout(5000)).setStatus(404);
+        verify(asyncContext, after(200).never()).complete();
+
+        TestSlowURLMappingPrefixHandler.release.countDown();
+        verify(asyncContext, timeout(5000)).complete();
+        InOrder order = inOrder(this.request, asyncContext);
+        order.verify(this.request).getHeader("Referer");
+        order.verify(asyncContext).complete();
+        verify(this.response, never()).sendRedirect(any());
+    }
+
+    @Test
+    void testAsyncProcessingNotSupported() throws Exception
+    {
+        conf("urlmapping.prefixhandlers.test.async", true);
+
+        httpGet("/myprefix/expectedmatch");
+        verify(this.response).sendRedirect("/hello");
+        verify(this.request, never()).startAsync();
+    }
+
+    @Test
+    void testAsyncProcessingQueueFull() throws Exception
+    {
+        // a single request is converted asynchronously at once
+        AsyncURLMappingProcessor processor = componentManager.getInstance(AsyncURLMappingProcessor.class);
+        processor.dispose();
+        conf("urlmapping.asyncThreads", 1);
+        conf("urlmapping.asyncQueueSize", 0);
+        processor.initialize();
+        conf("urlmapping.prefixhandlers.testconcurrent.async", true);
+        AsyncContext asyncContext = mock(AsyncContext.class);
+        when(this.request.isAsyncSupported()).thenReturn(true);
+        when(this.request.startAsync()).thenReturn(asyncContext);
+
+        // the first mapper takes 100 ms, during which the second request is handled in the current thread
+        httpGet("/concurrentprefix/first");
+        httpGet("/concurrentprefix/second");
+        verify(this.response).sendRedirect("/fast");
+        verify(this.request).startAsync();
+        verify(asyncContext, timeout(5000)).complete();
+        verify(this.response).sendRedirect("/slow");
+    }
+
     @Test
     void testWrongMethod() throws Exception
     {
@@ -388,6 +670,36 @@ class URLMappingTest
         verify(this.response).setHeader(HTTP_HEADER_LOCATION, "/bye");
     }
 
+    @Test
+    void testCacheablePermanentRedirect() throws Exception
+    {
+        conf("urlmapping.prefixhandlers.test.redirectHttpStatus", 301);
+        conf("urlmapping.prefixhandlers.test.redirectCacheLifespan", 86400);
+
+        httpGet("/myprefix/expectedmatch");
+        verify(this.response).setStatus(301);
+        verify(this.response).setHeader(HTTP_HEADER_LOCATION, "/hello");
+        verify(this.response).setHeader("Cache-Control", "public, max-age=86400");
+        verify(this.response).setDateHeader(eq("Expires"), anyLong());
+    }
+
+    @Test
+    void testResultCacheControl() throws Exception
+    {
+        httpGet("/myprefix/2CACHEDURL");
+        verify(this.response).setHeader("Cache-Control", "public, max-age=60");
+        verify(this.response).setDateHeader(eq("Expires"), anyLong());
+        verify(this.response).sendRedirect("/cachedurl");
+    }
+
+    @Test
+    void testNotCachedPermanentRedirect() throws Exception
+    {
+        httpGet("/myprefix/01missinglink");
+        verify(this.response).setStatus(301);
+        verify(this.response, never()).setHeader(eq("Cache-Control"), any());
+    }
+
     @Test
     void testNotFoundCustomRedirectStatusCodeConfiguration() throws Exception
     {
@@ -402,6 +714,187 @@ class URLMappingTest
         assertThat(html.get(), containsString("Custom intro"));
     }
 
+    @ParameterizedTest
+    @ValueSource(strings = { "compiledprefix", "prefilteredprefix", "reuseprefix" })
+    void testOptimizedDispatch(String prefix) throws Exception
+    {
+        httpGet("/" + prefix + "/expectedmatch");
+        verify(this.response).sendRedirect("/hello");
+        httpGet("/" + prefix + "/1GETURL/HELLO");
+        verify(this.response).sendRedirect("/HELLO");
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = { "compiledprefix", "prefilteredprefix", "reuseprefix" })
+    void testOptimizedDispatchFallsBackToFollowingMappers(String prefix) throws Exception
+    {
+        httpGet("/" + prefix + "/01missinglink");
+        verify(this.response).setStatus(301);
+        verify(this.response).setHeader(HTTP_HEADER_LOCATION, "/mycustomnotfound");
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = { "compiledprefix", "prefilteredprefix", "reuseprefix" })
+    void testOptimizedDispatchWithSuggestions(String prefix) throws Exception
+    {
+        httpGet("/" + prefix + "/unexpectedmatch");
+        verify(this.response, times(0)).sendRedirect(any());
+        assertThat(html.get(), containsString("url-mapping-suggestions"));
+    }
+
+    @Test
+    void testMappersInvalidation() throws Exception
+    {
+        TestDynamicURLMappingPrefixHandler handler =
+            componentManager.getInstance(URLMappingPrefixHandler.class, "testdynamic");
+
+        httpGet("/dynamicprefix/page");
+        httpGet("/dynamicprefix/page");
+        verify(this.response, times(2)).sendRedirect("/first");
+        assertEquals(1, handler.getMappersCalls());
+
+        handler.setTarget("/second");
+        handler.invalidateMappers();
+        httpGet("/dynamicprefix/page");
+        verify(this.response).sendRedirect("/second");
+        assertEquals(2, handler.getMappersCalls());
+    }
+
+    @Test
+    void testResultCache() throws Exception
+    {
+        TestCachedURLMappingPrefixHandler handler =
+            componentManager.getInstance(URLMappingPrefixHandler.class, "testcached");
+
+        httpGet("/cachedprefix/page");
+        ArgumentCaptor<Object> result = ArgumentCaptor.forClass(Object.class);
+        verify(this.cache).set(eq("get page"), result.capture());
+        when(this.cache.get("get page")).thenReturn(result.getValue());
+
+        httpGet("/cachedprefix/page");
+        verify(this.response, times(2)).sendRedirect("/hello");
+        assertEquals(1, handler.getConversions());
+        assertEquals(1, handler.getResultCacheHitCount());
+        assertEquals(1, handler.getResultCacheMissCount());
+
+        handler.flushResultCache();
+        verify(this.cache).removeAll();
+    }
+
+    @Test
+    void testResultCacheNames() throws Exception
+    {
+        TestCachedURLMappingPrefixHandler handler =
+            componentManager.getInstance(URLMappingPrefixHandler.class, "testcached");
+
+        // the retired and the new generations of the handler don't share their cache
+        httpGet("/cachedprefix/page");
+        handler.invalidateConfiguration();
+        httpGet("/cachedprefix/page");
+
+        ArgumentCaptor<CacheConfiguration> configurations = ArgumentCaptor.forClass(CacheConfiguration.class);
+        verify(this.cacheManager, atLeastOnce()).createNewCache(configurations.capture());
+        List<String> names = configurations.getAllValues().stream().map(CacheConfiguration::getConfigurationId)
+            .filter(name -> name.startsWith("urlmapping.results.testcached.")).collect(Collectors.toList());
+        assertTrue(names.size() >= 2);
+        assertEquals(names.size(), names.stream().distinct().count());
+    }
+
+    @Test
+    void testUnmatchedPathCache() throws Exception
+    {
+        TestUnmatchedURLMappingPrefixHandler handler =
+            componentManager.getInstance(URLMappingPrefixHandler.class, "testunmatched");
+
+        httpGet("/unmatchedprefix/page");
+        verify(this.response).sendRedirect("/first");
+        long emptyMemoryUsage = handler.getUnmatchedPathCacheMemoryUsage();
+        assertEquals(0, handler.getUnmatchedPathCacheFalsePositiveRate());
+
+        httpGet("/unmatchedprefix/junk");
+        verify(this.response).setStatus(404);
+        long memoryUsage = handler.getUnmatchedPathCacheMemoryUsage();
+        assertTrue(memoryUsage > emptyMemoryUsage);
+        assertTrue(handler.getUnmatchedPathCacheFalsePositiveRate() > 0);
+
+        httpGet("/unmatchedprefix/junk");
+        verify(this.response, times(2)).setStatus(404);
+        assertEquals(memoryUsage, handler.getUnmatchedPathCacheMemoryUsage());
+
+        handler.invalidateMappers();
+        httpGet("/unmatchedprefix/page");
+        assertEquals(emptyMemoryUsage, handler.getUnmatchedPathCacheMemoryUsage());
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = { "first", "second" })
+    void testConcurrentEvaluationKeepsDeclarationOrder(String path) throws Exception
+    {
+        httpGet("/concurrentprefix/" + path);
+        verify(this.response).sendRedirect(path.equals("first") ? "/slow" : "/fast");
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = { "first", "second" })
+    void testConcurrentEvaluationLimit(String path) throws Exception
+    {
+        // the second conversion finds no permit and runs in the request thread
+        conf("urlmapping.prefixhandlers.testconcurrent.concurrentEvaluationLimit", 1);
+
+        httpGet("/concurrentprefix/" + path);
+        verify(this.response).sendRedirect(path.equals("first") ? "/slow" : "/fast");
+    }
+
+    @Test
+    void testConcurrentEvaluationFailureAfterResult() throws Exception
+    {
+        // the second conversion fails in the request thread while the first one, still running, converts the path
+        conf("urlmapping.prefixhandlers.testconcurrent.concurrentEvaluationLimit", 1);
+
+        httpGet("/concurrentprefix/firstfailing");
+        verify(this.response).sendRedirect("/slow");
+    }
+
+    @ParameterizedTest
+    @CsvSource({
+        "display/Main/WebHome, /Main/WebHome",
+        "view/42, /id/42",
+        "legacy/view/abc, /legacy",
+        "files/a/b.txt, /files/a/b.txt"
+    })
+    void testTemplates(String path, String target) throws Exception
+    {
+        httpGet("/templateprefix/" + path);
+        verify(this.response).sendRedirect(target);
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = { "display/Main", "view/abc", "display/Main/WebHome/extra" })
+    void testTemplatesNotMatching(String path) throws Exception
+    {
+        httpGet("/templateprefix/" + path);
+        verify(this.response).setStatus(404);
+    }
+
+    @Test
+    void testAdaptiveOrdering() throws Exception
+    {
+        TestAdaptiveURLMappingPrefixHandler handler =
+            componentManager.getInstance(URLMappingPrefixHandler.class, "testadaptive");
+        List<URLMapper> declared = handler.getEffectiveMapperOrder();
+
+        httpGet("/adaptiveprefix/c");
+        verify(this.response).sendRedirect("/c");
+        // c, which converted a path, is now tried first, while b, which is also independent, stays after a
+        assertEquals(Arrays.asList(declared.get(2), declared.get(0), declared.get(1)),
+            handler.getEffectiveMapperOrder());
+
+        httpGet("/adaptiveprefix/a");
+        verify(this.response).sendRedirect("/a");
+        httpGet("/adaptiveprefix/b");
+        verify(this.response).sendRedirect("/b");
+    }
+
     @Test
     void testAddedRemovedPrefixHandler() throws Exception
     {
@@ -417,6 +910,350 @@ class URLMappingTest
         assertThat(getSupportedTypes(), hasItem("myprefix"));
     }
 
+    @ParameterizedTest
+    @CsvSource({
+        "nested/deep/page, /deep/page",
+        "nested/page, /nested/page",
+        "nested/deeper/page, /nested/deeper/page",
+        "nested/deep, /deep/"
+    })
+    void testNestedPrefixes(String path, String target) throws Exception
+    {
+        httpGet("/" + path);
+        verify(this.response).sendRedirect(target);
+        assertThat(getSupportedTypes(), hasItem("nested"));
+        assertThat(getSupportedTypes(), not(hasItem("nested/deep")));
+    }
+
+    @Test
+    void testRegistrationsPostponedDuringJobs() throws Exception
+    {
+        URLPrefixHandlerRegistrationListener l = componentManager.getInstance(EventListener.class, "urlprefixhandler");
+        DefaultParameterizedType resolverType =
+            new DefaultParameterizedType(null, ResourceReferenceResolver.class, ExtendedURL.class);
+        ComponentDescriptor<Object> descriptor = componentManager.getComponentDescriptor(URLMappingPrefixHandler.class,
+            "test");
+
+        List<String> jobId = List.of("extension", "action", "test");
+        l.onEvent(new JobStartedEvent(jobId, "install", null), null, null);
+        componentManager.unregisterComponent(URLMappingPrefixHandler.class, "test");
+        l.onEvent(new ComponentDescriptorRemovedEvent(), componentManager, descriptor);
+        assertTrue(componentManager.hasComponent(resolverType, "myprefix"));
+
+        l.onEvent(new JobFinishedEvent(jobId, "install", null), null, null);
+        assertFalse(componentManager.hasComponent(resolverType, "myprefix"));
+        assertThat(getSupportedTypes(), not(hasItem("myprefix")));
+    }
+
+    @Test
+    void testRegistrationsNotPostponedDuringOtherJobs() throws Exception
+    {
+        URLPrefixHandlerRegistrationListener l = componentManager.getInstance(EventListener.class, "urlprefixhandler");
+        DefaultParameterizedType resolverType =
+            new DefaultParameterizedType(null, ResourceReferenceResolver.class, ExtendedURL.class);
+        ComponentDescriptor<Object> descriptor = componentManager.getComponentDescriptor(URLMappingPrefixHandler.class,
+            "test");
+
+        l.onEvent(new JobStartedEvent(List.of("solr", "indexer"), "solr.indexer", null), null, null);
+        componentManager.unregisterComponent(URLMappingPrefixHandler.class, "test");
+        l.onEvent(new ComponentDescriptorRemovedEvent(), componentManager, descriptor);
+        assertFalse(componentManager.hasComponent(resolverType, "myprefix"));
+    }
+
+    @Test
+    void testLazyPrefixHandler() throws Exception
+    {
+        URLPrefixHandlerRegistrationListener l = componentManager.getInstance(EventListener.class, "urlprefixhandler");
+        int instances = TestLazyURLMappingPrefixHandler.getInstances();
+        l.onEvent(new ApplicationStartedEvent(), null, null);
+        assertThat(getSupportedTypes(), hasItem("lazyprefix"));
+        assertEquals(instances, TestLazyURLMappingPrefixHandler.getInstances());
+
+        httpGet("/lazyprefix/page");
+        httpGet("/lazyprefix/page");
+        verify(this.response, times(2)).sendRedirect("/lazy");
+        assertEquals(instances + 1, TestLazyURLMappingPrefixHandler.getInstances());
+    }
+
+    @Test
+    void testReplacedPrefixHandler() throws Exception
+    {
+        URLPrefixHandlerRegistrationListener l = componentManager.getInstance(EventListener.class, "urlprefixhandler");
+        ComponentDescriptor<URLMappingPrefixHandler> descriptor =
+            componentManager.getComponentDescriptor(URLMappingPrefixHandler.class, "testdynamic");
+        httpGet("/dynamicprefix/page");
+        verify(this.response).sendRedirect("/first");
+
+        componentManager.unregisterComponent(URLMappingPrefixHandler.class, "testdynamic");
+        l.onEvent(new ComponentDescriptorRemovedEvent(), componentManager, descriptor);
+        componentManager.registerComponent(descriptor);
+        TestDynamicURLMappingPrefixHandler replacement =
+            componentManager.getInstance(URLMappingPrefixHandler.class, "testdynamic");
+        replacement.setTarget("/replaced");
+        l.onEvent(new ComponentDescriptorAddedEvent(), componentManager, descriptor);
+
+        httpGet("/dynamicprefix/page");
+        verify(this.response).sendRedirect("/replaced");
+    }
+
+    @Test
+    void testWikiPrefixHandler() throws Exception
+    {
+        URLPrefixHandlerRegistrationListener l = componentManager.getInstance(EventListener.class, "urlprefixhandler");
+        EmbeddableComponentManager wikiComponentManager = new EmbeddableComponentManager();
+        wikiComponentManager.setParent(componentManager);
+        ComponentDescriptor<?> descriptor =
+            new ComponentAnnotationLoader().getComponentsDescriptors(TestWikiURLMappingPrefixHandler.class).get(0);
+        wikiComponentManager.registerComponent(descriptor);
+        l.onEvent(new ComponentDescriptorAddedEvent(), wikiComponentManager, descriptor);
+        // not visible outside of the wiki
+        assertThat(getSupportedTypes(), not(hasItem("wikiprefix")));
+
+        componentManager.registerComponent(ComponentManager.class, "context", wikiComponentManager);
+        when(wikiDescriptorManager.getCurrentWikiId()).thenReturn("subwiki");
+        try {
+            assertThat(getSupportedTypes(), hasItem("wikiprefix"));
+            assertThat(getSupportedTypes(), hasItem("myprefix"));
+            httpGet("/wikiprefix/page");
+            verify(this.response).sendRedirect("/wiki");
+            verify(this.cache).set(eq("subwiki"), any());
+        } finally {
+            componentManager.registerComponent(ComponentManager.class, "context", componentManager);
+        }
+    }
+
+    @Test
+    void testWarmUp() throws Exception
+    {
+        URLPrefixHandlerRegistrationListener l = componentManager.getInstance(EventListener.class, "urlprefixhandler");
+        when(configurationSource.getProperty("urlmapping.warmup", Boolean.class)).thenReturn(true);
+        conf("urlmapping.prefixhandlers.testcached.warmupPaths", "page, other");
+        l.onEvent(new ApplicationStartedEvent(), null, null);
+
+        verify(this.cache, timeout(10000)).set(eq("GET page"), any());
+    }
+
+    @Test
+    void testStaticTable(@TempDir Path directory) throws Exception
+    {
+        Path source = directory.resolve("mappings.txt");
+        Path table = directory.resolve("mappings.table");
+        Files.write(source, List.of("old/a\t/new/a", "old/b\t/new/b"));
+        assertEquals(2, StaticMappingTableBuilder.build(source, table));
+        TestStaticTableURLMappingPrefixHandler handler =
+            componentManager.getInstance(URLMappingPrefixHandler.class, "teststatic");
+        handler.setFile(table);
+
+        httpGet("/staticprefix/old/b");
+        verify(this.response).sendRedirect("/new/b");
+        httpGet("/staticprefix/old/c");
+        verify(this.response).setStatus(404);
+
+        // a new version of the table is dropped in
+        Files.write(source, List.of("old/b\t/newer/b", "old/c\t/new/c"));
+        StaticMappingTableBuilder.build(source, table);
+        httpGet("/staticprefix/old/c");
+        verify(this.response).sendRedirect("/new/c");
+    }
+
+    @Test
+    void testImportMappings(@TempDir Path directory) throws Exception
+    {
+        Path source = directory.resolve("mappings.csv");
+        Path table = directory.resolve("mappings.table");
+        Files.write(source, List.of("path,target", "/old/b,/new/b", "invalid", "\"/old/a\",/new/a", "old/b,/newer/b"));
+        URLMappingImporter importer = componentManager.getInstance(URLMappingImporter.class);
+        assertEquals(2, importer.importMappings(source, URLMappingImporter.Format.CSV, table));
+        TestStaticTableURLMappingPrefixHandler handler =
+            componentManager.getInstance(URLMappingPrefixHandler.class, "teststatic");
+        handler.setFile(table);
+
+        httpGet("/staticprefix/old/a");
+        verify(this.response).sendRedirect("/new/a");
+        httpGet("/staticprefix/old/b");
+        verify(this.response).sendRedirect("/newer/b");
+    }
+
+    @Test
+    void testImportMappingsResumedFromRuns(@TempDir Path directory) throws Exception
+    {
+        // a run is written every two records
+        conf("urlmapping.importMemoryBudget", 200);
+        Path source = directory.resolve("mappings.csv");
+        Path table = directory.resolve("mappings.table");
+        Files.write(source, List.of("path,target", "/old/a,/new/a", "/old/b,/new/b", "/old/c,/new/c",
+            "/old/a,/newer/a", "/old/b,/newest/b"));
+        URLMappingImporter importer = componentManager.getInstance(URLMappingImporter.class);
+
+        // the import is interrupted when reporting the progress of the first run
+        doThrow(new IllegalStateException("interrupted")).doNothing().when(this.jobProgressManager)
+            .startStep(argThat(step -> step != importer));
+        assertThrows(IllegalStateException.class,
+            () -> importer.importMappings(source, URLMappingImporter.Format.CSV, table));
+        Path work = directory.resolve("mappings.table.import");
+        Path firstRun = work.resolve("run-0.txt");
+        assertEquals(List.of("old/a\t/new/a", "old/b\t/new/b"), Files.readAllLines(firstRun));
+        assertFalse(Files.exists(work.resolve("run-1.txt")));
+        assertFalse(Files.exists(table));
+
+        // the resumed import reuses the first run instead of reading its lines again
+        Files.write(firstRun, List.of("old/a\t/new/a", "old/b\t/new/b", "old/z\t/resumed/z"));
+        assertEquals(4, importer.importMappings(source, URLMappingImporter.Format.CSV, table));
+        assertFalse(Files.exists(work));
+        TestStaticTableURLMappingPrefixHandler handler =
+            componentManager.getInstance(URLMappingPrefixHandler.class, "teststatic");
+        handler.setFile(table);
+
+        // the last record of a path is kept across the runs
+        httpGet("/staticprefix/old/a");
+        verify(this.response).sendRedirect("/newer/a");
+        httpGet("/staticprefix/old/b");
+        verify(this.response).sendRedirect("/newest/b");
+        httpGet("/staticprefix/old/c");
+        verify(this.response).sendRedirect("/new/c");
+        httpGet("/staticprefix/old/z");
+        verify(this.response).sendRedirect("/resumed/z");
+    }
+
+    @Test
+    void testImportMappingsOverMemoryBudget(@TempDir Path directory) throws Exception
+    {
+        // each record gets its own run, but the table of the three mappings needs more than the budget
+        conf("urlmapping.importMemoryBudget", 70);
+        Path source = directory.resolve("mappings.csv");
+        Path table = directory.resolve("mappings.table");
+        Files.write(source, List.of("/old/a,/new/a", "/old/b,/new/b", "/old/c,/new/c"));
+        URLMappingImporter importer = componentManager.getInstance(URLMappingImporter.class);
+
+        URLMappingException exception = assertThrows(URLMappingException.class,
+            () -> importer.importMappings(source, URLMappingImporter.Format.CSV, table));
+        assertThat(exception.getMessage(), containsString("urlmapping.importMemoryBudget"));
+        assertFalse(Files.exists(table));
+
+        // the runs are kept, to resume with a larger budget
+        conf("urlmapping.importMemoryBudget", 100);
+        assertEquals(3, importer.importMappings(source, URLMappingImporter.Format.CSV, table));
+    }
+
+    @Test
+    void testWikiRules() throws Exception
+    {
+        when(wikiDescriptorManager.getMainWikiId()).thenReturn("xwiki");
+        DocumentReference rulesReference = new DocumentReference("xwiki", "Redirects", "WebHome");
+        DocumentReference admin = new DocumentReference("xwiki", "XWiki", "Admin");
+        when(authorizationManager.hasAccess(Right.ADMIN, admin, new WikiReference("xwiki"))).thenReturn(true);
+        XWikiDocument rules = new XWikiDocument(rulesReference);
+        rules.setAuthorReference(admin);
+        addRule(rules, "/old/page", "mywiki:MySpace.MyDoc", false);
+        addRule(rules, "blog/(\\d+)", "/posts/$1", true);
+        Query query = mock(Query.class);
+        when(queryManager.createQuery(any(), any())).thenReturn(query);
+        when(query.bindValue(any(), any())).thenReturn(query);
+        when(query.setWiki(any())).thenReturn(query);
+        when(query.execute()).thenReturn(List.of("Redirects.WebHome"));
+        XWikiContext xcontext = getXWikiContext();
+        when(xcontext.getWiki().getDocument(rulesReference, xcontext)).thenReturn(rules);
+
+        httpGet("/rulesprefix/old/page");
+        verify(this.response).sendRedirect("/hello");
+        httpGet("/rulesprefix/blog/42");
+        verify(this.response).sendRedirect("/posts/42");
+
+        // the rules of the saved document replace its previous rules, without loading them again
+        XWikiDocument updatedRules = new XWikiDocument(rulesReference);
+        updatedRules.setAuthorReference(admin);
+        addRule(updatedRules, "other", "/other", false);
+        updatedRules.setOriginalDocument(rules);
+        EventListener listener = componentManager.getInstance(EventListener.class, "urlmappingwikirules");
+        listener.onEvent(new DocumentUpdatedEvent(), updatedRules, null);
+
+        httpGet("/rulesprefix/other");
+        verify(this.response).sendRedirect("/other");
+        httpGet("/rulesprefix/old/page");
+        verify(this.response).setStatus(404);
+        verify(query).execute();
+    }
+
+    @Test
+    void testWikiRulesOfUnprivilegedAuthors() throws Exception
+    {
+        when(wikiDescriptorManager.getMainWikiId()).thenReturn("xwiki");
+        DocumentReference user = new DocumentReference("xwiki", "XWiki", "User");
+        DocumentReference programmer = new DocumentReference("xwiki", "XWiki", "Programmer");
+        when(authorizationManager.hasAccess(Right.PROGRAMMING, programmer, new WikiReference("xwiki")))
+            .thenReturn(true);
+        DocumentReference rulesReference = new DocumentReference("xwiki", "Redirects", "WebHome");
+        XWikiDocument rules = new XWikiDocument(rulesReference);
+        rules.setAuthorReference(user);
+        addRule(rules, "/old/page", "/new/page", false);
+        Query query = mock(Query.class);
+        when(queryManager.createQuery(any(), any())).thenReturn(query);
+        when(query.bindValue(any(), any())).thenReturn(query);
+        when(query.setWiki(any())).thenReturn(query);
+        when(query.execute()).thenReturn(List.of("Redirects.WebHome"));
+        XWikiContext xcontext = getXWikiContext();
+        when(xcontext.getWiki().getDocument(rulesReference, xcontext)).thenReturn(rules);
+
+        // the loaded rules of a user are ignored
+        httpGet("/rulesprefix/old/page");
+        verify(this.response).setStatus(404);
+
+        // and so are the saved ones, until a programmer saves them
+        EventListener listener = componentManager.getInstance(EventListener.class, "urlmappingwikirules");
+        XWikiDocument savedRules = new XWikiDocument(rulesReference);
+        savedRules.setAuthorReference(user);
+        addRule(savedRules, "other", "/other", false);
+        savedRules.setOriginalDocument(rules);
+        listener.onEvent(new DocumentUpdatedEvent(), savedRules, null);
+        httpGet("/rulesprefix/other");
+        verify(this.response, times(2)).setStatus(404);
+
+        savedRules.setAuthorReference(programmer);
+        listener.onEvent(new DocumentUpdatedEvent(), savedRules, null);
+        httpGet("/rulesprefix/other");
+        verify(this.response).sendRedirect("/other");
+    }
+
+    private void addRule(XWikiDocument document, String path, String target, boolean regex)
+    {
+        BaseObject rule = new BaseObject();
+        rule.setXClassReference(new DocumentReference("xwiki", List.of("URLMapping", "Code"), "URLMappingRuleClass"));
+        rule.setStringValue("path", path);
+        rule.setStringValue("target", target);
+        rule.setIntValue("regex", regex ? 1 : 0);
+        document.addXObject(rule);
+    }
+
+    @ParameterizedTest
+    @CsvSource({
+        "display/OLDSPACE/Archive/2019/Page, /archive/2019/Page",
+        "display/OLDSPACE2/Page, /legacy/OLDSPACE2/Page",
+        "display, /legacy"
+    })
+    void testSubtrees(String path, String target) throws Exception
+    {
+        httpGet("/subtreeprefix/" + path);
+        verify(this.response).sendRedirect(target);
+    }
+
+    @Test
+    void testSubtreeToNestedPage() throws Exception
+    {
+        httpGet("/subtreeprefix/display/OLDSPACE/Page/Child");
+
+        XWikiContext xcontext = getXWikiContext();
+        EntityReference page = new DocumentReference("mywiki", List.of("MySpace", "Page", "Child"), "WebHome");
+        verify(xcontext.getWiki()).getURL(page, "view", xcontext);
+    }
+
+    private XWikiContext getXWikiContext() throws Exception
+    {
+        Provider<XWikiContext> xcontextProvider = componentManager.getInstance(new DefaultParameterizedType(null,
+            Provider.class,
+            XWikiContext.class));
+        return xcontextProvider.get();
+    }
+
     private List<String> getSupportedTypes()
     {
         return urlMappingResourceReferenceHandler.getSupportedResourceReferences()
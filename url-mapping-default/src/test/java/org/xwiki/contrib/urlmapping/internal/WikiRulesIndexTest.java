@@ -0,0 +1,145 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.contrib.urlmapping.internal;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.PatternSyntaxException;
+
+import org.junit.jupiter.api.Test;
+import org.xwiki.model.reference.DocumentReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Unit tests for {@link WikiRulesIndex}.
+ *
+ * @version $Id$
+ */
+class WikiRulesIndexTest
+{
+    private static final DocumentReference FIRST = new DocumentReference("xwiki", "Redirects", "First");
+
+    private static final DocumentReference SECOND = new DocumentReference("xwiki", "Redirects", "Second");
+
+    private static WikiRulesIndex.Rule exact(String path, String target)
+    {
+        return new WikiRulesIndex.Rule(path, false, target);
+    }
+
+    private static WikiRulesIndex.Rule regex(String path, String target)
+    {
+        return new WikiRulesIndex.Rule(path, true, target);
+    }
+
+    private static Map<DocumentReference, List<WikiRulesIndex.Rule>> rules(DocumentReference document,
+        WikiRulesIndex.Rule... documentRules)
+    {
+        return Collections.singletonMap(document, List.of(documentRules));
+    }
+
+    @Test
+    void getTarget()
+    {
+        WikiRulesIndex index =
+            WikiRulesIndex.EMPTY.update(rules(FIRST, exact("old", "/new"), regex("blog/(\\d+)", "/posts/$1")));
+
+        assertEquals(2, index.size());
+        assertEquals("/new", index.getTarget("old"));
+        assertEquals("/posts/42", index.getTarget("blog/42"));
+        assertNull(index.getTarget("blog/x"));
+        assertNull(index.getTarget("old/page"));
+        assertNull(WikiRulesIndex.EMPTY.getTarget("old"));
+    }
+
+    @Test
+    void getTargetWithExactRulesFirst()
+    {
+        WikiRulesIndex index = WikiRulesIndex.EMPTY.update(rules(FIRST, regex("o.*", "/regex")))
+            .update(rules(SECOND, exact("old", "/exact")));
+
+        assertEquals("/exact", index.getTarget("old"));
+        assertEquals("/regex", index.getTarget("other"));
+    }
+
+    @Test
+    void getTargetByPrecedence()
+    {
+        Map<DocumentReference, List<WikiRulesIndex.Rule>> updates = new LinkedHashMap<>();
+        updates.put(FIRST, List.of(exact("page", "/first/1"), exact("page", "/first/2"), regex("r.*", "/first")));
+        updates.put(SECOND, List.of(exact("page", "/second"), regex("r.*", "/second")));
+        WikiRulesIndex index = WikiRulesIndex.EMPTY.update(updates);
+
+        // the first document wins, and then its first rule
+        assertEquals("/first/1", index.getTarget("page"));
+        assertEquals("/first", index.getTarget("rule"));
+
+        // an updated document keeps its precedence
+        index = index.update(rules(FIRST, exact("page", "/first/3"), regex("r.*", "/first/3")));
+        assertEquals("/first/3", index.getTarget("page"));
+        assertEquals("/first/3", index.getTarget("rule"));
+
+        // a removed document, added again, comes after the other ones
+        index = index.update(rules(FIRST));
+        assertEquals(2, index.size());
+        assertEquals("/second", index.getTarget("page"));
+        assertEquals("/second", index.getTarget("rule"));
+        index = index.update(rules(FIRST, exact("page", "/first/4")));
+        assertEquals("/second", index.getTarget("page"));
+    }
+
+    @Test
+    void getTargetWithInvalidGroupReference()
+    {
+        WikiRulesIndex index =
+            WikiRulesIndex.EMPTY.update(rules(FIRST, regex("a(.*)", "/$2"), regex("a.*", "/fallback")));
+
+        assertEquals("/fallback", index.getTarget("abc"));
+    }
+
+    @Test
+    void update()
+    {
+        WikiRulesIndex index = WikiRulesIndex.EMPTY.update(rules(FIRST, exact("old", "/new"), regex("r.*", "/r")));
+        WikiRulesIndex updated = index.update(rules(FIRST, exact("other", "/other")));
+
+        // the snapshots are immutable
+        assertEquals("/new", index.getTarget("old"));
+        assertEquals("/r", index.getTarget("rule"));
+        assertNull(updated.getTarget("old"));
+        assertNull(updated.getTarget("rule"));
+        assertEquals("/other", updated.getTarget("other"));
+        assertEquals(1, updated.size());
+        assertEquals(0, WikiRulesIndex.EMPTY.size());
+
+        // removing the rules of a document without rules changes nothing
+        assertEquals(1, updated.update(rules(SECOND)).size());
+    }
+
+    @Test
+    void ruleWithInvalidRegex()
+    {
+        assertThrows(PatternSyntaxException.class, () -> regex("blog/(", "/blog"));
+    }
+}